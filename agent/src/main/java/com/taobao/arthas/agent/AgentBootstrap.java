@@ -14,14 +14,8 @@ import java.util.jar.JarFile;
  */
 public class AgentBootstrap {
 
-    // 通知编织者
-    private static final String ADVICEWEAVER = "com.taobao.arthas.core.advisor.AdviceWeaver";
-    private static final String ON_BEFORE = "methodOnBegin";
-    private static final String ON_RETURN = "methodOnReturnEnd";
-    private static final String ON_THROWS = "methodOnThrowingEnd";
-    private static final String BEFORE_INVOKE = "methodOnInvokeBeforeTracing";
-    private static final String AFTER_INVOKE = "methodOnInvokeAfterTracing";
-    private static final String THROW_INVOKE = "methodOnInvokeThrowTracing";
+    // 间谍钩子实现
+    private static final String SPY_IMPL = "com.taobao.arthas.core.advisor.SpyImpl";
     private static final String RESET = "resetArthasClassLoader";
     // 间谍类 jar 包
     private static final String ARTHAS_SPY_JAR = "arthas-spy.jar";
@@ -113,24 +107,19 @@ public class AgentBootstrap {
         return arthasClassLoader;
     }
 
-    private static void initSpy(ClassLoader classLoader) throws ClassNotFoundException, NoSuchMethodException {
-        // 使用 ArthasClassloader#loadClass方法，加载com.taobao.arthas.core.advisor.AdviceWeaver类
-        Class<?> adviceWeaverClass = classLoader.loadClass(ADVICEWEAVER);
-        // 将AdviceWeaver类里面的methodOnBegin、methodOnReturnEnd、methodOnThrowingEnd等方法取出赋值给Spy类对应的方法
-        Method onBefore = adviceWeaverClass.getMethod(ON_BEFORE, int.class, ClassLoader.class, String.class,
-                String.class, String.class, Object.class, Object[].class);
-        Method onReturn = adviceWeaverClass.getMethod(ON_RETURN, Object.class);
-        Method onThrows = adviceWeaverClass.getMethod(ON_THROWS, Throwable.class);
-        Method beforeInvoke = adviceWeaverClass.getMethod(BEFORE_INVOKE, int.class, String.class, String.class, String.class);
-        Method afterInvoke = adviceWeaverClass.getMethod(AFTER_INVOKE, int.class, String.class, String.class, String.class);
-        Method throwInvoke = adviceWeaverClass.getMethod(THROW_INVOKE, int.class, String.class, String.class, String.class);
+    private static void initSpy(ClassLoader classLoader) throws ClassNotFoundException, NoSuchMethodException,
+            IllegalAccessException, InstantiationException {
+        // 使用 ArthasClassloader#loadClass方法，加载com.taobao.arthas.core.advisor.SpyImpl类
+        Class<?> spyImplClass = classLoader.loadClass(SPY_IMPL);
+        // SpyImpl继承自BootstrapClassLoader中的Spy.AbstractSpy，实例化后赋值给Spy，由它转交给AdviceWeaver
+        Spy.AbstractSpy spyInstance = (Spy.AbstractSpy) spyImplClass.newInstance();
         Method reset = AgentBootstrap.class.getMethod(RESET);
         /**
-         * Spy类里面的方法又会通过ASM字节码增强的方式，编织到目标代码的方法里面。
+         * Spy类里面的静态方法又会通过ASM字节码增强的方式，编织到目标代码的方法里面。
          * 使得Spy 间谍类可以关联由AppClassLoader加载的目标进程的业务类和ArthasClassloader加载的arthas类，
          * 因此Spy类可以看做两者之间的桥梁
          */
-        Spy.initForAgentLauncher(classLoader, onBefore, onReturn, onThrows, beforeInvoke, afterInvoke, throwInvoke, reset);
+        Spy.initForAgentLauncher(classLoader, spyInstance, reset);
     }
 
     private static synchronized void main(final String args, final Instrumentation inst) {
@@ -45,6 +45,56 @@ public class GlobalOptions {
     )
     public static volatile boolean isBatchReTransform = true;
 
+    /**
+     * 批量增强时每批的停顿预算(毫秒)<br/>
+     * 类会被自适应地分成若干批依次增强，尽量让每批的停顿不超过预算，0表示所有类一次增强
+     */
+    @Option(level = 1,
+            name = "retransform-pause-budget",
+            summary = "Option to limit the pause of each reTransform batch",
+            description = "This option sets the pause in milliseconds that each batch of a batch reTransform aims at. "
+                    + "Classes are split into adaptively sized batches, 0 means reTransform all classes at once."
+    )
+    public static volatile long retransformPauseBudget = 50;
+
+    /**
+     * 批量增强时两批之间的间隔(毫秒)
+     */
+    @Option(level = 1,
+            name = "retransform-interval",
+            summary = "Option to set the interval between reTransform batches",
+            description = "This option sets the milliseconds to sleep between two reTransform batches, "
+                    + "giving the application time to recover from the pause."
+    )
+    public static volatile long retransformInterval = 100;
+
+    /**
+     * 类字节码缓存的容量(MB)<br/>
+     * 被增强类增强后的字节码压缩后的总大小超过容量时，淘汰最久没有被增强过的类，0表示不限制
+     */
+    @Option(level = 1,
+            name = "class-bytes-cache-budget",
+            summary = "Option to limit the memory of the enhanced class bytes cache",
+            description = "This option sets the megabytes of compressed bytecode kept for enhanced classes. "
+                    + "Classes not enhanced recently are evicted beyond it, 0 means unlimited."
+    )
+    public static volatile long classBytesCacheBudget = 16;
+
+    /**
+     * 是否外联通知代码<br/>
+     * 这个开关打开后，通知代码被移到伴生类的静态方法中，被增强的方法在每个通知点只增加一次静态调用，小方法仍然可以被JIT内联。
+     * 伴生类定义在被增强类的类加载器中，随类加载器一起回收，所以默认关闭
+     */
+    @Option(level = 1,
+            name = "outline-advice",
+            summary = "Option to keep enhanced methods small",
+            description = "This option moves the advice code into static methods of a companion class, "
+                    + "leaving a single short call at each advice point so that small enhanced methods stay inlineable. "
+                    + "The companion classes are defined in the class loader of the enhanced classes "
+                    + "and stay there until the loader is collected."
+    )
+    public static volatile boolean isOutlineAdvice = false;
+
     /**
      * 是否支持json格式化输出<br/>
      * 这个开关打开后，使用json格式输出目标对象，配合-x参数使用
@@ -99,4 +149,28 @@ public class GlobalOptions {
     )
     public static volatile String jobTimeout = "1d";
 
+    /**
+     * 是否自动重置不再被监听的类<br/>
+     * 这个开关打开后，当一个类上所有的监听命令都结束时，会在后台自动恢复该类的原始字节码
+     */
+    @Option(level = 1,
+            name = "auto-reset",
+            summary = "Option to reset classes automatically",
+            description = "This option enables to restore the original bytecode of an enhanced class "
+                    + "in background once no running command is listening on it."
+    )
+    public static volatile boolean isAutoReset = true;
+
+    /**
+     * 通知开销预算(占全部CPU的百分比)<br/>
+     * 监听器的开销超过预算后，会依次降低采样比例直至结束命令，0表示不限制
+     */
+    @Option(level = 1,
+            name = "overhead-budget",
+            summary = "Option to limit the overhead of enhancer commands",
+            description = "This option sets the percentage of total CPU that the listeners of one command may use. "
+                    + "Commands exceeding it are degraded to sampling and finally aborted, 0 means unlimited."
+    )
+    public static volatile double overheadBudget = 2.0;
+
 }
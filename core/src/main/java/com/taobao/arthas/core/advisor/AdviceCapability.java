@@ -0,0 +1,54 @@
+package com.taobao.arthas.core.advisor;
+
+/**
+ * 通知监听器的能力描述<br/>
+ * 描述监听器真正需要采集的现场数据，编织器据此只生成必要的字节码。
+ * 未声明的数据在通知中以null传递，从而省去装箱及参数数组的分配
+ */
+public final class AdviceCapability {
+
+    /**
+     * 只需要计时(成功/失败)，不采集任何现场数据
+     */
+    public static final int TIMING_ONLY = 0;
+
+    /**
+     * 需要目标对象(this)
+     */
+    public static final int NEED_TARGET = 1;
+
+    /**
+     * 需要参数列表
+     */
+    public static final int NEED_ARGS = 1 << 1;
+
+    /**
+     * 需要返回值
+     */
+    public static final int NEED_RETURN = 1 << 2;
+
+    /**
+     * 需要抛出的异常
+     */
+    public static final int NEED_THROWABLE = 1 << 3;
+
+    /**
+     * 采集全部现场数据
+     */
+    public static final int ALL = NEED_TARGET | NEED_ARGS | NEED_RETURN | NEED_THROWABLE;
+
+    private AdviceCapability() {
+    }
+
+    /**
+     * 是否具备某项能力
+     *
+     * @param capability 监听器的能力描述
+     * @param need       需要判断的能力
+     * @return true/false
+     */
+    public static boolean has(int capability, int need) {
+        return (capability & need) == need;
+    }
+
+}
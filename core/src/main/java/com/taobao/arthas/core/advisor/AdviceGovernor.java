@@ -0,0 +1,196 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.ArthasScheduler;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.middleware.logger.Logger;
+
+import java.arthas.Spy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通知开销调控器<br/>
+ * 定期检查每个通知ID上监听器的自身耗时占全部CPU的比例,超过{@link GlobalOptions#overheadBudget}时逐级降级:
+ * 先在用户指定的采样之上再依次收紧到1/10、1/100、1/1000,仍然超出预算则结束命令,每次降级都会通知到命令
+ */
+public class AdviceGovernor {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    // 检查周期(毫秒)
+    private static final long CHECK_INTERVAL_MILLIS = 1000L;
+
+    // 逐级收紧的采样间隔
+    private static final int[] SAMPLING_INTERVALS = {10, 100, 1000};
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private static final Map<Integer, Governed> governs = new HashMap<Integer, Governed>();
+
+    private static ArthasScheduler.ScheduledTask timer;
+
+    /**
+     * 降级动作的执行者,由命令提供
+     */
+    public interface Degrader {
+
+        /**
+         * 报告调控器所做的降级
+         *
+         * @param message 降级信息
+         */
+        void report(String message);
+
+        /**
+         * 结束命令
+         */
+        void abort();
+
+    }
+
+    /**
+     * 是否开启调控,关闭时不再计量开销
+     */
+    static boolean isEnabled() {
+        return GlobalOptions.overheadBudget > 0;
+    }
+
+    /**
+     * 开始调控通知ID
+     *
+     * @param adviceId 通知ID
+     * @param degrader 降级动作的执行者
+     */
+    public static synchronized void govern(int adviceId, Degrader degrader) {
+        governs.put(adviceId, new Governed(adviceId, degrader));
+        if (null == timer) {
+            timer = ArthasScheduler.scheduleAtFixedRate("advice-governor", new Runnable() {
+                @Override
+                public void run() {
+                    check();
+                }
+            }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * 结束调控通知ID
+     *
+     * @param adviceId 通知ID
+     */
+    public static synchronized void ungovern(int adviceId) {
+        governs.remove(adviceId);
+        if (governs.isEmpty() && null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private static void check() {
+        final double budget = GlobalOptions.overheadBudget;
+        final long now = System.nanoTime();
+        final List<Governed> aborts = new ArrayList<Governed>();
+        synchronized (AdviceGovernor.class) {
+            for (Governed governed : governs.values()) {
+                try {
+                    if (governed.check(budget, now)) {
+                        aborts.add(governed);
+                    }
+                } catch (Throwable t) {
+                    logger.warn("govern advice {} failed.", governed.adviceId, t);
+                }
+            }
+        }
+
+        // 结束命令时会注销通知、结束调控,在锁外执行
+        for (Governed governed : aborts) {
+            try {
+                governed.degrader.abort();
+            } catch (Throwable t) {
+                logger.warn("abort advice {} failed.", governed.adviceId, t);
+            }
+        }
+    }
+
+    /**
+     * 被调控的通知
+     */
+    private static class Governed {
+
+        private final int adviceId;
+        private final Degrader degrader;
+
+        // 已经执行到的降级级别,0表示未降级
+        private int level = 0;
+
+        // 降级前用户指定的采样器,降级的采样在此基础上叠加
+        private Spy.AbstractSampler userSampler;
+
+        private long lastCheckNanos = System.nanoTime();
+        private long lastSelfNanos;
+        private long lastMethodNanos;
+
+        Governed(int adviceId, Degrader degrader) {
+            this.adviceId = adviceId;
+            this.degrader = degrader;
+        }
+
+        /**
+         * @return 是否需要结束命令
+         */
+        boolean check(double budget, long now) {
+            final AdviceMeter meter = AdviceListenerRegistry.meter(adviceId);
+            if (null == meter) {
+                return false;
+            }
+
+            final long selfNanos = meter.selfNanos();
+            final long methodNanos = meter.methodNanos();
+            final long elapsedNanos = now - lastCheckNanos;
+            final long selfDelta = selfNanos - lastSelfNanos;
+            final long methodDelta = methodNanos - lastMethodNanos;
+            lastCheckNanos = now;
+            lastSelfNanos = selfNanos;
+            lastMethodNanos = methodNanos;
+
+            if (budget <= 0 || elapsedNanos <= 0) {
+                return false;
+            }
+
+            // 占全部CPU的比例
+            final double cpuPercent = selfDelta * 100.0 / elapsedNanos / PROCESSORS;
+            if (cpuPercent <= budget || level > SAMPLING_INTERVALS.length) {
+                return false;
+            }
+
+            // 占被通知方法执行时间的比例
+            final double methodPercent = methodDelta > 0 ? selfDelta * 100.0 / methodDelta : 0;
+            final String overhead = String.format("overhead %.2f%% of cpu (%.2f%% of method time) exceeds budget %.2f%%",
+                    cpuPercent, methodPercent, budget);
+
+            if (level < SAMPLING_INTERVALS.length) {
+                if (level == 0) {
+                    userSampler = AdviceListenerRegistry.sampler(adviceId);
+                }
+                final int interval = SAMPLING_INTERVALS[level++];
+                AdviceListenerRegistry.sample(adviceId,
+                        AdviceSampler.both(userSampler, new AdviceSampler.RatioSampler(1.0 / interval)));
+                degrader.report(overhead + ", sampling 1/" + interval
+                        + (null == userSampler ? "" : " of the sampled") + " invocations.\n");
+                logger.info("advice {} degraded to level {}: {}", adviceId, level, overhead);
+                return false;
+            }
+
+            level++;
+            degrader.report(overhead + " even when sampling 1/" + SAMPLING_INTERVALS[SAMPLING_INTERVALS.length - 1]
+                    + ", command aborted. Narrow the matching classes/methods, or raise the budget by "
+                    + "`options overhead-budget`.\n");
+            logger.info("advice {} aborted: {}", adviceId, overhead);
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.taobao.arthas.core.advisor;
+
+import java.util.BitSet;
+
+/**
+ * 通知ID池<br/>
+ * 通知ID的低位是槽位,从0开始紧凑分配,通知释放后槽位立即复用,
+ * 通知监听器注册表因此总能直接以槽位下标访问,表长以同时存活的通知数为限;
+ * 高位是槽位的分配代数,每次复用都会变化,
+ * 仍残留在被编织的代码中的旧通知ID因此不会命中复用其槽位的新通知
+ */
+public final class AdviceIdPool {
+
+    private static final int SLOT_BITS = 10;
+
+    /**
+     * 同时存活的通知数上限
+     */
+    static final int MAX_SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = MAX_SLOTS - 1;
+
+    // 代数的取值范围,保证通知ID为正数
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    // 槽位 -> 当前代数
+    private static final int[] generations = new int[MAX_SLOTS];
+
+    // 已分配的槽位
+    private static final BitSet slots = new BitSet(MAX_SLOTS);
+
+    private AdviceIdPool() {
+    }
+
+    /**
+     * 分配通知ID
+     *
+     * @return 通知ID
+     * @throws IllegalStateException 同时存活的通知数超过上限
+     */
+    public static synchronized int acquire() {
+        final int slot = slots.nextClearBit(0);
+        if (slot >= MAX_SLOTS) {
+            throw new IllegalStateException("too many advices alive, the limit is " + MAX_SLOTS + ".");
+        }
+        slots.set(slot);
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        return generations[slot] << SLOT_BITS | slot;
+    }
+
+    /**
+     * 释放通知ID,重复释放或释放已经被复用的通知ID时忽略
+     *
+     * @param adviceId 通知ID
+     */
+    public static synchronized void release(int adviceId) {
+        if (adviceId < 0) {
+            return;
+        }
+        final int slot = slot(adviceId);
+        if (slots.get(slot) && (generations[slot] << SLOT_BITS | slot) == adviceId) {
+            slots.clear(slot);
+        }
+    }
+
+    /**
+     * 通知ID所在的槽位
+     */
+    static int slot(int adviceId) {
+        return adviceId & SLOT_MASK;
+    }
+
+}
@@ -18,6 +18,14 @@ public interface AdviceListener {
      */
     void destroy();
 
+    /**
+     * 监听器的能力描述<br/>
+     * 编织时据此决定需要采集哪些现场数据，未声明的数据在通知中为null
+     *
+     * @return {@link AdviceCapability}中各项能力的组合
+     */
+    int capability();
+
     /**
      * 前置通知
      *
@@ -16,6 +16,11 @@ public class AdviceListenerAdapter implements AdviceListener {
 
     }
 
+    @Override
+    public int capability() {
+        return AdviceCapability.ALL;
+    }
+
     @Override
     public void before(
             ClassLoader loader, String className, String methodName, String methodDesc,
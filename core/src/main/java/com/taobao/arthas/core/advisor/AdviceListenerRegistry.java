@@ -0,0 +1,217 @@
+package com.taobao.arthas.core.advisor;
+
+import java.arthas.Spy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 通知监听器注册表<br/>
+ * 以通知ID对表长取模直接定位槽位,运行时查找只需要一次数组下标访问和一次ID比较;
+ * 注册/注销时加锁并整体复制出新表(写时复制)。通知ID由{@link AdviceIdPool}紧凑分配,
+ * 存活的通知ID槽位互不相同,表长以最大的槽位为限,不超过{@link AdviceIdPool#MAX_SLOTS}。
+ * 已注销的通知ID即使仍残留在被编织的代码中,也会因为ID比较不一致而找不到监听器。
+ * 表每次变化时同步发布到{@link Spy#ACTIVE_ADVICE_IDS}及{@link Spy#ADVICE_SAMPLERS},
+ * 被编织的代码据此跳过未激活或未被采样的调用
+ */
+final class AdviceListenerRegistry {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static volatile Entry[] table = new Entry[DEFAULT_CAPACITY];
+
+    // 通知ID -> 采样器,暂停期间依然保留
+    private static final Map<Integer, Spy.AbstractSampler> samplers = new HashMap<Integer, Spy.AbstractSampler>();
+
+    // 通知ID -> 开销计量,暂停期间依然保留
+    private static final Map<Integer, AdviceMeter> meters = new HashMap<Integer, AdviceMeter>();
+
+    private AdviceListenerRegistry() {
+    }
+
+    /**
+     * 获取监听器
+     *
+     * @param adviceId 通知ID
+     * @return 监听器, 未注册或已暂停时返回null
+     */
+    static AdviceListener get(int adviceId) {
+        final Entry entry = entry(adviceId);
+        return null == entry
+                ? null
+                : entry.listener;
+    }
+
+    /**
+     * 获取注册项
+     *
+     * @param adviceId 通知ID
+     * @return 注册项, 未注册或已暂停时返回null
+     */
+    static Entry entry(int adviceId) {
+        final Entry[] current = table;
+        final Entry entry = current[adviceId & (current.length - 1)];
+        return null != entry && entry.adviceId == adviceId
+                ? entry
+                : null;
+    }
+
+    /**
+     * 获取开销计量
+     *
+     * @param adviceId 通知ID
+     * @return 开销计量, 通知ID未注册时返回null
+     */
+    static synchronized AdviceMeter meter(int adviceId) {
+        return meters.get(adviceId);
+    }
+
+    /**
+     * 注册监听器,同一个通知ID重复注册时覆盖
+     *
+     * @param adviceId 通知ID
+     * @param listener 监听器
+     */
+    static synchronized void put(int adviceId, AdviceListener listener) {
+        final Entry[] current = table;
+        final int size = count(current, adviceId);
+        final Entry[] entries = new Entry[size + 1];
+        collect(current, adviceId, entries);
+        AdviceMeter meter = meters.get(adviceId);
+        if (null == meter) {
+            meter = new AdviceMeter();
+        }
+        entries[size] = new Entry(adviceId, listener, meter);
+        final Entry[] newTable = rebuild(entries);
+        meters.put(adviceId, meter);
+        publish(newTable);
+    }
+
+    /**
+     * 注销监听器
+     *
+     * @param adviceId 通知ID
+     * @return 被注销的监听器, 不存在时返回null
+     */
+    static synchronized AdviceListener remove(int adviceId) {
+        final AdviceListener listener = get(adviceId);
+        if (null == listener) {
+            return null;
+        }
+        final Entry[] current = table;
+        final Entry[] entries = new Entry[count(current, adviceId)];
+        collect(current, adviceId, entries);
+        publish(rebuild(entries));
+        return listener;
+    }
+
+    /**
+     * 释放通知ID的采样器及开销计量,注销监听器时调用
+     *
+     * @param adviceId 通知ID
+     */
+    static synchronized void release(int adviceId) {
+        meters.remove(adviceId);
+        sample(adviceId, null);
+    }
+
+    /**
+     * 获取采样器
+     *
+     * @param adviceId 通知ID
+     * @return 采样器, 没有采样时返回null
+     */
+    static synchronized Spy.AbstractSampler sampler(int adviceId) {
+        return samplers.get(adviceId);
+    }
+
+    /**
+     * 设置采样器
+     *
+     * @param adviceId 通知ID
+     * @param sampler  采样器, null表示取消采样
+     */
+    static synchronized void sample(int adviceId, Spy.AbstractSampler sampler) {
+        if (null == sampler) {
+            samplers.remove(adviceId);
+        } else {
+            samplers.put(adviceId, sampler);
+        }
+        publish(table);
+    }
+
+    private static void publish(Entry[] newTable) {
+        final int[] activeAdviceIds = new int[newTable.length];
+        final Spy.AbstractSampler[] adviceSamplers = new Spy.AbstractSampler[newTable.length];
+        for (int index = 0; index < newTable.length; index++) {
+            activeAdviceIds[index] = null == newTable[index]
+                    ? -1
+                    : newTable[index].adviceId;
+            adviceSamplers[index] = null == newTable[index]
+                    ? null
+                    : samplers.get(newTable[index].adviceId);
+        }
+        table = newTable;
+        // 先发布采样器,读取方先读通知ID表再读采样器表,从而总能看到不旧于通知ID表的采样器
+        Spy.ADVICE_SAMPLERS = adviceSamplers;
+        Spy.ACTIVE_ADVICE_IDS = activeAdviceIds;
+    }
+
+    // 除exclude外已注册的监听器数量
+    private static int count(Entry[] current, int exclude) {
+        int size = 0;
+        for (Entry entry : current) {
+            if (null != entry && entry.adviceId != exclude) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static void collect(Entry[] current, int exclude, Entry[] entries) {
+        int index = 0;
+        for (Entry entry : current) {
+            if (null != entry && entry.adviceId != exclude) {
+                entries[index++] = entry;
+            }
+        }
+    }
+
+    /**
+     * 以能容纳最大槽位的最小表长(2的幂)重建表<br/>
+     * 槽位紧凑分配,表长一般保持在默认大小
+     */
+    private static Entry[] rebuild(Entry[] entries) {
+        int maxSlot = 0;
+        for (Entry entry : entries) {
+            maxSlot = Math.max(maxSlot, AdviceIdPool.slot(entry.adviceId));
+        }
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity <= maxSlot) {
+            capacity <<= 1;
+        }
+
+        final Entry[] newTable = new Entry[capacity];
+        for (Entry entry : entries) {
+            final int slot = AdviceIdPool.slot(entry.adviceId);
+            if (null != newTable[slot]) {
+                throw new IllegalStateException("advice " + entry.adviceId + " conflicts with advice "
+                        + newTable[slot].adviceId + ", advice id should be acquired from AdviceIdPool.");
+            }
+            newTable[slot] = entry;
+        }
+        return newTable;
+    }
+
+    static final class Entry {
+        final int adviceId;
+        final AdviceListener listener;
+        final AdviceMeter meter;
+
+        Entry(int adviceId, AdviceListener listener, AdviceMeter meter) {
+            this.adviceId = adviceId;
+            this.listener = listener;
+            this.meter = meter;
+        }
+    }
+
+}
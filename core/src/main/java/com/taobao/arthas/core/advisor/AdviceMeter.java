@@ -0,0 +1,72 @@
+package com.taobao.arthas.core.advisor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 通知开销计量<br/>
+ * 每个通知ID一个,累计监听器在before/afterReturning/afterThrowing中消耗的时间(自身耗时)
+ * 以及被通知方法的执行时间,由{@link AdviceGovernor}定期读取。
+ * 与{@link com.taobao.arthas.core.util.metrics.LatencyRecorder}一样,计数分散在按线程ID选择的单元中,
+ * 每次被通知的调用都会计量,不同线程很少更新同一个计数
+ */
+final class AdviceMeter {
+
+    // 单元数量,不小于CPU数的最小的2的幂,最多64个
+    private static final int CELL_COUNT = cellCount(Runtime.getRuntime().availableProcessors());
+
+    // 单元内的布局:前后各留一个缓存行,避免与相邻对象伪共享
+    private static final int PADDING = 8;
+    private static final int SELF_NANOS = PADDING;
+    private static final int METHOD_NANOS = PADDING + 1;
+    private static final int CELL_LENGTH = METHOD_NANOS + 1 + PADDING;
+
+    private final AtomicReferenceArray<AtomicLongArray> cells = new AtomicReferenceArray<AtomicLongArray>(CELL_COUNT);
+
+    private static int cellCount(int processors) {
+        int count = 1;
+        while (count < processors && count < 64) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    void addSelf(long nanos) {
+        cell().addAndGet(SELF_NANOS, nanos);
+    }
+
+    void addMethod(long nanos) {
+        cell().addAndGet(METHOD_NANOS, nanos);
+    }
+
+    long selfNanos() {
+        return sum(SELF_NANOS);
+    }
+
+    long methodNanos() {
+        return sum(METHOD_NANOS);
+    }
+
+    private long sum(int offset) {
+        long sum = 0;
+        for (int index = 0; index < CELL_COUNT; index++) {
+            final AtomicLongArray cell = cells.get(index);
+            if (null != cell) {
+                sum += cell.get(offset);
+            }
+        }
+        return sum;
+    }
+
+    private AtomicLongArray cell() {
+        // 线程ID顺序分配,取模后均匀分布
+        final int index = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+        AtomicLongArray cell = cells.get(index);
+        if (null == cell) {
+            cells.compareAndSet(index, null, new AtomicLongArray(CELL_LENGTH));
+            cell = cells.get(index);
+        }
+        return cell;
+    }
+
+}
@@ -0,0 +1,386 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.reflect.ArthasReflectUtils;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通知外联器<br/>
+ * 把通知代码中检查通知状态、构建参数数组、装箱以及调用Spy的部分移到伴生类的静态方法中,
+ * 被编织的方法在每个通知点只留下一次静态调用,小方法编织后仍然在JIT的内联阈值之内。
+ * retransform不能给类增加方法,所以辅助方法放在与被增强类同包、由同一个类加载器定义的伴生类中;
+ * 辅助方法的引用类型参数一律擦除为Object,伴生类除Spy之外不依赖任何其他类型。
+ * 伴生类一旦定义就无法移除,所以通知ID作为参数传入辅助方法,同一个类的所有通知共用一个伴生类,重新编织时复用;
+ * 需要新的辅助方法时才定义新的伴生类,新的伴生类包含之前的全部辅助方法
+ */
+final class AdviceOutliner implements Opcodes {
+
+    // 伴生类类名的标记
+    private static final String COMPANION_MARK = "$$ArthasAdvice$";
+
+    // 伴生类序号,已定义的伴生类缺少需要的辅助方法时定义新的伴生类,避免与之前定义的同名伴生类冲突
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    // 类加载器 -> (被增强类的内部名 -> 最近定义的伴生类)
+    private static final Map<ClassLoader, Map<String, Companion>> companions
+            = new WeakHashMap<ClassLoader, Map<String, Companion>>();
+
+    private static final Type ASM_TYPE_SPY = Type.getType("Ljava/arthas/Spy;");
+    private static final Type ASM_TYPE_OBJECT = Type.getType(Object.class);
+    private static final Type ASM_TYPE_THROWABLE = Type.getType(Throwable.class);
+    private static final Method ASM_METHOD_SPY_IS_ACTIVE = Method.getMethod("boolean isActive(int)");
+    private static final Method ASM_METHOD_SPY_ON_BEFORE = Method.getMethod("void onBefore(int,int,Object,Object[])");
+    private static final Method ASM_METHOD_SPY_ON_RETURN = Method.getMethod("void onReturn(Object)");
+    private static final Method ASM_METHOD_SPY_ON_THROWS = Method.getMethod("void onThrows(Throwable)");
+
+    private final ClassLoader loader;
+    private final String className;
+    private final String companionName;
+    private final ClassWriter cw;
+
+    // 复用的已定义的伴生类,为null表示需要定义新的伴生类
+    private final Companion reused;
+
+    // 方法名+描述 -> 辅助方法的生成方式,同样的辅助方法只生成一次
+    private final Map<String, Recipe> recipes = new LinkedHashMap<String, Recipe>();
+
+    /**
+     * 复用之前为该类定义的伴生类,没有时定义新的伴生类
+     *
+     * @param loader    被增强类的类加载器
+     * @param className 被增强类的内部名
+     */
+    AdviceOutliner(ClassLoader loader, String className) {
+        this(loader, className, true);
+    }
+
+    /**
+     * @param loader    被增强类的类加载器
+     * @param className 被增强类的内部名
+     * @param isReuse   是否复用之前定义的伴生类
+     */
+    AdviceOutliner(ClassLoader loader, String className, boolean isReuse) {
+        this.loader = loader;
+        this.className = className;
+        this.reused = isReuse ? lookup(loader, className) : null;
+        this.companionName = null != reused
+                ? reused.name
+                : className + COMPANION_MARK + sequence.incrementAndGet();
+        this.cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, companionName, null,
+                ASM_TYPE_OBJECT.getInternalName(), null);
+    }
+
+    /**
+     * 类是否可以外联通知代码<br/>
+     * BootstrapClassLoader中无法定义伴生类,伴生类本身也不再外联
+     */
+    static boolean isOutlinable(ClassLoader loader, String className) {
+        return null != loader && !isCompanion(className);
+    }
+
+    /**
+     * 是否伴生类,伴生类不应被增强
+     *
+     * @param className 类名或内部名
+     */
+    static boolean isCompanion(String className) {
+        return null != className && className.contains(COMPANION_MARK);
+    }
+
+    Type getCompanionType() {
+        return Type.getObjectType(companionName);
+    }
+
+    /**
+     * 方法入口的辅助方法<br/>
+     * 参数为(通知ID, 目标对象, 方法参数...),返回通知是否处于活动状态
+     *
+     * @param methodId   方法编号
+     * @param hasTarget  是否传入目标对象
+     * @param argTypes   方法参数类型, null表示不传入方法参数
+     */
+    Method before(int methodId, boolean hasTarget, Type[] argTypes) {
+        final int argCount = null == argTypes ? 0 : argTypes.length;
+        final int argOffset = hasTarget ? 2 : 1;
+        final Type[] paramTypes = new Type[argOffset + argCount];
+        paramTypes[0] = Type.INT_TYPE;
+        if (hasTarget) {
+            paramTypes[1] = ASM_TYPE_OBJECT;
+        }
+        for (int index = 0; index < argCount; index++) {
+            paramTypes[argOffset + index] = erase(argTypes[index]);
+        }
+
+        // 是否传入目标对象、方法参数不同时生成的代码不同,即使方法描述相同
+        final Method method = new Method("before$" + methodId + (hasTarget ? "$t" : "") + (null == argTypes ? "" : "$a"),
+                Type.BOOLEAN_TYPE, paramTypes);
+        final GeneratorAdapter ga = helper(method, beforeRecipe(methodId, hasTarget, argTypes));
+        if (null == ga) {
+            return method;
+        }
+
+        final Label activeLabel = new Label();
+        ga.loadArg(0);
+        ga.invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_IS_ACTIVE);
+        ga.ifZCmp(GeneratorAdapter.NE, activeLabel);
+        ga.push(false);
+        ga.returnValue();
+
+        ga.mark(activeLabel);
+        ga.loadArg(0);
+        ga.push(methodId);
+        if (hasTarget) {
+            ga.loadArg(1);
+        } else {
+            ga.visitInsn(ACONST_NULL);
+        }
+        if (null == argTypes) {
+            ga.visitInsn(ACONST_NULL);
+        } else {
+            ga.push(argCount);
+            ga.newArray(ASM_TYPE_OBJECT);
+            for (int index = 0; index < argCount; index++) {
+                ga.dup();
+                ga.push(index);
+                ga.loadArg(argOffset + index);
+                ga.box(paramTypes[argOffset + index]);
+                ga.arrayStore(ASM_TYPE_OBJECT);
+            }
+        }
+        ga.invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_BEFORE);
+        ga.push(true);
+        ga.returnValue();
+        ga.endMethod();
+        return method;
+    }
+
+    /**
+     * 方法返回的辅助方法<br/>
+     * 参数为(返回值, 通知是否处于活动状态)
+     *
+     * @param returnType 返回值类型, null表示不传入返回值
+     */
+    Method onReturn(Type returnType) {
+        final Method method = null == returnType
+                ? new Method("onReturn", Type.VOID_TYPE, new Type[]{Type.BOOLEAN_TYPE})
+                : new Method("onReturn", Type.VOID_TYPE, new Type[]{erase(returnType), Type.BOOLEAN_TYPE});
+        final GeneratorAdapter ga = helper(method, onReturnRecipe(returnType));
+        if (null == ga) {
+            return method;
+        }
+
+        final Label skipLabel = new Label();
+        ga.loadArg(null == returnType ? 0 : 1);
+        ga.ifZCmp(GeneratorAdapter.EQ, skipLabel);
+        if (null == returnType) {
+            ga.visitInsn(ACONST_NULL);
+        } else {
+            ga.loadArg(0);
+            ga.box(erase(returnType));
+        }
+        ga.invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_RETURN);
+        ga.mark(skipLabel);
+        ga.returnValue();
+        ga.endMethod();
+        return method;
+    }
+
+    /**
+     * 方法抛出异常的辅助方法<br/>
+     * 参数为(异常, 通知是否处于活动状态)
+     *
+     * @param hasThrowable 是否传入异常
+     */
+    Method onThrows(boolean hasThrowable) {
+        final Method method = hasThrowable
+                ? new Method("onThrows", Type.VOID_TYPE, new Type[]{ASM_TYPE_THROWABLE, Type.BOOLEAN_TYPE})
+                : new Method("onThrows", Type.VOID_TYPE, new Type[]{Type.BOOLEAN_TYPE});
+        final GeneratorAdapter ga = helper(method, onThrowsRecipe(hasThrowable));
+        if (null == ga) {
+            return method;
+        }
+
+        final Label skipLabel = new Label();
+        ga.loadArg(hasThrowable ? 1 : 0);
+        ga.ifZCmp(GeneratorAdapter.EQ, skipLabel);
+        if (hasThrowable) {
+            ga.loadArg(0);
+        } else {
+            ga.visitInsn(ACONST_NULL);
+        }
+        ga.invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_THROWS);
+        ga.mark(skipLabel);
+        ga.returnValue();
+        ga.endMethod();
+        return method;
+    }
+
+    /**
+     * 方法调用跟踪的辅助方法<br/>
+     * 每个被调用的方法对应一个辅助方法,参数为(通知是否处于活动状态, 通知ID)
+     *
+     * @param spyMethod  Spy上的跟踪方法
+     * @param callSiteId 调用点编号
+     */
+    Method invoking(Method spyMethod, int callSiteId) {
+        final Method method = new Method(spyMethod.getName() + "$" + callSiteId,
+                Type.VOID_TYPE, new Type[]{Type.BOOLEAN_TYPE, Type.INT_TYPE});
+        final GeneratorAdapter ga = helper(method, invokingRecipe(spyMethod, callSiteId));
+        if (null == ga) {
+            return method;
+        }
+
+        final Label skipLabel = new Label();
+        ga.loadArg(0);
+        ga.ifZCmp(GeneratorAdapter.EQ, skipLabel);
+        ga.loadArg(1);
+        ga.push(callSiteId);
+        ga.invokeStatic(ASM_TYPE_SPY, spyMethod);
+        ga.mark(skipLabel);
+        ga.returnValue();
+        ga.endMethod();
+        return method;
+    }
+
+    /**
+     * 复用的伴生类是否包含编织用到的全部辅助方法<br/>
+     * 不包含时应放弃本次编织,不复用伴生类重新编织
+     */
+    boolean isComplete() {
+        return null == reused || reused.recipes.keySet().containsAll(recipes.keySet());
+    }
+
+    /**
+     * 定义伴生类<br/>
+     * 必须在被编织的类生效之前完成,复用之前定义的伴生类时什么也不做
+     *
+     * @throws Exception 伴生类定义失败(如被增强类的包已签名),调用方应回退到内联编织
+     */
+    void define() throws Exception {
+        if (recipes.isEmpty() || null != reused) {
+            return;
+        }
+        synchronized (companions) {
+            Map<String, Companion> loaderCompanions = companions.get(loader);
+            final Companion exist = null == loaderCompanions ? null : loaderCompanions.get(className);
+            if (null != exist && exist.name.equals(companionName)) {
+                return;
+            }
+
+            // 带上之前的伴生类中的辅助方法,交替增强不同的方法时不会反复定义伴生类
+            if (null != exist) {
+                for (Recipe recipe : exist.recipes.values()) {
+                    recipe.replay(this);
+                }
+            }
+            cw.visitEnd();
+            ArthasReflectUtils.defineClass(loader, companionName.replace('/', '.'), cw.toByteArray());
+            if (null == loaderCompanions) {
+                companions.put(loader, loaderCompanions = new HashMap<String, Companion>());
+            }
+            loaderCompanions.put(className, new Companion(companionName, new HashMap<String, Recipe>(recipes)));
+        }
+    }
+
+    private static Companion lookup(ClassLoader loader, String className) {
+        synchronized (companions) {
+            final Map<String, Companion> loaderCompanions = companions.get(loader);
+            return null == loaderCompanions ? null : loaderCompanions.get(className);
+        }
+    }
+
+    /**
+     * 开始生成辅助方法
+     *
+     * @return 辅助方法已经生成过时返回null
+     */
+    private GeneratorAdapter helper(Method method, Recipe recipe) {
+        final String key = method.getName() + method.getDescriptor();
+        if (recipes.containsKey(key)) {
+            return null;
+        }
+        recipes.put(key, recipe);
+        final GeneratorAdapter ga = new GeneratorAdapter(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, method, null, null, cw);
+        ga.visitCode();
+        return ga;
+    }
+
+    /**
+     * 引用类型擦除为Object
+     */
+    private static Type erase(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY
+                ? ASM_TYPE_OBJECT
+                : type;
+    }
+
+    /**
+     * 辅助方法的生成方式,定义新的伴生类时据此重新生成之前的辅助方法<br/>
+     * 生成方式被伴生类的登记长期持有,只能在静态方法中创建,不能引用外联器及类加载器
+     */
+    private interface Recipe {
+        void replay(AdviceOutliner outliner);
+    }
+
+    private static Recipe beforeRecipe(final int methodId, final boolean hasTarget, final Type[] argTypes) {
+        return new Recipe() {
+            @Override
+            public void replay(AdviceOutliner outliner) {
+                outliner.before(methodId, hasTarget, argTypes);
+            }
+        };
+    }
+
+    private static Recipe onReturnRecipe(final Type returnType) {
+        return new Recipe() {
+            @Override
+            public void replay(AdviceOutliner outliner) {
+                outliner.onReturn(returnType);
+            }
+        };
+    }
+
+    private static Recipe onThrowsRecipe(final boolean hasThrowable) {
+        return new Recipe() {
+            @Override
+            public void replay(AdviceOutliner outliner) {
+                outliner.onThrows(hasThrowable);
+            }
+        };
+    }
+
+    private static Recipe invokingRecipe(final Method spyMethod, final int callSiteId) {
+        return new Recipe() {
+            @Override
+            public void replay(AdviceOutliner outliner) {
+                outliner.invoking(spyMethod, callSiteId);
+            }
+        };
+    }
+
+    /**
+     * 已定义的伴生类,只记录类名和辅助方法,不引用类及类加载器
+     */
+    private static class Companion {
+        private final String name;
+        // 辅助方法的方法名+描述 -> 生成方式
+        private final Map<String, Recipe> recipes;
+
+        Companion(String name, Map<String, Recipe> recipes) {
+            this.name = name;
+            this.recipes = recipes;
+        }
+    }
+
+}
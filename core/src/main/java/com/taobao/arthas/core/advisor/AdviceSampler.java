@@ -0,0 +1,192 @@
+package com.taobao.arthas.core.advisor;
+
+import java.arthas.Spy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通知采样器<br/>
+ * 在方法入口决定本次调用是否需要通知,未被选中的调用不会采集现场、不会压栈,也不会触发监听器。支持两种采样方式:
+ * <ul>
+ * <li>按比例采样: 如0.01,表示每100次调用通知1次,精确到百万分之一,每个线程独立计数,没有线程间竞争</li>
+ * <li>按速率采样: 如100/s,表示每秒最多通知100次</li>
+ * </ul>
+ */
+public abstract class AdviceSampler extends Spy.AbstractSampler {
+
+    private static final String RATE_SUFFIX = "/s";
+
+    /**
+     * 解析采样参数
+     *
+     * @param sample 采样参数, 比例(0,1](不小于百万分之一)或者速率N/s
+     * @return 采样器
+     * @throws IllegalArgumentException 采样参数不合法
+     */
+    public static AdviceSampler parse(String sample) {
+        final String value = null == sample ? "" : sample.trim();
+        try {
+            if (value.endsWith(RATE_SUFFIX)) {
+                final int permitsPerSecond = Integer.parseInt(
+                        value.substring(0, value.length() - RATE_SUFFIX.length()).trim());
+                if (permitsPerSecond > 0) {
+                    return new RateSampler(permitsPerSecond);
+                }
+            } else {
+                final double ratio = Double.parseDouble(value);
+                if (ratio > 0 && ratio <= 1 && RatioSampler.isRepresentable(ratio)) {
+                    return new RatioSampler(ratio);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // 统一在下面抛出
+        }
+        throw new IllegalArgumentException("illegal sample: " + sample
+                + ", a ratio in [0.000001,1] like 0.01 or a rate like 100/s is expected.");
+    }
+
+    /**
+     * 组合两个采样器,只有先被first选中、再被second选中的调用才通知
+     *
+     * @param first  先执行的采样器, null表示全部选中
+     * @param second 后执行的采样器
+     * @return 组合后的采样器
+     */
+    static Spy.AbstractSampler both(Spy.AbstractSampler first, Spy.AbstractSampler second) {
+        return null == first
+                ? second
+                : new BothSampler(first, second);
+    }
+
+    /**
+     * 组合采样,选中的比例为两者之积
+     */
+    static class BothSampler extends AdviceSampler {
+
+        private final Spy.AbstractSampler first;
+        private final Spy.AbstractSampler second;
+
+        BothSampler(Spy.AbstractSampler first, Spy.AbstractSampler second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean sample() {
+            return first.sample() && second.sample();
+        }
+
+        @Override
+        public String toString() {
+            return first + " * " + second;
+        }
+    }
+
+    /**
+     * 按比例采样<br/>
+     * 每个线程每次调用累加比例,累计满1时选中一次,任意比例都能精确地按比例选中。
+     * 比例以百万分之一为单位定点累加,不会有浮点误差累积
+     */
+    static class RatioSampler extends AdviceSampler {
+
+        private static final long ONE = 1000000L;
+
+        private final long step;
+
+        private final ThreadLocal<long[]> accumulator = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        /**
+         * @param ratio 比例(0,1]
+         */
+        RatioSampler(double ratio) {
+            this.step = Math.min(ONE, Math.max(1L, Math.round(ratio * ONE)));
+        }
+
+        /**
+         * 比例是否能以百万分之一为单位表示
+         */
+        static boolean isRepresentable(double ratio) {
+            return Math.round(ratio * ONE) >= 1;
+        }
+
+        @Override
+        public boolean sample() {
+            final long[] accumulated = accumulator.get();
+            accumulated[0] += step;
+            if (accumulated[0] < ONE) {
+                return false;
+            }
+            accumulated[0] -= ONE;
+            return true;
+        }
+
+        /**
+         * 选中的比例
+         */
+        double ratio() {
+            return (double) step / ONE;
+        }
+
+        @Override
+        public String toString() {
+            return ONE % step == 0
+                    ? "1/" + ONE / step
+                    : String.valueOf(ratio());
+        }
+    }
+
+    /**
+     * 按速率采样,每秒最多选中permitsPerSecond次
+     */
+    static class RateSampler extends AdviceSampler {
+
+        private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final int COUNT_BITS = 32;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+        private final int permitsPerSecond;
+        private final long origin = System.nanoTime();
+
+        /**
+         * 高32位为窗口序号(从origin起的秒数),低32位为该窗口已通知的次数,
+         * 窗口切换和计数在同一次CAS中完成,切换时不会抹掉其他线程的计数
+         */
+        private final AtomicLong window = new AtomicLong();
+
+        RateSampler(int permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        @Override
+        public boolean sample() {
+            final long epoch = (System.nanoTime() - origin) / WINDOW_NANOS;
+            for (;;) {
+                final long current = window.get();
+                final long next;
+                if ((current >>> COUNT_BITS) >= epoch) {
+                    // 本秒已经用完,不再修改计数,避免高频调用下的竞争
+                    if ((current & COUNT_MASK) >= permitsPerSecond) {
+                        return false;
+                    }
+                    next = current + 1;
+                } else {
+                    next = (epoch << COUNT_BITS) | 1;
+                }
+                if (window.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return permitsPerSecond + RATE_SUFFIX;
+        }
+    }
+
+}
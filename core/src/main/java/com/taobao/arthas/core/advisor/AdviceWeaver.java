@@ -4,9 +4,6 @@ import com.taobao.arthas.core.GlobalOptions;
 import com.taobao.arthas.core.util.matcher.Matcher;
 import com.taobao.arthas.core.util.*;
 import com.taobao.arthas.core.util.affect.EnhancerAffect;
-import com.taobao.arthas.core.util.collection.GaStack;
-import com.taobao.arthas.core.util.collection.ThreadUnsafeFixGaStack;
-import com.taobao.arthas.core.util.collection.ThreadUnsafeGaStack;
 import com.taobao.middleware.logger.Logger;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.AdviceAdapter;
@@ -15,14 +12,13 @@ import org.objectweb.asm.commons.Method;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 通知编织者<br/>
  * <p/>
  * <h2>线程帧栈与执行帧栈</h2>
- * 编织者在执行通知的时候有两个重要的栈:线程帧栈(threadFrameStack),执行帧栈(frameStack)
+ * 编织者在执行通知的时候有两个重要的概念:线程帧栈(threadFrameStack),执行帧(frame)<br/>
+ * 执行帧保存方法开始时的现场,连续存放在每个线程独享的线程帧栈中,方法开始时压栈,结束时弹栈
  * <p/>
  * Created by vlinux on 15/5/17.
  */
@@ -32,20 +28,12 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
 
 
-    // 线程帧栈堆栈大小
-    private final static int FRAME_STACK_SIZE = 7;
-    // 通知监听器集合
-    private final static Map<Integer/*ADVICE_ID*/, AdviceListener> advices
-            = new ConcurrentHashMap<Integer, AdviceListener>();
-    // 线程帧封装
-    private static final ThreadLocal<GaStack<GaStack<Object>>> threadBoundContext
-            = new ThreadLocal<GaStack<GaStack<Object>>>();
-    // 防止自己递归调用
-    private static final ThreadLocal<Boolean> isSelfCallRef = new ThreadLocal<Boolean>() {
+    // 线程帧栈,同时记录是否处于自己的递归调用中
+    private static final ThreadLocal<ThreadFrameStack> threadBoundContext = new ThreadLocal<ThreadFrameStack>() {
 
         @Override
-        protected Boolean initialValue() {
-            return false;
+        protected ThreadFrameStack initialValue() {
+            return new ThreadFrameStack();
         }
 
     };
@@ -55,46 +43,40 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * 方法开始<br/>
      * 用于编织通知器,外部不会直接调用
      *
-     * @param loader     类加载器
-     * @param adviceId   通知ID
-     * @param className  类名
-     * @param methodName 方法名
-     * @param methodDesc 方法描述
-     * @param target     返回结果
-     *                   若为无返回值方法(void),则为null
-     * @param args       参数列表
+     * @param adviceId 通知ID
+     * @param methodId 方法编号,见{@link WovenMethodRegistry}
+     * @param target   目标类实例
+     *                 若目标为静态方法,则为null
+     * @param args     参数列表
      */
-    public static void methodOnBegin(
-            int adviceId,
-            ClassLoader loader, String className, String methodName, String methodDesc,
-            Object target, Object[] args) {
+    public static void methodOnBegin(int adviceId, int methodId, Object target, Object[] args) {
 
-        if (isSelfCallRef.get()) {
+        final ThreadFrameStack threadFrameStack = threadBoundContext.get();
+        if (threadFrameStack.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            threadFrameStack.isSelfCall = true;
         }
 
         try {
-            // 构建执行帧栈,保护当前的执行现场
-            final GaStack<Object> frameStack = new ThreadUnsafeFixGaStack<Object>(FRAME_STACK_SIZE);
-            frameStack.push(loader);
-            frameStack.push(className);
-            frameStack.push(methodName);
-            frameStack.push(methodDesc);
-            frameStack.push(target);
-            frameStack.push(args);
-
-            final AdviceListener listener = getListener(adviceId);
-            frameStack.push(listener);
+            final AdviceListenerRegistry.Entry advice = AdviceListenerRegistry.entry(adviceId);
+            final AdviceListener listener = null == advice ? null : advice.listener;
+            final AdviceMeter meter = null == advice || !AdviceGovernor.isEnabled() ? null : advice.meter;
+            final WovenMethod method = WovenMethodRegistry.get(methodId);
 
-            // 获取通知器并做前置通知
-            before(listener, loader, className, methodName, methodDesc, target, args);
+            // 保护当前的执行现场,压入线程帧栈
+            threadFrameStack.push(method, target, args, listener, meter);
 
-            // 保护当前执行帧栈,压入线程帧栈
-            threadFrameStackPush(frameStack);
+            // 获取通知器并做前置通知
+            if (null == meter) {
+                before(listener, method, target, args);
+            } else {
+                final long beginNanos = System.nanoTime();
+                before(listener, method, target, args);
+                meter.addSelf(System.nanoTime() - beginNanos);
+            }
         } finally {
-            isSelfCallRef.set(false);
+            threadFrameStack.isSelfCall = false;
         }
 
     }
@@ -129,36 +111,51 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      */
     private static void methodOnEnd(boolean isThrowing, Object returnOrThrowable) {
 
-        if (isSelfCallRef.get()) {
+        final ThreadFrameStack threadFrameStack = threadBoundContext.get();
+        if (threadFrameStack.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            threadFrameStack.isSelfCall = true;
         }
 
         try {
-            // 弹射线程帧栈,恢复Begin所保护的执行帧栈
-            final GaStack<Object> frameStack = threadFrameStackPop();
-
-            // 弹射执行帧栈,恢复Begin所保护的现场
-            final AdviceListener listener = (AdviceListener) frameStack.pop();
-            final Object[] args = (Object[]) frameStack.pop();
-            final Object target = frameStack.pop();
-            final String methodDesc = (String) frameStack.pop();
-            final String methodName = (String) frameStack.pop();
-            final String className = (String) frameStack.pop();
-            final ClassLoader loader = (ClassLoader) frameStack.pop();
-
-            // 异常通知
-            if (isThrowing) {
-                afterThrowing(listener, loader, className, methodName, methodDesc, target, args, (Throwable) returnOrThrowable);
+            // 弹射线程帧栈,恢复Begin所保护的执行现场
+            final int frame = threadFrameStack.pop();
+            if (frame < 0) {
+                return;
             }
 
-            // 返回通知
-            else {
-                afterReturning(listener, loader, className, methodName, methodDesc, target, args, returnOrThrowable);
+            try {
+                final AdviceListener listener = threadFrameStack.listener(frame);
+                final AdviceMeter meter = threadFrameStack.meter(frame);
+                final WovenMethod method = threadFrameStack.method(frame);
+                final Object target = threadFrameStack.target(frame);
+                final Object[] args = threadFrameStack.args(frame);
+
+                // 方法执行时间(含前置通知的开销)
+                final long endNanos = null == meter ? 0L : System.nanoTime();
+                if (null != meter) {
+                    meter.addMethod(endNanos - threadFrameStack.timestamp(frame));
+                }
+
+                // 异常通知
+                if (isThrowing) {
+                    afterThrowing(listener, method, target, args, (Throwable) returnOrThrowable);
+                }
+
+                // 返回通知
+                else {
+                    afterReturning(listener, method, target, args, returnOrThrowable);
+                }
+
+                if (null != meter) {
+                    meter.addSelf(System.nanoTime() - endNanos);
+                }
+            } finally {
+                threadFrameStack.clear(frame);
             }
         } finally {
-            isSelfCallRef.set(false);
+            threadFrameStack.isSelfCall = false;
         }
 
     }
@@ -166,16 +163,14 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用开始
      *
-     * @param adviceId 通知ID
-     * @param owner    调用类名
-     * @param name     调用方法名
-     * @param desc     调用方法描述
+     * @param adviceId   通知ID
+     * @param callSiteId 调用点编号,见{@link CallSiteRegistry}
      */
-    public static void methodOnInvokeBeforeTracing(int adviceId, String owner, String name, String desc) {
+    public static void methodOnInvokeBeforeTracing(int adviceId, int callSiteId) {
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
             try {
-                listener.invokeBeforeTracing(owner, name, desc);
+                listener.invokeBeforeTracing(callSiteId);
             } catch (Throwable t) {
                 logger.warn("advice before tracing failed.", t);
             }
@@ -185,16 +180,14 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用结束(正常返回)
      *
-     * @param adviceId 通知ID
-     * @param owner    调用类名
-     * @param name     调用方法名
-     * @param desc     调用方法描述
+     * @param adviceId   通知ID
+     * @param callSiteId 调用点编号,见{@link CallSiteRegistry}
      */
-    public static void methodOnInvokeAfterTracing(int adviceId, String owner, String name, String desc) {
+    public static void methodOnInvokeAfterTracing(int adviceId, int callSiteId) {
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
             try {
-                listener.invokeAfterTracing(owner, name, desc);
+                listener.invokeAfterTracing(callSiteId);
             } catch (Throwable t) {
                 logger.warn("advice after tracing failed.", t);
             }
@@ -204,41 +197,22 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     /**
      * 方法内部调用结束(异常返回)
      *
-     * @param adviceId 通知ID
-     * @param owner    调用类名
-     * @param name     调用方法名
-     * @param desc     调用方法描述
+     * @param adviceId   通知ID
+     * @param callSiteId 调用点编号,见{@link CallSiteRegistry}
      */
-    public static void methodOnInvokeThrowTracing(int adviceId, String owner, String name, String desc) {
+    public static void methodOnInvokeThrowTracing(int adviceId, int callSiteId) {
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
             try {
-                listener.invokeThrowTracing(owner, name, desc);
+                listener.invokeThrowTracing(callSiteId);
             } catch (Throwable t) {
                 logger.warn("advice throw tracing failed.", t);
             }
         }
     }
 
-    /*
-     * 线程帧栈压栈<br/>
-     * 将当前执行帧栈压入线程栈
-     */
-    private static void threadFrameStackPush(GaStack<Object> frameStack) {
-        GaStack<GaStack<Object>> threadFrameStack = threadBoundContext.get();
-        if (null == threadFrameStack) {
-            threadBoundContext.set(threadFrameStack = new ThreadUnsafeGaStack<GaStack<Object>>());
-        }
-
-        threadFrameStack.push(frameStack);
-    }
-
-    private static GaStack<Object> threadFrameStackPop() {
-        return threadBoundContext.get().pop();
-    }
-
     private static AdviceListener getListener(int adviceId) {
-        return advices.get(adviceId);
+        return AdviceListenerRegistry.get(adviceId);
     }
 
     /**
@@ -253,7 +227,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
         listener.create();
 
         // 注册监听器
-        advices.put(adviceId, listener);
+        AdviceListenerRegistry.put(adviceId, listener);
     }
 
     /**
@@ -264,7 +238,9 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     public static void unReg(int adviceId) {
 
         // 注销监听器
-        final AdviceListener listener = advices.remove(adviceId);
+        final AdviceListener listener = AdviceListenerRegistry.remove(adviceId);
+        AdviceListenerRegistry.release(adviceId);
+        AdviceGovernor.ungovern(adviceId);
 
         // 触发监听器销毁
         if (null != listener) {
@@ -274,6 +250,17 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     }
 
 
+    /**
+     * 设置采样器<br/>
+     * 需要在注册监听器之前设置,注销监听器时自动清除
+     *
+     * @param adviceId 通知ID
+     * @param sampler  采样器
+     */
+    public static void sample(int adviceId, AdviceSampler sampler) {
+        AdviceListenerRegistry.sample(adviceId, sampler);
+    }
+
     /**
      * 恢复监听
      *
@@ -282,7 +269,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      */
     public static void resume(int adviceId, AdviceListener listener) {
         // 注册监听器
-        advices.put(adviceId, listener);
+        AdviceListenerRegistry.put(adviceId, listener);
     }
 
     /**
@@ -292,16 +279,19 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      */
     public static AdviceListener suspend(int adviceId) {
         // 注销监听器
-        return advices.remove(adviceId);
+        return AdviceListenerRegistry.remove(adviceId);
     }
 
-    private static void before(AdviceListener listener,
-                               ClassLoader loader, String className, String methodName, String methodDesc,
-                               Object target, Object[] args) {
+    private static void before(AdviceListener listener, WovenMethod method, Object target, Object[] args) {
 
-        if (null != listener) {
+        if (null != listener && null != method) {
             try {
-                listener.before(loader, className, methodName, methodDesc, target, args);
+                if (listener instanceof ReflectAdviceListenerAdapter) {
+                    ((ReflectAdviceListenerAdapter) listener).before(method, target, args);
+                } else {
+                    listener.before(method.getLoader(), method.getClassName(), method.getMethodName(),
+                            method.getMethodDesc(), target, args);
+                }
             } catch (Throwable t) {
                 logger.warn("advice before failed.", t);
             }
@@ -309,24 +299,32 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     }
 
-    private static void afterReturning(AdviceListener listener,
-                                       ClassLoader loader, String className, String methodName, String methodDesc,
+    private static void afterReturning(AdviceListener listener, WovenMethod method,
                                        Object target, Object[] args, Object returnObject) {
-        if (null != listener) {
+        if (null != listener && null != method) {
             try {
-                listener.afterReturning(loader, className, methodName, methodDesc, target, args, returnObject);
+                if (listener instanceof ReflectAdviceListenerAdapter) {
+                    ((ReflectAdviceListenerAdapter) listener).afterReturning(method, target, args, returnObject);
+                } else {
+                    listener.afterReturning(method.getLoader(), method.getClassName(), method.getMethodName(),
+                            method.getMethodDesc(), target, args, returnObject);
+                }
             } catch (Throwable t) {
                 logger.warn("advice returning failed.", t);
             }
         }
     }
 
-    private static void afterThrowing(AdviceListener listener,
-                                      ClassLoader loader, String className, String methodName, String methodDesc,
+    private static void afterThrowing(AdviceListener listener, WovenMethod method,
                                       Object target, Object[] args, Throwable throwable) {
-        if (null != listener) {
+        if (null != listener && null != method) {
             try {
-                listener.afterThrowing(loader, className, methodName, methodDesc, target, args, throwable);
+                if (listener instanceof ReflectAdviceListenerAdapter) {
+                    ((ReflectAdviceListenerAdapter) listener).afterThrowing(method, target, args, throwable);
+                } else {
+                    listener.afterThrowing(method.getLoader(), method.getClassName(), method.getMethodName(),
+                            method.getMethodDesc(), target, args, throwable);
+                }
             } catch (Throwable t) {
                 logger.warn("advice throwing failed.", t);
             }
@@ -337,31 +335,56 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
     private final int adviceId;
     private final boolean isTracing;
     private final boolean skipJDKTrace;
+    private final int capability;
+    private final ClassLoader loader;
+    private final Class<?> clazz;
     private final String className;
     private String superName;
     private final Matcher matcher;
     private final EnhancerAffect affect;
+    private final AdviceOutliner outliner;
+
 
+    /**
+     * 构建通知编织器
+     *
+     * @param adviceId   通知ID
+     * @param isTracing  可跟踪方法调用
+     * @param capability 监听器的能力描述
+     *                   只有监听器需要的现场数据才会被采集
+     * @param loader     类加载器
+     * @param clazz      被增强的类
+     * @param className  类名称
+     * @param matcher    方法匹配
+     *                   只有匹配上的方法才会被织入通知器
+     * @param affect     影响计数
+     * @param cv         ClassVisitor for ASM
+     */
+    public AdviceWeaver(int adviceId, boolean isTracing, boolean skipJDKTrace, int capability,
+                        ClassLoader loader, Class<?> clazz, String className,
+                        Matcher matcher, EnhancerAffect affect, ClassVisitor cv) {
+        this(adviceId, isTracing, skipJDKTrace, capability, loader, clazz, className, matcher, affect, null, cv);
+    }
 
     /**
      * 构建通知编织器
      *
-     * @param adviceId  通知ID
-     * @param isTracing 可跟踪方法调用
-     * @param className 类名称
-     * @param matcher   方法匹配
-     *                  只有匹配上的方法才会被织入通知器
-     * @param affect    影响计数
-     * @param cv        ClassVisitor for ASM
+     * @param outliner 通知外联器,通知代码被移到伴生类中;null表示通知代码直接编织在方法中
      */
-    public AdviceWeaver(int adviceId, boolean isTracing, boolean skipJDKTrace, String className, Matcher matcher, EnhancerAffect affect, ClassVisitor cv) {
+    AdviceWeaver(int adviceId, boolean isTracing, boolean skipJDKTrace, int capability,
+                 ClassLoader loader, Class<?> clazz, String className,
+                 Matcher matcher, EnhancerAffect affect, AdviceOutliner outliner, ClassVisitor cv) {
         super(Opcodes.ASM7, cv);
         this.adviceId = adviceId;
         this.isTracing = isTracing;
         this.skipJDKTrace = skipJDKTrace;
+        this.capability = capability;
+        this.loader = loader;
+        this.clazz = clazz;
         this.className = className;
         this.matcher = matcher;
         this.affect = affect;
+        this.outliner = outliner;
     }
 
     @Override
@@ -410,6 +433,9 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
         // 编织方法计数
         affect.mCnt(1);
 
+        // 分配方法编号,被编织的代码只需要传递这个编号
+        final int methodId = WovenMethodRegistry.register(loader, clazz, className, name, desc);
+
         return new AdviceAdapter(Opcodes.ASM7, new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions), access, name, desc) {
 
             // -- Label for try...catch block
@@ -427,20 +453,25 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
             // -- KEY of ASM_TYPE or ASM_METHOD --
             private final Type ASM_TYPE_SPY = Type.getType("Ljava/arthas/Spy;");
-            private final Type ASM_TYPE_OBJECT = Type.getType(Object.class);
-            private final Type ASM_TYPE_OBJECT_ARRAY = Type.getType(Object[].class);
-            private final Type ASM_TYPE_CLASS = Type.getType(Class.class);
-            private final Type ASM_TYPE_INTEGER = Type.getType(Integer.class);
-            private final Type ASM_TYPE_CLASS_LOADER = Type.getType(ClassLoader.class);
-            private final Type ASM_TYPE_STRING = Type.getType(String.class);
             private final Type ASM_TYPE_THROWABLE = Type.getType(Throwable.class);
-            private final Type ASM_TYPE_INT = Type.getType(int.class);
-            private final Type ASM_TYPE_METHOD = Type.getType(java.lang.reflect.Method.class);
-            private final Method ASM_METHOD_METHOD_INVOKE = Method.getMethod("Object invoke(Object,Object[])");
+            private final Method ASM_METHOD_SPY_IS_ACTIVE = Method.getMethod("boolean isActive(int)");
+            private final Method ASM_METHOD_SPY_ON_BEFORE = Method.getMethod(
+                    "void onBefore(int,int,Object,Object[])");
+            private final Method ASM_METHOD_SPY_ON_RETURN = Method.getMethod("void onReturn(Object)");
+            private final Method ASM_METHOD_SPY_ON_THROWS = Method.getMethod("void onThrows(Throwable)");
+            private final Method ASM_METHOD_SPY_BEFORE_INVOKING = Method.getMethod(
+                    "void beforeInvoking(int,int)");
+            private final Method ASM_METHOD_SPY_AFTER_INVOKING = Method.getMethod(
+                    "void afterInvoking(int,int)");
+            private final Method ASM_METHOD_SPY_THROW_INVOKING = Method.getMethod(
+                    "void throwInvoking(int,int)");
 
             // 代码锁
             private final CodeLock codeLockForTracing = new TracingAsmCodeLock(this);
 
+            // 记录方法入口处通知是否处于活动状态的局部变量,方法结束及调用跟踪以它为准,保证帧栈的压栈/弹栈成对
+            private int activeLocal = -1;
+
 
             private void _debug(final StringBuilder append, final String msg) {
 
@@ -479,40 +510,41 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 //            }
 
             /**
-             * 加载通知方法
+             * 调用通知方法<br/>
+             * 通知参数需要事先压入操作数栈，直接调用Spy上对应的静态方法，不再经过反射
              * @param keyOfMethod 通知方法KEY
              */
-            private void loadAdviceMethod(int keyOfMethod) {
+            private void invokeAdviceMethod(int keyOfMethod) {
 
                 switch (keyOfMethod) {
 
                     case KEY_ARTHAS_ADVICE_BEFORE_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "ON_BEFORE_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_BEFORE);
                         break;
                     }
 
                     case KEY_ARTHAS_ADVICE_RETURN_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "ON_RETURN_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_RETURN);
                         break;
                     }
 
                     case KEY_ARTHAS_ADVICE_THROWS_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "ON_THROWS_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_THROWS);
                         break;
                     }
 
                     case KEY_ARTHAS_ADVICE_BEFORE_INVOKING_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "BEFORE_INVOKING_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_BEFORE_INVOKING);
                         break;
                     }
 
                     case KEY_ARTHAS_ADVICE_AFTER_INVOKING_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "AFTER_INVOKING_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_AFTER_INVOKING);
                         break;
                     }
 
                     case KEY_ARTHAS_ADVICE_THROW_INVOKING_METHOD: {
-                        getStatic(ASM_TYPE_SPY, "THROW_INVOKING_METHOD", ASM_TYPE_METHOD);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_THROW_INVOKING);
                         break;
                     }
 
@@ -525,73 +557,71 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             }
 
             /**
-             * 加载ClassLoader<br/>
-             * 这里分开静态方法中ClassLoader的获取以及普通方法中ClassLoader的获取
-             * 主要是性能上的考虑
+             * 加载before通知参数
              */
-            private void loadClassLoader() {
-
-                if (this.isStaticMethod()) {
-                    visitLdcInsn(StringUtils.normalizeClassName(className));
-                    invokeStatic(ASM_TYPE_CLASS, Method.getMethod("Class forName(String)"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
-
+            private void loadArgsForBefore() {
+                push(adviceId);
+                push(methodId);
+                if (AdviceCapability.has(capability, AdviceCapability.NEED_TARGET)) {
+                    loadThisOrPushNullIfIsStatic();
                 } else {
-                    loadThis();
-                    invokeVirtual(ASM_TYPE_OBJECT, Method.getMethod("Class getClass()"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
+                    pushNull();
+                }
+                if (AdviceCapability.has(capability, AdviceCapability.NEED_ARGS)) {
+                    loadArgArray();
+                } else {
+                    pushNull();
                 }
-
             }
 
+
             /**
-             * 加载before通知参数数组
+             * 通知未处于活动状态时跳转到skipLabel<br/>
+             * 通知被暂停或注销后,被编织的代码只需要做一次判断,不再构建参数数组,也不再调用Spy
              */
-            private void loadArrayForBefore() {
-                push(7);
-                newArray(ASM_TYPE_OBJECT);
-
-                dup();
-                push(0);
-                push(adviceId);
-                box(ASM_TYPE_INT);
-                arrayStore(ASM_TYPE_INTEGER);
-
-                dup();
-                push(1);
-                loadClassLoader();
-                arrayStore(ASM_TYPE_CLASS_LOADER);
-
-                dup();
-                push(2);
-                push(className);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(3);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(4);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(5);
-                loadThisOrPushNullIfIsStatic();
-                arrayStore(ASM_TYPE_OBJECT);
-
-                dup();
-                push(6);
-                loadArgArray();
-                arrayStore(ASM_TYPE_OBJECT_ARRAY);
+            private void jumpIfInactive(Label skipLabel) {
+                if (activeLocal < 0) {
+                    // 构造函数调用super()之前还没有完成检查
+                    return;
+                }
+                loadLocal(activeLocal);
+                ifZCmp(EQ, skipLabel);
             }
 
+            /**
+             * 加载入口处记录的通知状态,构造函数调用super()之前视为活动状态
+             */
+            private void loadActive() {
+                if (activeLocal < 0) {
+                    push(true);
+                } else {
+                    loadLocal(activeLocal);
+                }
+            }
 
             @Override
             protected void onMethodEnter() {
 
+                if (null != outliner) {
+                    // 外联时只需要传入现场数据,通知状态的检查及参数数组的构建都在辅助方法中完成
+                    final boolean hasTarget = AdviceCapability.has(capability, AdviceCapability.NEED_TARGET)
+                            && !isStaticMethod();
+                    final boolean hasArgs = AdviceCapability.has(capability, AdviceCapability.NEED_ARGS);
+                    push(adviceId);
+                    if (hasTarget) {
+                        loadThis();
+                    }
+                    if (hasArgs) {
+                        loadArgs();
+                    }
+                    invokeStatic(outliner.getCompanionType(), outliner.before(methodId, hasTarget,
+                            hasArgs ? Type.getArgumentTypes(methodDesc) : null));
+                    activeLocal = newLocal(Type.BOOLEAN_TYPE);
+                    storeLocal(activeLocal);
+                    mark(beginLabel);
+                    return;
+                }
+
                 codeLockForTracing.lock(new CodeLock.Block() {
                     @Override
                     public void code() {
@@ -599,24 +629,25 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:onMethodEnter()");
 
-                        // 加载before方法
-                        loadAdviceMethod(KEY_ARTHAS_ADVICE_BEFORE_METHOD);
-
-                        _debug(append, "debug:onMethodEnter() > loadAdviceMethod()");
-
-                        // 推入Method.invoke()的第一个参数
-                        pushNull();
+                        // 检查通知是否处于活动状态
+                        push(adviceId);
+                        invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_IS_ACTIVE);
+                        activeLocal = newLocal(Type.BOOLEAN_TYPE);
+                        storeLocal(activeLocal);
+                        final Label skipLabel = new Label();
+                        jumpIfInactive(skipLabel);
 
                         // 方法参数
-                        loadArrayForBefore();
+                        loadArgsForBefore();
 
-                        _debug(append, "debug:onMethodEnter() > loadAdviceMethod() > loadArrayForBefore()");
+                        _debug(append, "debug:onMethodEnter() > loadArgsForBefore()");
 
-                        // 调用方法
-                        invokeVirtual(ASM_TYPE_METHOD, ASM_METHOD_METHOD_INVOKE);
-                        pop();
+                        // 调用before方法
+                        invokeAdviceMethod(KEY_ARTHAS_ADVICE_BEFORE_METHOD);
 
-                        _debug(append, "debug:onMethodEnter() > loadAdviceMethod() > loadArrayForBefore() > invokeVirtual()");
+                        _debug(append, "debug:onMethodEnter() > loadArgsForBefore() > invokeAdviceMethod()");
+
+                        mark(skipLabel);
                     }
                 });
 
@@ -625,26 +656,23 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             }
 
 
-            /*
-             * 加载return通知参数数组
-             */
-            private void loadReturnArgs() {
-                dup2X1();
-                pop2();
-                push(1);
-                newArray(ASM_TYPE_OBJECT);
-                dup();
-                dup2X1();
-                pop2();
-                push(0);
-                swap();
-                arrayStore(ASM_TYPE_OBJECT);
-            }
-
             @Override
             protected void onMethodExit(final int opcode) {
 
-                if (!isThrow(opcode)) {
+                if (!isThrow(opcode) && null != outliner) {
+                    final boolean hasReturn = AdviceCapability.has(capability, AdviceCapability.NEED_RETURN)
+                            && opcode != RETURN;
+                    if (hasReturn) {
+                        if (opcode == LRETURN || opcode == DRETURN) {
+                            dup2();
+                        } else {
+                            dup();
+                        }
+                    }
+                    loadActive();
+                    invokeStatic(outliner.getCompanionType(),
+                            outliner.onReturn(hasReturn ? Type.getReturnType(methodDesc) : null));
+                } else if (!isThrow(opcode)) {
                     codeLockForTracing.lock(new CodeLock.Block() {
                         @Override
                         public void code() {
@@ -652,26 +680,18 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                             final StringBuilder append = new StringBuilder();
                             _debug(append, "debug:onMethodExit()");
 
+                            final Label skipLabel = new Label();
+                            jumpIfInactive(skipLabel);
+
                             // 加载返回对象
                             loadReturn(opcode);
                             _debug(append, "debug:onMethodExit() > loadReturn()");
 
+                            // 调用returning方法
+                            invokeAdviceMethod(KEY_ARTHAS_ADVICE_RETURN_METHOD);
+                            _debug(append, "debug:onMethodExit() > loadReturn() > invokeAdviceMethod()");
 
-                            // 加载returning方法
-                            loadAdviceMethod(KEY_ARTHAS_ADVICE_RETURN_METHOD);
-                            _debug(append, "debug:onMethodExit() > loadReturn() > loadAdviceMethod()");
-
-                            // 推入Method.invoke()的第一个参数
-                            pushNull();
-
-                            // 加载return通知参数数组
-                            loadReturnArgs();
-                            _debug(append, "debug:onMethodExit() > loadReturn() > loadAdviceMethod() > loadReturnArgs()");
-
-                            invokeVirtual(ASM_TYPE_METHOD, ASM_METHOD_METHOD_INVOKE);
-                            pop();
-
-                            _debug(append, "debug:onMethodExit() > loadReturn() > loadAdviceMethod() > loadReturnArgs() > invokeVirtual()");
+                            mark(skipLabel);
                         }
                     });
                 }
@@ -679,22 +699,6 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             }
 
 
-            /*
-             * 创建throwing通知参数本地变量
-             */
-            private void loadThrowArgs() {
-                dup2X1();
-                pop2();
-                push(1);
-                newArray(ASM_TYPE_OBJECT);
-                dup();
-                dup2X1();
-                pop2();
-                push(0);
-                swap();
-                arrayStore(ASM_TYPE_THROWABLE);
-            }
-
             @Override
             public void visitMaxs(int maxStack, int maxLocals) {
 
@@ -703,6 +707,18 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                 visitTryCatchBlock(beginLabel, endLabel, mark(),
                         ASM_TYPE_THROWABLE.getInternalName());
 
+                if (null != outliner) {
+                    final boolean hasThrowable = AdviceCapability.has(capability, AdviceCapability.NEED_THROWABLE);
+                    if (hasThrowable) {
+                        dup();
+                    }
+                    loadActive();
+                    invokeStatic(outliner.getCompanionType(), outliner.onThrows(hasThrowable));
+                    throwException();
+                    super.visitMaxs(maxStack, maxLocals);
+                    return;
+                }
+
                 codeLockForTracing.lock(new CodeLock.Block() {
                     @Override
                     public void code() {
@@ -710,26 +726,18 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:catchException()");
 
+                        final Label skipLabel = new Label();
+                        jumpIfInactive(skipLabel);
+
                         // 加载异常
                         loadThrow();
-                        _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod()");
-
-                        // 加载throwing方法
-                        loadAdviceMethod(KEY_ARTHAS_ADVICE_THROWS_METHOD);
-                        _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod()");
+                        _debug(append, "debug:catchException() > loadThrow()");
 
+                        // 调用throwing方法
+                        invokeAdviceMethod(KEY_ARTHAS_ADVICE_THROWS_METHOD);
+                        _debug(append, "debug:catchException() > loadThrow() > invokeAdviceMethod()");
 
-                        // 推入Method.invoke()的第一个参数
-                        pushNull();
-
-                        // 加载throw通知参数数组
-                        loadThrowArgs();
-                        _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod() > loadThrowArgs()");
-
-                        // 调用方法
-                        invokeVirtual(ASM_TYPE_METHOD, ASM_METHOD_METHOD_INVOKE);
-                        pop();
-                        _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod() > loadThrowArgs() > invokeVirtual()");
+                        mark(skipLabel);
 
                     }
                 });
@@ -779,6 +787,10 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
              * @param opcode 操作吗
              */
             private void loadReturn(int opcode) {
+                if (!AdviceCapability.has(capability, AdviceCapability.NEED_RETURN)) {
+                    pushNull();
+                    return;
+                }
                 switch (opcode) {
 
                     case RETURN: {
@@ -811,37 +823,20 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
              * 加载异常
              */
             private void loadThrow() {
-                dup();
+                if (AdviceCapability.has(capability, AdviceCapability.NEED_THROWABLE)) {
+                    dup();
+                } else {
+                    pushNull();
+                }
             }
 
 
             /**
-             * 加载方法调用跟踪通知所需参数数组
+             * 加载方法调用跟踪通知所需参数
              */
-            private void loadArrayForInvokeTracing(String owner, String name, String desc) {
-                push(4);
-                newArray(ASM_TYPE_OBJECT);
-
-                dup();
-                push(0);
+            private void loadArgsForInvokeTracing(int callSiteId) {
                 push(adviceId);
-                box(ASM_TYPE_INT);
-                arrayStore(ASM_TYPE_INTEGER);
-
-                dup();
-                push(1);
-                push(owner);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(2);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(3);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
+                push(callSiteId);
             }
 
 
@@ -870,20 +865,24 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             /*
              * 跟踪代码
              */
-            private void tracing(final int tracingType, final String owner, final String name, final String desc) {
+            private void tracing(final int tracingType, final int callSiteId) {
 
                 final String label;
+                final Method spyMethod;
                 switch (tracingType) {
                     case KEY_ARTHAS_ADVICE_BEFORE_INVOKING_METHOD: {
                         label = "beforeInvoking";
+                        spyMethod = ASM_METHOD_SPY_BEFORE_INVOKING;
                         break;
                     }
                     case KEY_ARTHAS_ADVICE_AFTER_INVOKING_METHOD: {
                         label = "afterInvoking";
+                        spyMethod = ASM_METHOD_SPY_AFTER_INVOKING;
                         break;
                     }
                     case KEY_ARTHAS_ADVICE_THROW_INVOKING_METHOD: {
                         label = "throwInvoking";
+                        spyMethod = ASM_METHOD_SPY_THROW_INVOKING;
                         break;
                     }
                     default: {
@@ -891,6 +890,13 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                     }
                 }
 
+                if (null != outliner) {
+                    loadActive();
+                    push(adviceId);
+                    invokeStatic(outliner.getCompanionType(), outliner.invoking(spyMethod, callSiteId));
+                    return;
+                }
+
                 codeLockForTracing.lock(new CodeLock.Block() {
                     @Override
                     public void code() {
@@ -898,16 +904,16 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:" + label + "()");
 
-                        loadAdviceMethod(tracingType);
-                        _debug(append, "loadAdviceMethod()");
+                        final Label skipLabel = new Label();
+                        jumpIfInactive(skipLabel);
 
-                        pushNull();
-                        loadArrayForInvokeTracing(owner, name, desc);
-                        _debug(append, "loadArrayForInvokeTracing()");
+                        loadArgsForInvokeTracing(callSiteId);
+                        _debug(append, "loadArgsForInvokeTracing()");
+
+                        invokeAdviceMethod(tracingType);
+                        _debug(append, "invokeAdviceMethod()");
 
-                        invokeVirtual(ASM_TYPE_METHOD, ASM_METHOD_METHOD_INVOKE);
-                        pop();
-                        _debug(append, "invokeVirtual()");
+                        mark(skipLabel);
 
                     }
                 });
@@ -926,14 +932,23 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                     return;
                 }
 
+                // 之前外联编织的通知代码不需要跟踪
+                if (AdviceOutliner.isCompanion(owner) || ASM_TYPE_SPY.getInternalName().equals(owner)) {
+                    super.visitMethodInsn(opcode, owner, name, desc, itf);
+                    return;
+                }
+
                 //是否要对JDK内部的方法调用进行trace
                 if (skipJDKTrace && owner.startsWith("java/")) {
                     super.visitMethodInsn(opcode, owner, name, desc, itf);
                     return;
                 }
 
+                // 调用点编号在编织时分配,运行时不再传递和拼接类名、方法名
+                final int callSiteId = CallSiteRegistry.register(owner, name, desc);
+
                 // 方法调用前通知
-                tracing(KEY_ARTHAS_ADVICE_BEFORE_INVOKING_METHOD, owner, name, desc);
+                tracing(KEY_ARTHAS_ADVICE_BEFORE_INVOKING_METHOD, callSiteId);
 
                 final Label beginLabel = new Label();
                 final Label endLabel = new Label();
@@ -947,7 +962,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                 mark(endLabel);
 
                 // 方法调用后通知
-                tracing(KEY_ARTHAS_ADVICE_AFTER_INVOKING_METHOD, owner, name, desc);
+                tracing(KEY_ARTHAS_ADVICE_AFTER_INVOKING_METHOD, callSiteId);
                 goTo(finallyLabel);
 
                 // }
@@ -955,7 +970,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                 // {
 
                 catchException(beginLabel, endLabel, ASM_TYPE_THROWABLE);
-                tracing(KEY_ARTHAS_ADVICE_THROW_INVOKING_METHOD, owner, name, desc);
+                tracing(KEY_ARTHAS_ADVICE_THROW_INVOKING_METHOD, callSiteId);
 
                 throwException();
 
@@ -54,6 +54,17 @@ public class ArthasMethod {
                 : method.getName();
     }
 
+    /**
+     * 获取方法所在的类
+     *
+     * @return 方法所在的类
+     */
+    public Class<?> getDeclaringClass() {
+        return isInit()
+                ? constructor.getDeclaringClass()
+                : method.getDeclaringClass();
+    }
+
     @Override
     public String toString() {
         return isInit()
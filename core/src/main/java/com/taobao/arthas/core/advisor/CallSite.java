@@ -0,0 +1,60 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.StringUtils;
+
+/**
+ * 被跟踪的调用点<br/>
+ * 编织时为每个被调用的方法分配一个固定的编号,跟踪代码只需要传递这个编号,
+ * 展示用的名称在注册时生成一次后复用
+ */
+public class CallSite {
+
+    private final int id;
+    private final String owner;
+    private final String name;
+    private final String desc;
+    private final String title;
+
+    /**
+     * @param id    调用点编号
+     * @param owner 被调用方法的类
+     * @param name  被调用方法的方法名
+     * @param desc  被调用方法的描述
+     */
+    CallSite(int id, String owner, String name, String desc) {
+        this.id = id;
+        this.owner = owner;
+        this.name = name;
+        this.desc = desc;
+        this.title = StringUtils.normalizeClassName(owner) + ":" + name + "()";
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    /**
+     * @return 展示用的名称, 如 java.lang.String:trim()
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public String toString() {
+        return owner + "." + name + desc;
+    }
+
+}
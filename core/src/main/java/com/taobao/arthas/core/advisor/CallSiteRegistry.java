@@ -0,0 +1,66 @@
+package com.taobao.arthas.core.advisor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.System.arraycopy;
+
+/**
+ * 调用点的注册表<br/>
+ * 编织时分配调用点编号,同一个被调用方法在所有类中共用一个编号;
+ * 运行时通过编号直接下标访问,不需要任何查找。
+ * 调用点只包含类名和方法名,不引用类及类加载器,数量以被调用方法为限,因此不注销
+ */
+public class CallSiteRegistry {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // 编号 -> 调用点,只在注册时加锁扩容,读取时直接下标访问
+    private static volatile CallSite[] callSites = new CallSite[DEFAULT_CAPACITY];
+
+    // 类名+方法名+方法描述 -> 调用点,用于保证编号稳定
+    private static final Map<String, CallSite> keyCallSites = new HashMap<String, CallSite>();
+
+    /**
+     * 注册调用点
+     *
+     * @param owner 被调用方法的类
+     * @param name  被调用方法的方法名
+     * @param desc  被调用方法的描述
+     * @return 调用点编号
+     */
+    public static synchronized int register(String owner, String name, String desc) {
+        final String key = owner + "." + name + desc;
+        final CallSite exist = keyCallSites.get(key);
+        if (null != exist) {
+            return exist.getId();
+        }
+
+        final int id = keyCallSites.size();
+        final CallSite callSite = new CallSite(id, owner, name, desc);
+        CallSite[] current = callSites;
+        if (id >= current.length) {
+            final CallSite[] newCallSites = new CallSite[current.length * 2];
+            arraycopy(current, 0, newCallSites, 0, current.length);
+            current = newCallSites;
+        }
+        current[id] = callSite;
+        callSites = current;
+        keyCallSites.put(key, callSite);
+        return id;
+    }
+
+    /**
+     * 获取调用点
+     *
+     * @param id 调用点编号
+     * @return 调用点, 编号不存在时返回null
+     */
+    public static CallSite get(int id) {
+        final CallSite[] current = callSites;
+        return id >= 0 && id < current.length
+                ? current[id]
+                : null;
+    }
+
+}
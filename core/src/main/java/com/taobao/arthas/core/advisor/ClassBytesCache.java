@@ -0,0 +1,290 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.GlobalOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 类字节码缓存<br/>
+ * 缓存被增强类增强后的字节码,以压缩的形式存放,同时记录增强后的字节码中编织了哪些通知ID。
+ * 原始字节码每次retransform时JVM都会给出,不需要缓存。
+ * 压缩后的总大小超过{@link GlobalOptions#classBytesCacheBudget}时,淘汰最久没有被增强过的类。
+ * 类被卸载后缓存随之回收,总大小只在需要时按存活的类重新统计
+ * 被淘汰的类再次增强时,由{@link Enhancer}在JVM给出的原始字节码上重新编织仍然存活的通知,所以淘汰不影响正确性
+ */
+public final class ClassBytesCache {
+
+    private static final long MB = 1024L * 1024L;
+
+    private final Map<Class<?>, Entry> entries = new WeakHashMap<Class<?>, Entry>();
+
+    // 逻辑时钟,每次写入递增
+    private long clock = 0;
+
+    // 写入时累加、移除时扣减;类被卸载时缓存被静默回收,所以只是上限,需要准确值时调用recount()
+    private long compressedBytes = 0;
+    private long rawBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    ClassBytesCache() {
+    }
+
+    /**
+     * 获取增强后的字节码
+     *
+     * @param clazz 类
+     * @return 增强后的字节码, 未缓存或已被淘汰时返回null
+     */
+    byte[] getWoven(Class<?> clazz) {
+        final Compressed woven;
+        synchronized (this) {
+            final Entry entry = entries.get(clazz);
+            if (null == entry) {
+                misses++;
+                return null;
+            }
+            hits++;
+            woven = entry.woven;
+        }
+        return woven.decompress();
+    }
+
+    /**
+     * 获取增强后的字节码中编织的通知ID
+     *
+     * @param clazz 类
+     * @return 通知ID, 未缓存或已被淘汰时返回null
+     */
+    synchronized Set<Integer> getAdviceIds(Class<?> clazz) {
+        final Entry entry = entries.get(clazz);
+        return null == entry ? null : new HashSet<Integer>(entry.adviceIds);
+    }
+
+    /**
+     * 获取类的缓存版本,类的缓存每次更新版本都会变化
+     *
+     * @param clazz 类
+     * @return 缓存版本, 未缓存时返回-1
+     */
+    synchronized long getVersion(Class<?> clazz) {
+        final Entry entry = entries.get(clazz);
+        return null == entry ? -1 : entry.tick;
+    }
+
+    /**
+     * 缓存字节码
+     *
+     * @param clazz     类
+     * @param woven     增强后的字节码
+     * @param adviceIds 增强后的字节码中编织的通知ID
+     */
+    void put(Class<?> clazz, byte[] woven, Set<Integer> adviceIds) {
+        // 压缩在锁外进行
+        final Compressed compressedWoven = Compressed.compress(woven);
+        synchronized (this) {
+            final Entry exist = entries.remove(clazz);
+            if (null != exist) {
+                account(exist, -1);
+            }
+            final Entry entry = new Entry(compressedWoven, new HashSet<Integer>(adviceIds), ++clock);
+            entries.put(clazz, entry);
+            account(entry, 1);
+            evict(clazz);
+        }
+    }
+
+    /**
+     * 移除类的缓存
+     *
+     * @param clazz 类
+     */
+    synchronized void remove(Class<?> clazz) {
+        final Entry entry = entries.remove(clazz);
+        if (null != entry) {
+            account(entry, -1);
+        }
+    }
+
+    /**
+     * 淘汰最久没有被增强过的类,直到压缩后的总大小不超过预算,刚写入的类不会被淘汰
+     */
+    private void evict(Class<?> justPut) {
+        final long budget = GlobalOptions.classBytesCacheBudget * MB;
+        if (budget <= 0 || compressedBytes <= budget) {
+            return;
+        }
+        // 累计值可能包含已被卸载的类,超出预算时先按存活的类重新统计
+        recount();
+        if (compressedBytes <= budget) {
+            return;
+        }
+
+        final List<Map.Entry<Class<?>, Entry>> candidates = new ArrayList<Map.Entry<Class<?>, Entry>>();
+        for (Map.Entry<Class<?>, Entry> entry : entries.entrySet()) {
+            if (entry.getKey() != justPut) {
+                candidates.add(entry);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Map.Entry<Class<?>, Entry>>() {
+            @Override
+            public int compare(Map.Entry<Class<?>, Entry> o1, Map.Entry<Class<?>, Entry> o2) {
+                return o1.getValue().tick < o2.getValue().tick ? -1 : (o1.getValue().tick == o2.getValue().tick ? 0 : 1);
+            }
+        });
+
+        final List<Class<?>> evicted = new ArrayList<Class<?>>();
+        long remaining = compressedBytes;
+        for (Map.Entry<Class<?>, Entry> candidate : candidates) {
+            if (remaining <= budget) {
+                break;
+            }
+            remaining -= candidate.getValue().compressedBytes();
+            evicted.add(candidate.getKey());
+        }
+        for (Class<?> clazz : evicted) {
+            remove(clazz);
+            evictions++;
+        }
+    }
+
+    private void account(Entry entry, int sign) {
+        compressedBytes += sign * entry.compressedBytes();
+        rawBytes += sign * entry.rawBytes();
+    }
+
+    /**
+     * 按存活的类重新统计总大小,去掉已被卸载的类
+     */
+    private void recount() {
+        compressedBytes = 0;
+        rawBytes = 0;
+        for (Entry entry : entries.values()) {
+            account(entry, 1);
+        }
+    }
+
+    /**
+     * @return 缓存的类个数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return 压缩后的总字节数
+     */
+    public synchronized long getCompressedBytes() {
+        recount();
+        return compressedBytes;
+    }
+
+    /**
+     * @return 压缩前的总字节数
+     */
+    public synchronized long getRawBytes() {
+        recount();
+        return rawBytes;
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return 淘汰次数
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class Entry {
+        private final Compressed woven;
+        private final Set<Integer> adviceIds;
+        private final long tick;
+
+        Entry(Compressed woven, Set<Integer> adviceIds, long tick) {
+            this.woven = woven;
+            this.adviceIds = adviceIds;
+            this.tick = tick;
+        }
+
+        long compressedBytes() {
+            return woven.data.length;
+        }
+
+        long rawBytes() {
+            return woven.length;
+        }
+    }
+
+    /**
+     * 压缩后的字节码
+     */
+    private static class Compressed {
+        private final byte[] data;
+        private final int length;
+
+        private Compressed(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        static Compressed compress(byte[] bytes) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(bytes);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+                final byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return new Compressed(out.toByteArray(), bytes.length);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        byte[] decompress() {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                final byte[] bytes = new byte[length];
+                int offset = 0;
+                while (offset < length && !inflater.finished() && !inflater.needsInput()) {
+                    offset += inflater.inflate(bytes, offset, length - offset);
+                }
+                return bytes;
+            } catch (DataFormatException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+}
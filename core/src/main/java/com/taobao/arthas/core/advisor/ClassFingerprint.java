@@ -0,0 +1,333 @@
+package com.taobao.arthas.core.advisor;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 类指纹<br/>
+ * JVM在retransform时给出的字节码往往是根据内部结构重新生成的,常量池顺序、指令长度都可能与类文件不同,
+ * 指纹只计算类的结构及每条指令的语义(忽略调试信息和栈帧),两份字节码指纹相同即可认为是同一个类
+ */
+final class ClassFingerprint {
+
+    // 类 -> 已经确认过的{类文件校验和, JVM给出的字节码的校验和}
+    private static final Map<Class<?>, long[]> verified = new WeakHashMap<Class<?>, long[]>();
+
+    private ClassFingerprint() {
+    }
+
+    /**
+     * 计算类的指纹
+     *
+     * @param classBytes 类字节码
+     * @return 指纹
+     */
+    static byte[] of(byte[] classBytes) {
+        final FingerprintVisitor visitor = new FingerprintVisitor();
+        new ClassReader(classBytes).accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor.fingerprint();
+    }
+
+    static boolean isEquals(byte[] fingerprint, byte[] classBytes) {
+        return Arrays.equals(fingerprint, of(classBytes));
+    }
+
+    /**
+     * 计算字节码的校验和,高32位为长度,低32位为CRC32
+     */
+    static long checksum(byte[] classBytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(classBytes, 0, classBytes.length);
+        return (long) classBytes.length << 32 | crc.getValue();
+    }
+
+    /**
+     * JVM给出的字节码与类文件是否为同一个类<br/>
+     * 同一个类每次retransform时JVM重新生成的字节码都一样,确认过一次之后只需比较长度及CRC32,
+     * 不必再解析字节码计算指纹
+     *
+     * @param clazz           类
+     * @param sourceChecksum  类文件的校验和
+     * @param fingerprint     类文件的指纹
+     * @param classfileBuffer JVM给出的字节码
+     * @return true/false
+     */
+    static boolean isSameClass(Class<?> clazz, long sourceChecksum, byte[] fingerprint, byte[] classfileBuffer) {
+        final long bufferChecksum = checksum(classfileBuffer);
+        synchronized (verified) {
+            final long[] checksums = null == clazz ? null : verified.get(clazz);
+            if (null != checksums && checksums[0] == sourceChecksum && checksums[1] == bufferChecksum) {
+                return true;
+            }
+        }
+        if (!isEquals(fingerprint, classfileBuffer)) {
+            return false;
+        }
+        if (null != clazz) {
+            synchronized (verified) {
+                verified.put(clazz, new long[]{sourceChecksum, bufferChecksum});
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 摘要
+     */
+    private static class Digest {
+
+        private final MessageDigest md;
+
+        Digest() {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void update(int value) {
+            md.update((byte) (value >>> 24));
+            md.update((byte) (value >>> 16));
+            md.update((byte) (value >>> 8));
+            md.update((byte) value);
+        }
+
+        void update(byte[] bytes) {
+            update(bytes.length);
+            md.update(bytes);
+        }
+
+        void update(Object value) {
+            if (null == value) {
+                update(-1);
+                return;
+            }
+            try {
+                update((value.getClass().getName() + ":" + value).getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void update(Object[] values) {
+            update(null == values ? -1 : values.length);
+            if (null != values) {
+                for (Object value : values) {
+                    update(value);
+                }
+            }
+        }
+
+        byte[] digest() {
+            return md.digest();
+        }
+    }
+
+    /**
+     * 计算指纹的类访问者<br/>
+     * JVM重新生成的字节码中方法、属性的顺序不一定与类文件相同,所以每个成员单独计算摘要,排序后再合并
+     */
+    private static class FingerprintVisitor extends ClassVisitor {
+
+        private final Digest header = new Digest();
+        private final List<Digest> members = new ArrayList<Digest>();
+
+        FingerprintVisitor() {
+            super(Opcodes.ASM7);
+        }
+
+        byte[] fingerprint() {
+            final List<byte[]> memberDigests = new ArrayList<byte[]>(members.size());
+            for (Digest member : members) {
+                memberDigests.add(member.digest());
+            }
+            Collections.sort(memberDigests, new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] o1, byte[] o2) {
+                    for (int index = 0; index < o1.length && index < o2.length; index++) {
+                        if (o1[index] != o2[index]) {
+                            return o1[index] < o2[index] ? -1 : 1;
+                        }
+                    }
+                    return o1.length - o2.length;
+                }
+            });
+            for (byte[] memberDigest : memberDigests) {
+                header.update(memberDigest);
+            }
+            return header.digest();
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            header.update(access);
+            header.update(name);
+            header.update(superName);
+            header.update(interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            final Digest digest = new Digest();
+            members.add(digest);
+            digest.update(access);
+            digest.update(name);
+            digest.update(desc);
+            digest.update(value);
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            final Digest digest = new Digest();
+            members.add(digest);
+            digest.update(access);
+            digest.update(name);
+            digest.update(desc);
+            digest.update(exceptions);
+            return new MethodVisitor(Opcodes.ASM7) {
+
+                // 标签按首次出现的顺序编号,不依赖指令偏移
+                private final Map<Label, Integer> labels = new IdentityHashMap<Label, Integer>();
+
+                private void update(Label label) {
+                    Integer index = labels.get(label);
+                    if (null == index) {
+                        labels.put(label, index = labels.size());
+                    }
+                    digest.update(index);
+                }
+
+                @Override
+                public void visitInsn(int opcode) {
+                    digest.update(opcode);
+                }
+
+                @Override
+                public void visitIntInsn(int opcode, int operand) {
+                    digest.update(opcode);
+                    digest.update(operand);
+                }
+
+                @Override
+                public void visitVarInsn(int opcode, int var) {
+                    digest.update(opcode);
+                    digest.update(var);
+                }
+
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    digest.update(opcode);
+                    digest.update(type);
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    digest.update(opcode);
+                    digest.update(owner);
+                    digest.update(name);
+                    digest.update(desc);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    digest.update(opcode);
+                    digest.update(owner);
+                    digest.update(name);
+                    digest.update(desc);
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                    digest.update(Opcodes.INVOKEDYNAMIC);
+                    digest.update(name);
+                    digest.update(desc);
+                    digest.update(bsm);
+                    digest.update(bsmArgs);
+                }
+
+                @Override
+                public void visitJumpInsn(int opcode, Label label) {
+                    digest.update(opcode);
+                    update(label);
+                }
+
+                @Override
+                public void visitLabel(Label label) {
+                    update(label);
+                }
+
+                @Override
+                public void visitLdcInsn(Object cst) {
+                    digest.update(Opcodes.LDC);
+                    digest.update(cst);
+                }
+
+                @Override
+                public void visitIincInsn(int var, int increment) {
+                    digest.update(Opcodes.IINC);
+                    digest.update(var);
+                    digest.update(increment);
+                }
+
+                @Override
+                public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                    digest.update(Opcodes.TABLESWITCH);
+                    digest.update(min);
+                    digest.update(max);
+                    update(dflt);
+                    for (Label label : labels) {
+                        update(label);
+                    }
+                }
+
+                @Override
+                public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                    digest.update(Opcodes.LOOKUPSWITCH);
+                    update(dflt);
+                    for (int index = 0; index < keys.length; index++) {
+                        digest.update(keys[index]);
+                        update(labels[index]);
+                    }
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String desc, int dims) {
+                    digest.update(Opcodes.MULTIANEWARRAY);
+                    digest.update(desc);
+                    digest.update(dims);
+                }
+
+                @Override
+                public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                    update(start);
+                    update(end);
+                    update(handler);
+                    digest.update(type);
+                }
+
+            };
+        }
+
+    }
+
+}
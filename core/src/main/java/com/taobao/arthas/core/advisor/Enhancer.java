@@ -1,8 +1,10 @@
 package com.taobao.arthas.core.advisor;
 
 import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.Constants;
 import com.taobao.arthas.core.util.FileUtils;
+import com.taobao.arthas.core.util.IOUtils;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.matcher.Matcher;
 import com.taobao.arthas.core.util.SearchUtils;
@@ -12,9 +14,13 @@ import com.taobao.arthas.core.util.reflect.FieldUtils;
 import com.taobao.middleware.logger.Logger;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
+import java.arthas.Spy;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
@@ -22,9 +28,16 @@ import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.taobao.arthas.core.util.ArthasCheckUtils.isEquals;
-import static java.lang.System.arraycopy;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
 import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
@@ -33,24 +46,63 @@ import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
  * 对类进行通知增强
  * Created by vlinux on 15/5/17.
  */
-public class Enhancer implements ClassFileTransformer {
+public class Enhancer {
 
     private static final Logger logger = LogUtil.getArthasLogger();
 
     private final int adviceId;
     private final boolean isTracing;
     private final boolean skipJDKTrace;
+    private final int capability;
     private final Set<Class<?>> matchingClasses;
     private final Matcher methodNameMatcher;
     private final EnhancerAffect affect;
 
+    // 预先编织好的字节码
+    private final Map<Class<?>, Woven> precomputed = new ConcurrentHashMap<Class<?>, Woven>();
+
+    // 匹配的类达到该数量才并行编织,编织一个类通常只要几毫秒,类太少时不值得分发到其他线程
+    private final static int PARALLEL_WEAVING_THRESHOLD = 8;
+
+    // 并行编织的线程数
+    private final static int PARALLEL_WEAVING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // 并行编织的线程池,所有增强共用,空闲的线程自动退出
+    private static ThreadPoolExecutor weavingExecutor;
+
     // 类-字节码缓存
-    private final static Map<Class<?>/*Class*/, byte[]/*bytes of Class*/> classBytesCache
-            = new WeakHashMap<Class<?>, byte[]>();
+    private final static ClassBytesCache classBytesCache = new ClassBytesCache();
+
+    // 多个会话同时增强/重置时,协调各自的retransform
+    private final static RetransformCoordinator coordinator = new RetransformCoordinator();
+
+    // 类-编织进该类且仍然存活的通知ID,通知ID释放后类会被自动重新编织,全部释放后恢复原始字节码
+    private final static Map<Class<?>/*Class*/, Set<Integer>/*ADVICE_ID*/> classAdviceIds
+            = new HashMap<Class<?>, Set<Integer>>();
+
+    // 通知ID-增强器,类字节码缓存被淘汰后用于重新编织仍然存活的通知,与classAdviceIds使用同一把锁
+    private final static Map<Integer/*ADVICE_ID*/, Enhancer> adviceEnhancers = new HashMap<Integer, Enhancer>();
+
+    // 已经排遣过间谍的类加载器
+    private final static Set<ClassLoader> spiedClassLoaders = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<ClassLoader, Boolean>()));
+
+    // 通知ID-常驻的增强器,在新定义的类上编织,通知ID释放时卸载
+    private final static Map<Integer/*ADVICE_ID*/, LazyEnhancer> lazyEnhancers = new HashMap<Integer, LazyEnhancer>();
+
+    // 在类定义时编织、尚未关联到类对象的类
+    private final static List<LazyWoven> pendingLazyClasses = new ArrayList<LazyWoven>();
+
+    // 有通知ID被释放、等待自动重新编织或重置的类
+    private final static Set<Class<?>> pendingResetClasses = new HashSet<Class<?>>();
+
+    // 自动重置的攒批时间(毫秒)
+    private final static long AUTO_RESET_DELAY_MILLIS = 1000L;
 
     /**
      * @param adviceId          通知编号
      * @param isTracing         可跟踪方法调用
+     * @param capability        监听器的能力描述
      * @param matchingClasses   匹配中的类
      * @param methodNameMatcher 方法名匹配
      * @param affect            影响统计
@@ -58,19 +110,24 @@ public class Enhancer implements ClassFileTransformer {
     private Enhancer(int adviceId,
                      boolean isTracing,
                      boolean skipJDKTrace,
+                     int capability,
                      Set<Class<?>> matchingClasses,
                      Matcher methodNameMatcher,
                      EnhancerAffect affect) {
         this.adviceId = adviceId;
         this.isTracing = isTracing;
         this.skipJDKTrace = skipJDKTrace;
+        this.capability = capability;
         this.matchingClasses = matchingClasses;
         this.methodNameMatcher = methodNameMatcher;
         this.affect = affect;
     }
 
-	private void spy(final ClassLoader targetClassLoader) throws Exception {
-        if (targetClassLoader == null) {
+    /**
+     * 为类加载器排遣间谍,每个类加载器只处理一次
+     */
+    private static void spy(final ClassLoader targetClassLoader) throws Exception {
+        if (targetClassLoader == null || spiedClassLoaders.contains(targetClassLoader)) {
             // 增强JDK自带的类,targetClassLoader为null
             return;
         }
@@ -81,109 +138,312 @@ public class Enhancer implements ClassFileTransformer {
 
         // 初始化间谍, AgentLauncher会把各种hook设置到ArthasClassLoader当中
         // 这里我们需要把这些hook取出来设置到目标classloader当中
-        Method initMethod = spyClass.getMethod("init", ClassLoader.class, Method.class,
-                Method.class, Method.class, Method.class, Method.class, Method.class);
+        Method initMethod = spyClass.getMethod("init", ClassLoader.class, Spy.AbstractSpy.class);
         initMethod.invoke(null, arthasClassLoader,
-                FieldUtils.getField(spyClass, "ON_BEFORE_METHOD").get(null),
-                FieldUtils.getField(spyClass, "ON_RETURN_METHOD").get(null),
-                FieldUtils.getField(spyClass, "ON_THROWS_METHOD").get(null),
-                FieldUtils.getField(spyClass, "BEFORE_INVOKING_METHOD").get(null),
-                FieldUtils.getField(spyClass, "AFTER_INVOKING_METHOD").get(null),
-                FieldUtils.getField(spyClass, "THROW_INVOKING_METHOD").get(null));
-	}
-
-    @Override
-    public byte[] transform(final ClassLoader inClassLoader, String className, Class<?> classBeingRedefined,
-                    ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
-        try {
-            // 这里要再次过滤一次，为啥？因为在transform的过程中，有可能还会再诞生新的类
-            // 所以需要将之前需要转换的类集合传递下来，再次进行判断
-            if (!matchingClasses.contains(classBeingRedefined)) {
-                return null;
+                FieldUtils.getField(spyClass, "SPY_INSTANCE").get(null));
+        spiedClassLoaders.add(targetClassLoader);
+    }
+
+    /**
+     * 在增强之前为类所在的类加载器排遣间谍<br/>
+     * 排遣失败的类加载器中的类不做增强
+     */
+    private static void spy(final Set<Class<?>> classes) {
+        final Map<ClassLoader, Boolean> spiedResults = new IdentityHashMap<ClassLoader, Boolean>();
+        final Iterator<Class<?>> it = classes.iterator();
+        while (it.hasNext()) {
+            final ClassLoader loader = it.next().getClassLoader();
+            Boolean isSpied = spiedResults.get(loader);
+            if (null == isSpied) {
+                try {
+                    spy(loader);
+                    isSpied = true;
+                } catch (Throwable t) {
+                    logger.warn("print spy failed. loader={};", loader, t);
+                    isSpied = false;
+                }
+                spiedResults.put(loader, isSpied);
             }
+            if (!isSpied) {
+                it.remove();
+            }
+        }
+    }
 
-            final ClassReader cr;
+    /**
+     * 编织类<br/>
+     * 如果类已经被增强过,则在缓存的字节码上继续编织,以支持多人同时增强;
+     * 缓存的字节码中含有已释放的通知时,改为在原始字节码上重新编织存活的通知,避免已释放的通知层层叠加。
+     * 合并执行的多个增强器依次编织,类字节码缓存只在全部编织完成后更新一次
+     *
+     * @param enhancers       增强器,按通知ID排列
+     * @param inClassLoader   类加载器
+     * @param clazz           被编织的类
+     * @param classfileBuffer 类的原始字节码
+     * @param wovenAdviceIds  输出编织后的字节码中包含的通知ID
+     * @return 编织后的字节码
+     */
+    private static byte[] weave(List<Enhancer> enhancers, ClassLoader inClassLoader, Class<?> clazz,
+                                byte[] classfileBuffer, Set<Integer> wovenAdviceIds) {
 
-            // 首先先检查是否在缓存中存在Class字节码
-            // 因为要支持多人协作,存在多人同时增强的情况
-            final byte[] byteOfClassInCache = classBytesCache.get(classBeingRedefined);
-            if (null != byteOfClassInCache) {
-                cr = new ClassReader(byteOfClassInCache);
+        // 只有一个增强器时优先使用预先并行编织好的字节码,编织的原料必须与当前的缓存及JVM给出的字节码一致
+        if (enhancers.size() == 1) {
+            final Enhancer enhancer = enhancers.get(0);
+            final Woven woven = enhancer.precomputed.get(clazz);
+            if (null != woven
+                    && woven.cacheVersion == classBytesCache.getVersion(clazz)
+                    && woven.isWovenFrom(clazz, classfileBuffer)
+                    && woven.defineCompanions()) {
+                enhancer.affect.mCnt(woven.affect.mCnt());
+                wovenAdviceIds.addAll(woven.adviceIds);
+                return woven.bytes;
             }
+        }
+
+        // 首先先检查是否在缓存中存在Class字节码
+        // 因为要支持多人协作,存在多人同时增强的情况
+        final byte[] byteOfClassInCache = getLiveWoven(clazz, wovenAdviceIds);
+
+        // 如果没有命中缓存,则从原始字节码开始增强
+        byte[] bytes = null != byteOfClassInCache
+                ? byteOfClassInCache
+                : rebuild(inClassLoader, clazz, classfileBuffer, enhancers, wovenAdviceIds, null);
+        for (Enhancer enhancer : enhancers) {
+            bytes = enhancer.weaveOn(inClassLoader, clazz, bytes, enhancer.affect, null);
+            wovenAdviceIds.add(enhancer.adviceId);
+        }
+        return bytes;
+    }
 
-            // 如果没有命中缓存,则从原始字节码开始增强
-            else {
-                cr = new ClassReader(classfileBuffer);
+    /**
+     * 获取缓存中增强后的字节码,其中编织的通知必须都还存活
+     *
+     * @param clazz          类
+     * @param wovenAdviceIds 输出缓存的字节码中包含的通知ID
+     * @return 增强后的字节码, 未缓存、已被淘汰或者含有已释放的通知时返回null
+     */
+    private static byte[] getLiveWoven(Class<?> clazz, Set<Integer> wovenAdviceIds) {
+        final Set<Integer> cachedAdviceIds = classBytesCache.getAdviceIds(clazz);
+        if (null == cachedAdviceIds) {
+            return null;
+        }
+        synchronized (classAdviceIds) {
+            final Set<Integer> liveAdviceIds = classAdviceIds.get(clazz);
+            if (null == liveAdviceIds || !liveAdviceIds.containsAll(cachedAdviceIds)) {
+                return null;
             }
+        }
+        final byte[] bytes = classBytesCache.getWoven(clazz);
+        if (null != bytes) {
+            wovenAdviceIds.addAll(cachedAdviceIds);
+        }
+        return bytes;
+    }
 
-            // 字节码增强
-            final ClassWriter cw = new ClassWriter(cr, COMPUTE_FRAMES | COMPUTE_MAXS) {
+    /**
+     * 在原始字节码上依次重新编织类中仍然存活的其他通知<br/>
+     * 类字节码缓存被淘汰后,缓存中增强过的字节码需要重新生成。通知ID递增分配,按ID顺序编织即可还原增强的叠加顺序,
+     * 已经释放的通知以及正要编织的通知不会被重新编织
+     *
+     * @param rebuiltAdviceIds 输出重新编织的通知ID
+     * @param pendingOutliners 输出尚未定义伴生类的通知外联器,为null表示立即定义
+     */
+    private static byte[] rebuild(ClassLoader inClassLoader, Class<?> clazz, byte[] classfileBuffer,
+                                  Collection<Enhancer> weavingEnhancers, Set<Integer> rebuiltAdviceIds,
+                                  List<AdviceOutliner> pendingOutliners) {
+        final Set<Integer> weavingAdviceIds = new HashSet<Integer>();
+        for (Enhancer enhancer : weavingEnhancers) {
+            weavingAdviceIds.add(enhancer.adviceId);
+        }
 
-                /*
-                 * 注意，为了自动计算帧的大小，有时必须计算两个类共同的父类。
-                 * 缺省情况下，ClassWriter将会在getCommonSuperClass方法中计算这些，通过在加载这两个类进入虚拟机时，使用反射API来计算。
-                 * 但是，如果你将要生成的几个类相互之间引用，这将会带来问题，因为引用的类可能还不存在。
-                 * 在这种情况下，你可以重写getCommonSuperClass方法来解决这个问题。
-                 *
-                 * 通过重写 getCommonSuperClass() 方法，更正获取ClassLoader的方式，改成使用指定ClassLoader的方式进行。
-                 * 规避了原有代码采用Object.class.getClassLoader()的方式
-                 */
-                @Override
-                protected String getCommonSuperClass(String type1, String type2) {
-                    Class<?> c, d;
-                    final ClassLoader classLoader = inClassLoader;
-                    try {
-                        c = Class.forName(type1.replace('/', '.'), false, classLoader);
-                        d = Class.forName(type2.replace('/', '.'), false, classLoader);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                    if (c.isAssignableFrom(d)) {
-                        return type1;
-                    }
-                    if (d.isAssignableFrom(c)) {
-                        return type2;
-                    }
-                    if (c.isInterface() || d.isInterface()) {
-                        return "java/lang/Object";
-                    } else {
-                        do {
-                            c = c.getSuperclass();
-                        } while (!c.isAssignableFrom(d));
-                        return c.getName().replace('.', '/');
+        final List<Enhancer> enhancers = new ArrayList<Enhancer>();
+        synchronized (classAdviceIds) {
+            final Set<Integer> adviceIds = classAdviceIds.get(clazz);
+            if (null != adviceIds) {
+                for (Integer wovenAdviceId : new TreeSet<Integer>(adviceIds)) {
+                    final Enhancer enhancer = adviceEnhancers.get(wovenAdviceId);
+                    if (!weavingAdviceIds.contains(wovenAdviceId) && null != enhancer) {
+                        enhancers.add(enhancer);
                     }
                 }
+            }
+        }
 
-            };
+        byte[] bytes = classfileBuffer;
+        for (Enhancer enhancer : enhancers) {
+            bytes = enhancer.weaveOn(inClassLoader, clazz, bytes, new EnhancerAffect(), pendingOutliners);
+            rebuiltAdviceIds.add(enhancer.adviceId);
+        }
+        return bytes;
+    }
+
+    /**
+     * 在指定的字节码上编织本增强器的通知
+     *
+     * @param pendingOutliners 输出尚未定义伴生类的通知外联器,编织结果不一定被采用时由调用方在采用时定义;
+     *                         为null表示立即定义
+     */
+    private byte[] weaveOn(final ClassLoader inClassLoader, Class<?> clazz, byte[] classBytes,
+                           EnhancerAffect affect, List<AdviceOutliner> pendingOutliners) {
+        final String className = new ClassReader(classBytes).getClassName();
+        if (GlobalOptions.isOutlineAdvice && AdviceOutliner.isOutlinable(inClassLoader, className)) {
+            AdviceOutliner outliner = new AdviceOutliner(inClassLoader, className);
+            EnhancerAffect outlineAffect = new EnhancerAffect();
+            byte[] bytes = weaveWith(inClassLoader, clazz, classBytes, outlineAffect, outliner);
+            if (!outliner.isComplete()) {
+                outliner = new AdviceOutliner(inClassLoader, className, false);
+                outlineAffect = new EnhancerAffect();
+                bytes = weaveWith(inClassLoader, clazz, classBytes, outlineAffect, outliner);
+            }
+            if (null != pendingOutliners) {
+                pendingOutliners.add(outliner);
+                affect.mCnt(outlineAffect.mCnt());
+                return bytes;
+            }
+            try {
+                outliner.define();
+                affect.mCnt(outlineAffect.mCnt());
+                return bytes;
+            } catch (Throwable t) {
+                logger.debug("define advice companion of {} failed, weave inline instead.", className, t);
+            }
+        }
+        return weaveWith(inClassLoader, clazz, classBytes, affect, null);
+    }
+
+    /**
+     * 使用指定的通知外联器编织,outliner为null表示通知代码直接编织在方法中
+     */
+    private byte[] weaveWith(final ClassLoader inClassLoader, Class<?> clazz, byte[] classBytes,
+                             EnhancerAffect affect, AdviceOutliner outliner) {
+        final ClassReader cr = new ClassReader(classBytes);
 
-            // 生成增强字节码
-            cr.accept(new AdviceWeaver(adviceId, isTracing, skipJDKTrace, cr.getClassName(), methodNameMatcher, affect,
-                            cw), EXPAND_FRAMES);
-            final byte[] enhanceClassByteArray = cw.toByteArray();
+        // 字节码增强
+        final ClassWriter cw = new ClassWriter(cr, COMPUTE_FRAMES | COMPUTE_MAXS) {
 
-            // 生成成功,推入缓存
-            classBytesCache.put(classBeingRedefined, enhanceClassByteArray);
+            /*
+             * 注意，为了自动计算帧的大小，有时必须计算两个类共同的父类。
+             * 缺省情况下，ClassWriter将会在getCommonSuperClass方法中计算这些，通过在加载这两个类进入虚拟机时，使用反射API来计算。
+             * 但是，如果你将要生成的几个类相互之间引用，这将会带来问题，因为引用的类可能还不存在。
+             * 在这种情况下，你可以重写getCommonSuperClass方法来解决这个问题。
+             *
+             * 通过重写 getCommonSuperClass() 方法，更正获取ClassLoader的方式，改成使用指定ClassLoader的方式进行。
+             * 规避了原有代码采用Object.class.getClassLoader()的方式
+             *
+             * 类型层次从类文件中读取并按ClassLoader缓存,避免在transform中加载类
+             */
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return TypeHierarchyResolver.getCommonSuperClass(inClassLoader, type1, type2);
+            }
 
-            // dump the class
-            dumpClassIfNecessary(className, enhanceClassByteArray, affect);
+        };
 
-            // 成功计数
-            affect.cCnt(1);
+        // 生成增强字节码
+        cr.accept(new AdviceWeaver(adviceId, isTracing, skipJDKTrace, capability, inClassLoader,
+                clazz, cr.getClassName(), methodNameMatcher, affect, outliner, cw), EXPAND_FRAMES);
+        return cw.toByteArray();
+    }
 
-            // 排遣间谍
-            try {
-                spy(inClassLoader);
-            } catch (Throwable t) {
-                logger.warn("print spy failed. classname={};loader={};", className, inClassLoader, t);
-                throw t;
+    /**
+     * 在retransform之前并行编织所有匹配的类<br/>
+     * 编织的原料为缓存中已增强的字节码或类文件资源,JVM回调transform时只需要取出结果,从而缩短retransform的停顿。
+     * 类文件资源与JVM给出的字节码指纹不一致(如被其他agent修改过)时,预编织的结果会被放弃,回退到在transform中编织。
+     * 预编织的结果不一定被采用,伴生类在transform中采用时才定义
+     */
+    private void precompute() {
+        if (matchingClasses.size() < PARALLEL_WEAVING_THRESHOLD) {
+            return;
+        }
+
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(matchingClasses.size());
+            for (final Class<?> clazz : matchingClasses) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            // 读取期间缓存被其他增强更新时放弃预编织
+                            final long cacheVersion = classBytesCache.getVersion(clazz);
+                            final Set<Integer> adviceIds = new HashSet<Integer>();
+                            final byte[] cachedBytes = getLiveWoven(clazz, adviceIds);
+                            if (cacheVersion != classBytesCache.getVersion(clazz)) {
+                                return null;
+                            }
+                            final byte[] sourceBytes = null == cachedBytes ? readClassFile(clazz) : null;
+                            if (null == cachedBytes && null == sourceBytes) {
+                                return null;
+                            }
+                            final ClassLoader loader = clazz.getClassLoader();
+                            final EnhancerAffect wovenAffect = new EnhancerAffect();
+                            final List<AdviceOutliner> outliners = new ArrayList<AdviceOutliner>();
+                            final byte[] bytes = weaveOn(loader, clazz, null != cachedBytes
+                                    ? cachedBytes
+                                    : rebuild(loader, clazz, sourceBytes, Collections.singleton(Enhancer.this),
+                                    adviceIds, outliners),
+                                    wovenAffect, outliners);
+                            adviceIds.add(adviceId);
+                            precomputed.put(clazz, new Woven(cacheVersion, sourceBytes, bytes, adviceIds,
+                                    wovenAffect, outliners));
+                        } catch (Throwable t) {
+                            logger.debug("precompute woven bytes of {} failed, will weave in transform.", clazz, t);
+                        }
+                        return null;
+                    }
+                });
             }
+            weavingExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            return enhanceClassByteArray;
-        } catch (Throwable t) {
-            logger.warn("transform loader[{}]:class[{}] failed.", inClassLoader, className, t);
+    private static synchronized ExecutorService weavingExecutor() {
+        if (null == weavingExecutor) {
+            final AtomicInteger sequence = new AtomicInteger();
+            weavingExecutor = new ThreadPoolExecutor(PARALLEL_WEAVING_THREADS, PARALLEL_WEAVING_THREADS,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "as-enhancer-weaver-" + sequence.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            weavingExecutor.allowCoreThreadTimeOut(true);
+        }
+        return weavingExecutor;
+    }
+
+    /**
+     * 停止并行编织的线程池<br/>
+     * Arthas服务端销毁时调用,之后再增强会重新创建线程池
+     */
+    public static synchronized void shutdown() {
+        if (null != weavingExecutor) {
+            weavingExecutor.shutdownNow();
+            weavingExecutor = null;
         }
+    }
 
-        return null;
+    /**
+     * 读取类文件资源
+     *
+     * @return 类文件字节码, 找不到时返回null
+     */
+    private static byte[] readClassFile(Class<?> clazz) throws IOException {
+        final String resource = clazz.getName().replace('.', '/') + ".class";
+        final InputStream is = null == clazz.getClassLoader()
+                ? ClassLoader.getSystemResourceAsStream(resource)
+                : clazz.getClassLoader().getResourceAsStream(resource);
+        if (null == is) {
+            return null;
+        }
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
     }
 
     /**
@@ -226,7 +486,8 @@ public class Enhancer implements ClassFileTransformer {
             if (null == clazz
                     || isSelf(clazz)
                     || isUnsafeClass(clazz)
-                    || isUnsupportedClass(clazz)) {
+                    || isUnsupportedClass(clazz)
+                    || AdviceOutliner.isCompanion(clazz.getName())) {
                 it.remove();
             }
         }
@@ -265,21 +526,51 @@ public class Enhancer implements ClassFileTransformer {
      * @param inst              inst
      * @param adviceId          通知ID
      * @param isTracing         可跟踪方法调用
+     * @param capability        监听器的能力描述
      * @param classNameMatcher  类名匹配
      * @param methodNameMatcher 方法名匹配
      * @return 增强影响范围
      * @throws UnmodifiableClassException 增强失败
      */
-    public static synchronized EnhancerAffect enhance(
+    public static EnhancerAffect enhance(
             final Instrumentation inst,
             final int adviceId,
             final boolean isTracing,
             final boolean skipJDKTrace,
+            final int capability,
             final Matcher classNameMatcher,
             final Matcher methodNameMatcher) throws UnmodifiableClassException {
+        return enhance(inst, adviceId, isTracing, skipJDKTrace, capability, classNameMatcher, methodNameMatcher, false);
+    }
+
+    /**
+     * 对象增强
+     *
+     * @param inst              inst
+     * @param adviceId          通知ID
+     * @param isTracing         可跟踪方法调用
+     * @param capability        监听器的能力描述
+     * @param classNameMatcher  类名匹配
+     * @param methodNameMatcher 方法名匹配
+     * @param isLazy            是否在之后新定义的匹配类上继续编织,直到通知ID被释放
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException 增强失败
+     */
+    public static EnhancerAffect enhance(
+            final Instrumentation inst,
+            final int adviceId,
+            final boolean isTracing,
+            final boolean skipJDKTrace,
+            final int capability,
+            final Matcher classNameMatcher,
+            final Matcher methodNameMatcher,
+            final boolean isLazy) throws UnmodifiableClassException {
 
         final EnhancerAffect affect = new EnhancerAffect();
 
+        // 之前在类定义时编织的类需要先关联上,才能在其上继续编织
+        bindLazyClasses(inst);
+
         // 获取需要增强的类集合
         final Set<Class<?>> enhanceClassSet = GlobalOptions.isDisableSubClass
                 ? SearchUtils.searchClass(inst, classNameMatcher)
@@ -288,43 +579,162 @@ public class Enhancer implements ClassFileTransformer {
         // 过滤掉无法被增强的类
         filter(enhanceClassSet);
 
+        // 排遣间谍,不在transform中逐个类进行
+        spy(enhanceClassSet);
+
         // 构建增强器
-        final Enhancer enhancer = new Enhancer(adviceId, isTracing, skipJDKTrace, enhanceClassSet, methodNameMatcher, affect);
+        final Enhancer enhancer = new Enhancer(adviceId, isTracing, skipJDKTrace, capability, enhanceClassSet,
+                methodNameMatcher, affect);
+
+        // 先于搜索结果的retransform挂上常驻增强器,期间新定义的类也不会遗漏
+        if (isLazy) {
+            attachLazyEnhancer(inst, enhancer, classNameMatcher);
+        }
+
+        // 并行预编织
+        enhancer.precompute();
+
+        boolean isSuccess = false;
         try {
-            inst.addTransformer(enhancer, true);
+            // 与其他会话的增强协调执行,涉及相同类的增强被合并为一次retransform
+            if (!enhanceClassSet.isEmpty()) {
+                coordinator.retransform(inst, ENHANCE_RETRANSFORMER, enhancer, enhanceClassSet);
+            }
+            isSuccess = true;
+        } finally {
+            enhancer.precomputed.clear();
+            if (isLazy && !isSuccess) {
+                detachLazyEnhancer(inst, adviceId);
+            }
+        }
 
-            // 批量增强
-            if (GlobalOptions.isBatchReTransform) {
-                final int size = enhanceClassSet.size();
-                final Class<?>[] classArray = new Class<?>[size];
-                arraycopy(enhanceClassSet.toArray(), 0, classArray, 0, size);
-                if (classArray.length > 0) {
-                    inst.retransformClasses(classArray);
-                    logger.info("Success to batch transform classes: " + Arrays.toString(classArray));
+        return affect;
+    }
+
+    /**
+     * 合并执行增强
+     */
+    private static final RetransformCoordinator.GroupRetransformer<Enhancer> ENHANCE_RETRANSFORMER
+            = new RetransformCoordinator.GroupRetransformer<Enhancer>() {
+        @Override
+        public void retransform(Instrumentation inst, List<Enhancer> enhancers, Set<Class<?>> classes)
+                throws UnmodifiableClassException {
+            final EnhancerAffect groupAffect = new EnhancerAffect();
+            if (enhancers.size() > 1) {
+                logger.info("merge {} enhancements into one retransform of {} classes.", enhancers.size(), classes.size());
+            }
+            try {
+                Enhancer.retransform(inst, new MergedEnhancer(enhancers), classes, groupAffect);
+            } finally {
+                // 每个增强都记录合并后的停顿
+                for (Enhancer enhancer : enhancers) {
+                    for (EnhancerAffect.RetransformBatch batch : groupAffect.getRetransformBatches()) {
+                        enhancer.affect.retransformBatch(batch);
+                    }
                 }
-            } else {
-                // for each 增强
-                for (Class<?> clazz : enhanceClassSet) {
+            }
+        }
+    };
+
+    /**
+     * 合并执行重置
+     */
+    private static final RetransformCoordinator.GroupRetransformer<EnhancerAffect> RESET_RETRANSFORMER
+            = new RetransformCoordinator.GroupRetransformer<EnhancerAffect>() {
+        @Override
+        public void retransform(Instrumentation inst, List<EnhancerAffect> affects, Set<Class<?>> classes)
+                throws UnmodifiableClassException {
+            final ClassFileTransformer resetClassFileTransformer = new ClassFileTransformer() {
+                @Override
+                public byte[] transform(
+                        ClassLoader loader,
+                        String className,
+                        Class<?> classBeingRedefined,
+                        ProtectionDomain protectionDomain,
+                        byte[] classfileBuffer) throws IllegalClassFormatException {
+                    return null;
+                }
+            };
+
+            final EnhancerAffect groupAffect = new EnhancerAffect();
+            try {
+                Enhancer.retransform(inst, resetClassFileTransformer, classes, groupAffect);
+                logger.info("Success to reset classes: " + classes);
+            } finally {
+                for (EnhancerAffect affect : affects) {
+                    for (EnhancerAffect.RetransformBatch batch : groupAffect.getRetransformBatches()) {
+                        affect.retransformBatch(batch);
+                    }
+                }
+                for (Class<?> resetClass : classes) {
+                    forget(resetClass);
+                }
+            }
+        }
+    };
+
+    /**
+     * 合并执行重新编织<br/>
+     * 在原始字节码上只重新编织类中仍然存活的通知,已释放的通知从方法中彻底移除,只被它们编织过的方法恢复原样;
+     * 不再有存活通知的类恢复原始字节码。无论释放了多少个通知,每个类都只需要一次retransform
+     */
+    private static final RetransformCoordinator.GroupRetransformer<EnhancerAffect> REWEAVE_RETRANSFORMER
+            = new RetransformCoordinator.GroupRetransformer<EnhancerAffect>() {
+        @Override
+        public void retransform(Instrumentation inst, List<EnhancerAffect> affects, final Set<Class<?>> classes)
+                throws UnmodifiableClassException {
+            final ClassFileTransformer reweaveClassFileTransformer = new ClassFileTransformer() {
+                @Override
+                public byte[] transform(
+                        ClassLoader loader,
+                        String className,
+                        Class<?> classBeingRedefined,
+                        ProtectionDomain protectionDomain,
+                        byte[] classfileBuffer) throws IllegalClassFormatException {
+                    if (!classes.contains(classBeingRedefined)) {
+                        return null;
+                    }
                     try {
-                        inst.retransformClasses(clazz);
-                        logger.info("Success to transform class: " + clazz);
-                    } catch (Throwable t) {
-                        logger.warn("retransform {} failed.", clazz, t);
-                        if (t instanceof UnmodifiableClassException) {
-                            throw (UnmodifiableClassException) t;
-                        } else if (t instanceof RuntimeException) {
-                            throw (RuntimeException) t;
-                        } else {
-                            throw new RuntimeException(t);
+                        final Set<Integer> adviceIds = new HashSet<Integer>();
+                        final byte[] bytes = rebuild(loader, classBeingRedefined, classfileBuffer,
+                                Collections.<Enhancer>emptySet(), adviceIds, null);
+                        if (!adviceIds.isEmpty()) {
+                            classBytesCache.put(classBeingRedefined, bytes, adviceIds);
+                            return bytes;
                         }
+                    } catch (Throwable t) {
+                        logger.warn("reweave loader[{}]:class[{}] failed, reset it.", loader, className, t);
+                    }
+
+                    // 没有存活的通知或者编织失败,恢复原始字节码
+                    forget(classBeingRedefined);
+                    return null;
+                }
+            };
+
+            final EnhancerAffect groupAffect = new EnhancerAffect();
+            try {
+                Enhancer.retransform(inst, reweaveClassFileTransformer, classes, groupAffect);
+                logger.info("Success to reweave classes: " + classes);
+            } finally {
+                for (EnhancerAffect affect : affects) {
+                    for (EnhancerAffect.RetransformBatch batch : groupAffect.getRetransformBatches()) {
+                        affect.retransformBatch(batch);
                     }
                 }
             }
-        } finally {
-            inst.removeTransformer(enhancer);
         }
+    };
 
-        return affect;
+    /**
+     * 清除类的增强记录,类恢复原始字节码时调用
+     */
+    private static void forget(Class<?> clazz) {
+        classBytesCache.remove(clazz);
+        WovenMethodRegistry.unregister(clazz);
+        synchronized (classAdviceIds) {
+            classAdviceIds.remove(clazz);
+        }
     }
 
 
@@ -336,42 +746,158 @@ public class Enhancer implements ClassFileTransformer {
      * @return 增强影响范围
      * @throws UnmodifiableClassException
      */
-    public static synchronized EnhancerAffect reset(
+    public static EnhancerAffect reset(
             final Instrumentation inst,
             final Matcher classNameMatcher) throws UnmodifiableClassException {
+        return reset(inst, classNameMatcher, true);
+    }
+
+    /**
+     * 重置指定的Class
+     *
+     * @param inst             inst
+     * @param classNameMatcher 类名匹配
+     * @param isForce          是否连同仍在运行的命令的通知一起移除;否则只移除已释放的通知,其他命令的通知重新编织后继续生效
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException
+     */
+    public static EnhancerAffect reset(
+            final Instrumentation inst,
+            final Matcher classNameMatcher,
+            final boolean isForce) throws UnmodifiableClassException {
 
         final EnhancerAffect affect = new EnhancerAffect();
         final Set<Class<?>> enhanceClassSet = new HashSet<Class<?>>();
 
-        for (Class<?> classInCache : classBytesCache.keySet()) {
-            if (classNameMatcher.matching(classInCache.getName())) {
-                enhanceClassSet.add(classInCache);
+        bindLazyClasses(inst);
+
+        synchronized (classAdviceIds) {
+            for (Class<?> enhancedClass : classAdviceIds.keySet()) {
+                if (classNameMatcher.matching(enhancedClass.getName())) {
+                    enhanceClassSet.add(enhancedClass);
+                }
             }
         }
 
-        final ClassFileTransformer resetClassFileTransformer = new ClassFileTransformer() {
-            @Override
-            public byte[] transform(
-                    ClassLoader loader,
-                    String className,
-                    Class<?> classBeingRedefined,
-                    ProtectionDomain protectionDomain,
-                    byte[] classfileBuffer) throws IllegalClassFormatException {
-                return null;
-            }
-        };
+        reset(inst, enhanceClassSet, affect, isForce);
+        return affect;
+    }
 
+    /**
+     * 重置类
+     *
+     * @param isForce 是否恢复原始字节码;否则只保留类中仍然存活的通知
+     */
+    private static void reset(Instrumentation inst, Set<Class<?>> enhanceClassSet, EnhancerAffect affect,
+                              boolean isForce) throws UnmodifiableClassException {
+        if (enhanceClassSet.isEmpty()) {
+            return;
+        }
         try {
-            enhance(inst, resetClassFileTransformer, enhanceClassSet);
-            logger.info("Success to reset classes: " + enhanceClassSet);
+            coordinator.retransform(inst, isForce ? RESET_RETRANSFORMER : REWEAVE_RETRANSFORMER,
+                    affect, enhanceClassSet);
         } finally {
-            for (Class<?> resetClass : enhanceClassSet) {
-                classBytesCache.remove(resetClass);
-                affect.cCnt(1);
+            affect.cCnt(enhanceClassSet.size());
+        }
+    }
+
+    /**
+     * 记录增强器的通知ID编织进了类
+     */
+    private static void retain(Class<?> clazz, Enhancer enhancer) {
+        synchronized (classAdviceIds) {
+            Set<Integer> adviceIds = classAdviceIds.get(clazz);
+            if (null == adviceIds) {
+                classAdviceIds.put(clazz, adviceIds = new HashSet<Integer>());
             }
+            adviceIds.add(enhancer.adviceId);
+            adviceEnhancers.put(enhancer.adviceId, enhancer);
         }
+    }
 
-        return affect;
+    /**
+     * 释放通知ID<br/>
+     * 通知监听器注销后调用,编织过该通知的类将在后台批量重新编织:只保留其他仍然存活的通知,
+     * 不再被任何通知ID引用的类恢复原始字节码。即使忘记执行reset,目标类也能恢复到增强前的性能
+     *
+     * @param inst     inst
+     * @param adviceId 通知ID
+     */
+    public static void release(final Instrumentation inst, int adviceId) {
+        // 先卸载常驻增强器,再关联它编织过的类,这些类随后和其他类一样被自动重新编织
+        if (null != inst) {
+            detachLazyEnhancer(inst, adviceId);
+            bindLazyClasses(inst);
+        }
+
+        final Set<Class<?>> releasedClasses = new HashSet<Class<?>>();
+        synchronized (classAdviceIds) {
+            adviceEnhancers.remove(adviceId);
+            for (Map.Entry<Class<?>, Set<Integer>> entry : classAdviceIds.entrySet()) {
+                if (entry.getValue().remove(adviceId)) {
+                    releasedClasses.add(entry.getKey());
+                }
+            }
+        }
+
+        // 槽位随即可以复用,残留在类中的旧通知ID与新的通知ID代数不同,不会互相干扰
+        AdviceIdPool.release(adviceId);
+
+        if (releasedClasses.isEmpty()
+                || !GlobalOptions.isAutoReset
+                || null == inst) {
+            return;
+        }
+
+        synchronized (pendingResetClasses) {
+            final boolean isScheduled = !pendingResetClasses.isEmpty();
+            pendingResetClasses.addAll(releasedClasses);
+            if (isScheduled) {
+                return;
+            }
+        }
+
+        // 攒批后一次性重新编织
+        ArthasScheduler.schedule("auto-reset", new Runnable() {
+            @Override
+            public void run() {
+                autoReset(inst);
+            }
+        }, AUTO_RESET_DELAY_MILLIS);
+    }
+
+    private static void autoReset(Instrumentation inst) {
+        bindLazyClasses(inst);
+
+        final Set<Class<?>> resetClassSet;
+        synchronized (pendingResetClasses) {
+            resetClassSet = new HashSet<Class<?>>(pendingResetClasses);
+            pendingResetClasses.clear();
+        }
+
+        // 攒批期间类可能已被重置,或者又被其他命令在原始字节码上重新编织过,其中已不含释放的通知
+        final Iterator<Class<?>> it = resetClassSet.iterator();
+        while (it.hasNext()) {
+            final Class<?> clazz = it.next();
+            final Set<Integer> cachedAdviceIds = classBytesCache.getAdviceIds(clazz);
+            synchronized (classAdviceIds) {
+                final Set<Integer> adviceIds = classAdviceIds.get(clazz);
+                if (null == adviceIds
+                        || (!adviceIds.isEmpty() && null != cachedAdviceIds && adviceIds.containsAll(cachedAdviceIds))) {
+                    it.remove();
+                }
+            }
+        }
+
+        if (resetClassSet.isEmpty()) {
+            return;
+        }
+
+        try {
+            reset(inst, resetClassSet, new EnhancerAffect(), false);
+        } catch (Throwable t) {
+            logger.warn("auto reset classes {} failed.", resetClassSet, t);
+        }
     }
 
     // 批量增强
@@ -379,14 +905,336 @@ public class Enhancer implements ClassFileTransformer {
             throws UnmodifiableClassException {
         try {
             inst.addTransformer(transformer, true);
-            int size = classes.size();
-            Class<?>[] classArray = new Class<?>[size];
-            arraycopy(classes.toArray(), 0, classArray, 0, size);
-            if (classArray.length > 0) {
-                inst.retransformClasses(classArray);
+            RetransformScheduler.retransform(inst, classes, new EnhancerAffect());
+        } finally {
+            inst.removeTransformer(transformer);
+        }
+    }
+
+    // 挂上transformer后增强,分批增强时每批的停顿记录在affect中
+    private static void retransform(Instrumentation inst, ClassFileTransformer transformer, Set<Class<?>> classes,
+                                    EnhancerAffect affect) throws UnmodifiableClassException {
+        try {
+            inst.addTransformer(transformer, true);
+
+            // 分批增强
+            if (GlobalOptions.isBatchReTransform) {
+                RetransformScheduler.retransform(inst, classes, affect);
+                logger.info("Success to batch transform classes: " + classes);
+            } else {
+                // for each 增强
+                for (Class<?> clazz : classes) {
+                    try {
+                        inst.retransformClasses(clazz);
+                        logger.info("Success to transform class: " + clazz);
+                    } catch (Throwable t) {
+                        logger.warn("retransform {} failed.", clazz, t);
+                        if (t instanceof UnmodifiableClassException) {
+                            throw (UnmodifiableClassException) t;
+                        } else if (t instanceof RuntimeException) {
+                            throw (RuntimeException) t;
+                        } else {
+                            throw new RuntimeException(t);
+                        }
+                    }
+                }
             }
         } finally {
             inst.removeTransformer(transformer);
         }
     }
+
+    /**
+     * 合并执行的增强器<br/>
+     * 一次retransform中每个类只被处理一次:依次编织所有匹配该类的增强器的通知,再整体更新类字节码缓存
+     */
+    private static class MergedEnhancer implements ClassFileTransformer {
+
+        private final List<Enhancer> enhancers;
+
+        MergedEnhancer(List<Enhancer> enhancers) {
+            // 按通知ID编织,与rebuild的叠加顺序一致
+            this.enhancers = new ArrayList<Enhancer>(enhancers);
+            Collections.sort(this.enhancers, new Comparator<Enhancer>() {
+                @Override
+                public int compare(Enhancer o1, Enhancer o2) {
+                    return o1.adviceId < o2.adviceId ? -1 : (o1.adviceId == o2.adviceId ? 0 : 1);
+                }
+            });
+        }
+
+        @Override
+        public byte[] transform(final ClassLoader inClassLoader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            // 这里要再次过滤一次，为啥？因为在transform的过程中，有可能还会再诞生新的类
+            // 所以需要将之前需要转换的类集合传递下来，再次进行判断
+            final List<Enhancer> matchingEnhancers = new ArrayList<Enhancer>(enhancers.size());
+            for (Enhancer enhancer : enhancers) {
+                if (enhancer.matchingClasses.contains(classBeingRedefined)) {
+                    matchingEnhancers.add(enhancer);
+                }
+            }
+            if (matchingEnhancers.isEmpty()) {
+                return null;
+            }
+
+            try {
+                final Set<Integer> wovenAdviceIds = new HashSet<Integer>();
+                final byte[] enhanceClassByteArray = weave(matchingEnhancers, inClassLoader,
+                        classBeingRedefined, classfileBuffer, wovenAdviceIds);
+
+                // 生成成功,推入缓存
+                classBytesCache.put(classBeingRedefined, enhanceClassByteArray, wovenAdviceIds);
+                for (Enhancer enhancer : matchingEnhancers) {
+                    retain(classBeingRedefined, enhancer);
+
+                    // 成功计数
+                    enhancer.affect.cCnt(1);
+                }
+
+                // dump the class
+                dumpClassIfNecessary(className, enhanceClassByteArray, matchingEnhancers.get(0).affect);
+
+                return enhanceClassByteArray;
+            } catch (Throwable t) {
+                logger.warn("transform loader[{}]:class[{}] failed.", inClassLoader, className, t);
+            }
+
+            return null;
+        }
+    }
+
+    private static void attachLazyEnhancer(Instrumentation inst, Enhancer enhancer, Matcher classNameMatcher) {
+        final LazyEnhancer lazyEnhancer = new LazyEnhancer(enhancer, classNameMatcher);
+        synchronized (classAdviceIds) {
+            adviceEnhancers.put(enhancer.adviceId, enhancer);
+        }
+        synchronized (lazyEnhancers) {
+            lazyEnhancers.put(enhancer.adviceId, lazyEnhancer);
+        }
+        inst.addTransformer(lazyEnhancer, true);
+    }
+
+    private static void detachLazyEnhancer(Instrumentation inst, int adviceId) {
+        final LazyEnhancer lazyEnhancer;
+        synchronized (lazyEnhancers) {
+            lazyEnhancer = lazyEnhancers.remove(adviceId);
+        }
+        if (null != lazyEnhancer) {
+            inst.removeTransformer(lazyEnhancer);
+            logger.info("detach lazy enhancer of advice {}, {} classes woven on definition.",
+                    adviceId, lazyEnhancer.wovenCount.get());
+        }
+    }
+
+    /**
+     * 把在类定义时编织的类关联到类对象上,登记编织进类的通知ID<br/>
+     * 尚未完成定义的类留待下次关联
+     */
+    private static void bindLazyClasses(Instrumentation inst) {
+        final List<LazyWoven> lazyClasses;
+        synchronized (pendingLazyClasses) {
+            if (pendingLazyClasses.isEmpty()) {
+                return;
+            }
+            lazyClasses = new ArrayList<LazyWoven>(pendingLazyClasses);
+        }
+
+        // 按类加载器查找已经定义好的类
+        final Map<ClassLoader, Map<String, Class<?>>> loaderClasses = new IdentityHashMap<ClassLoader, Map<String, Class<?>>>();
+        final List<LazyWoven> resolved = new ArrayList<LazyWoven>();
+        for (LazyWoven lazyClass : lazyClasses) {
+            final ClassLoader loader = lazyClass.loader.get();
+            if (null == loader) {
+                resolved.add(lazyClass);
+                continue;
+            }
+            Map<String, Class<?>> classes = loaderClasses.get(loader);
+            if (null == classes) {
+                classes = new HashMap<String, Class<?>>();
+                for (Class<?> clazz : inst.getInitiatedClasses(loader)) {
+                    if (clazz.getClassLoader() == loader) {
+                        classes.put(clazz.getName(), clazz);
+                    }
+                }
+                loaderClasses.put(loader, classes);
+            }
+            final Class<?> clazz = classes.get(lazyClass.className);
+            if (null == clazz) {
+                continue;
+            }
+            resolved.add(lazyClass);
+
+            synchronized (classAdviceIds) {
+                // 通知ID已经释放时只登记类,以便reset能恢复它
+                if (adviceEnhancers.get(lazyClass.enhancer.adviceId) == lazyClass.enhancer) {
+                    retain(clazz, lazyClass.enhancer);
+                } else if (!classAdviceIds.containsKey(clazz)) {
+                    classAdviceIds.put(clazz, new HashSet<Integer>());
+                }
+            }
+        }
+
+        synchronized (pendingLazyClasses) {
+            pendingLazyClasses.removeAll(resolved);
+        }
+    }
+
+    /**
+     * 常驻的增强器<br/>
+     * 在新定义的匹配类上直接编织,比事后retransform代价小得多。只处理类的初次定义,不参与其他增强器发起的retransform,
+     * 所以retransform时JVM给出的仍然是未编织的原始字节码,reset及在其上继续编织都不受影响
+     */
+    private static class LazyEnhancer implements ClassFileTransformer {
+
+        private final Enhancer enhancer;
+        private final Matcher classNameMatcher;
+        private final AtomicInteger wovenCount = new AtomicInteger();
+
+        LazyEnhancer(Enhancer enhancer, Matcher classNameMatcher) {
+            this.enhancer = enhancer;
+            this.classNameMatcher = classNameMatcher;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            if (null != classBeingRedefined
+                    || null == className
+                    || (null == loader && !GlobalOptions.isUnsafe)
+                    || isEquals(loader, Enhancer.class.getClassLoader())
+                    || AdviceOutliner.isCompanion(className)) {
+                return null;
+            }
+
+            try {
+                final ClassReader cr = new ClassReader(classfileBuffer);
+                if ((cr.getAccess() & (Opcodes.ACC_INTERFACE | Opcodes.ACC_ENUM | Opcodes.ACC_ANNOTATION)) != 0
+                        || !isMatching(loader, className, classfileBuffer)) {
+                    return null;
+                }
+
+                final EnhancerAffect wovenAffect = new EnhancerAffect();
+                final byte[] bytes = enhancer.weaveOn(loader, null, classfileBuffer, wovenAffect, null);
+                if (wovenAffect.mCnt() == 0) {
+                    return null;
+                }
+
+                dumpClassIfNecessary(className, bytes, wovenAffect);
+                spy(loader);
+                synchronized (pendingLazyClasses) {
+                    pendingLazyClasses.add(new LazyWoven(loader, className.replace('/', '.'), enhancer));
+                }
+                wovenCount.incrementAndGet();
+                return bytes;
+            } catch (Throwable t) {
+                logger.warn("lazy transform loader[{}]:class[{}] failed.", loader, className, t);
+                return null;
+            }
+        }
+
+        /**
+         * 类名匹配,或者(未关闭子类匹配时)某个父类/接口的类名匹配
+         */
+        private boolean isMatching(ClassLoader loader, String className, byte[] classfileBuffer) {
+            if (classNameMatcher.matching(className.replace('/', '.'))) {
+                return true;
+            }
+            if (GlobalOptions.isDisableSubClass) {
+                return false;
+            }
+            TypeHierarchyResolver.define(loader, classfileBuffer);
+            for (String superType : TypeHierarchyResolver.getSuperTypes(loader, className)) {
+                if (classNameMatcher.matching(superType.replace('/', '.'))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 在类定义时编织的类
+     */
+    private static class LazyWoven {
+        private final WeakReference<ClassLoader> loader;
+        private final String className;
+        private final Enhancer enhancer;
+
+        LazyWoven(ClassLoader loader, String className, Enhancer enhancer) {
+            this.loader = new WeakReference<ClassLoader>(loader);
+            this.className = className;
+            this.enhancer = enhancer;
+        }
+    }
+
+    /**
+     * 获取类字节码缓存
+     *
+     * @return 类字节码缓存
+     */
+    public static ClassBytesCache getClassBytesCache() {
+        return classBytesCache;
+    }
+
+    /**
+     * 预先编织好的字节码
+     */
+    private static class Woven {
+
+        // 编织所用的类文件字节码及其校验和、指纹,为null表示在缓存的字节码上编织
+        private final byte[] sourceBytes;
+        private final long sourceChecksum;
+        private final byte[] fingerprint;
+        private final byte[] bytes;
+        private final Set<Integer> adviceIds;
+        private final EnhancerAffect affect;
+
+        // 编织结果被采用时才定义伴生类
+        private final List<AdviceOutliner> outliners;
+
+        // 编织时类字节码缓存的版本
+        private final long cacheVersion;
+
+        Woven(long cacheVersion, byte[] sourceBytes, byte[] bytes, Set<Integer> adviceIds, EnhancerAffect affect,
+              List<AdviceOutliner> outliners) {
+            this.cacheVersion = cacheVersion;
+            this.sourceBytes = sourceBytes;
+            this.sourceChecksum = null == sourceBytes ? 0 : ClassFingerprint.checksum(sourceBytes);
+            this.fingerprint = null == sourceBytes ? null : ClassFingerprint.of(sourceBytes);
+            this.bytes = bytes;
+            this.adviceIds = adviceIds;
+            this.affect = affect;
+            this.outliners = outliners;
+        }
+
+        /**
+         * 定义编织时用到的伴生类
+         *
+         * @return 定义失败时返回false,应放弃预编织的结果
+         */
+        boolean defineCompanions() {
+            try {
+                for (AdviceOutliner outliner : outliners) {
+                    outliner.define();
+                }
+                return true;
+            } catch (Throwable t) {
+                logger.debug("define precomputed advice companion failed, weave in transform instead.", t);
+                return false;
+            }
+        }
+
+        /**
+         * 编织的原料是否就是JVM给出的字节码<br/>
+         * 字节完全相同,或者JVM重新生成的字节码与类文件是同一个类;
+         * 后者确认过一次之后只需比较校验和,retransform期间不必再解析字节码
+         */
+        boolean isWovenFrom(Class<?> clazz, byte[] classfileBuffer) {
+            return null == sourceBytes
+                    || Arrays.equals(sourceBytes, classfileBuffer)
+                    || ClassFingerprint.isSameClass(clazz, sourceChecksum, fingerprint, classfileBuffer);
+        }
+    }
+
 }
@@ -2,7 +2,8 @@ package com.taobao.arthas.core.advisor;
 
 /**
  * 方法调用跟踪<br/>
- * 当一个方法内部调用另外一个方法时，会出发此跟踪方法
+ * 当一个方法内部调用另外一个方法时，会出发此跟踪方法。
+ * 被调用的方法以编织时分配的调用点编号传递,通过{@link CallSiteRegistry#get(int)}获取类名、方法名
  * Created by vlinux on 15/5/27.
  */
 public interface InvokeTraceable {
@@ -10,42 +11,27 @@ public interface InvokeTraceable {
     /**
      * 调用之前跟踪
      *
-     * @param tracingClassName  调用类名
-     * @param tracingMethodName 调用方法名
-     * @param tracingMethodDesc 调用方法描述
+     * @param callSiteId 调用点编号
      * @throws Throwable 通知过程出错
      */
-    void invokeBeforeTracing(
-            String tracingClassName,
-            String tracingMethodName,
-            String tracingMethodDesc) throws Throwable;
+    void invokeBeforeTracing(int callSiteId) throws Throwable;
 
     /**
      * 抛异常后跟踪
      *
-     * @param tracingClassName  调用类名
-     * @param tracingMethodName 调用方法名
-     * @param tracingMethodDesc 调用方法描述
+     * @param callSiteId 调用点编号
      * @throws Throwable 通知过程出错
      */
-    void invokeThrowTracing(
-            String tracingClassName,
-            String tracingMethodName,
-            String tracingMethodDesc) throws Throwable;
+    void invokeThrowTracing(int callSiteId) throws Throwable;
 
 
     /**
      * 调用之后跟踪
      *
-     * @param tracingClassName  调用类名
-     * @param tracingMethodName 调用方法名
-     * @param tracingMethodDesc 调用方法描述
+     * @param callSiteId 调用点编号
      * @throws Throwable 通知过程出错
      */
-    void invokeAfterTracing(
-            String tracingClassName,
-            String tracingMethodName,
-            String tracingMethodDesc) throws Throwable;
+    void invokeAfterTracing(int callSiteId) throws Throwable;
 
 
 }
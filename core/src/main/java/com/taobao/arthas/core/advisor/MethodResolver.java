@@ -0,0 +1,201 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.ArthasCheckUtils;
+import com.taobao.arthas.core.util.StringUtils;
+import org.objectweb.asm.Type;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法解析<br/>
+ * 将ASM中的类名/方法名/方法描述转换为对应的Class/ArthasMethod<br/>
+ * 解析结果按类加载器分组缓存:类加载器及解析结果都以弱引用持有。
+ * 解析结果引用着所在的类,进而引用类加载器,所以不能强引用或软引用,
+ * 否则缓存会一直阻止应用类加载器被卸载;被回收后再次使用时重新解析
+ */
+public class MethodResolver {
+
+    // 类加载器分组,数量很少,写时复制,读取时线性查找
+    private static volatile LoaderCache[] loaderCaches = new LoaderCache[0];
+
+    /**
+     * 解析方法,解析结果会被缓存
+     *
+     * @param loader     类加载器
+     * @param className  类名
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     * @return 方法,可通过{@link ArthasMethod#getDeclaringClass()}获取所在的类
+     */
+    public static ArthasMethod resolve(ClassLoader loader, String className, String methodName, String methodDesc)
+            throws ClassNotFoundException, NoSuchMethodException {
+        final LoaderCache cache = loaderCache(toClassLoader(loader));
+        final MethodKey key = new MethodKey(className, methodName, methodDesc);
+        final WeakReference<ArthasMethod> ref = cache.methods.get(key);
+        ArthasMethod method = null == ref ? null : ref.get();
+        if (null == method) {
+            method = toMethod(loader, toClass(loader, className), methodName, methodDesc);
+            cache.methods.put(key, new WeakReference<ArthasMethod>(method));
+        }
+        return method;
+    }
+
+    private static LoaderCache loaderCache(ClassLoader loader) {
+        for (LoaderCache cache : loaderCaches) {
+            if (cache.get() == loader) {
+                return cache;
+            }
+        }
+        synchronized (MethodResolver.class) {
+            // 同时清理已经被回收的类加载器
+            final List<LoaderCache> caches = new ArrayList<LoaderCache>();
+            for (LoaderCache cache : loaderCaches) {
+                final ClassLoader cachedLoader = cache.get();
+                if (cachedLoader == loader) {
+                    return cache;
+                }
+                if (null != cachedLoader) {
+                    caches.add(cache);
+                }
+            }
+            final LoaderCache cache = new LoaderCache(loader);
+            caches.add(cache);
+            loaderCaches = caches.toArray(new LoaderCache[caches.size()]);
+            return cache;
+        }
+    }
+
+    private static ClassLoader toClassLoader(ClassLoader loader) {
+        return null != loader
+                ? loader
+                : AdviceListener.class.getClassLoader();
+    }
+
+    private static Class<?> toClass(ClassLoader loader, String className) throws ClassNotFoundException {
+        return Class.forName(StringUtils.normalizeClassName(className), true, toClassLoader(loader));
+    }
+
+    private static ArthasMethod toMethod(ClassLoader loader, Class<?> clazz, String methodName, String methodDesc)
+            throws ClassNotFoundException, NoSuchMethodException {
+        final org.objectweb.asm.Type asmType = org.objectweb.asm.Type.getMethodType(methodDesc);
+
+        // to arg types
+        final Class<?>[] argsClasses = new Class<?>[asmType.getArgumentTypes().length];
+		for (int index = 0; index < argsClasses.length; index++) {
+			// asm class descriptor to jvm class
+			final Class<?> argumentClass;
+			final Type argumentAsmType = asmType.getArgumentTypes()[index];
+			switch (argumentAsmType.getSort()) {
+			case Type.BOOLEAN: {
+				argumentClass = boolean.class;
+				break;
+			}
+			case Type.CHAR: {
+				argumentClass = char.class;
+				break;
+			}
+			case Type.BYTE: {
+				argumentClass = byte.class;
+				break;
+			}
+			case Type.SHORT: {
+				argumentClass = short.class;
+				break;
+			}
+			case Type.INT: {
+				argumentClass = int.class;
+				break;
+			}
+			case Type.FLOAT: {
+				argumentClass = float.class;
+				break;
+			}
+			case Type.LONG: {
+				argumentClass = long.class;
+				break;
+			}
+			case Type.DOUBLE: {
+				argumentClass = double.class;
+				break;
+			}
+			case Type.ARRAY: {
+				argumentClass = toClass(loader, argumentAsmType.getInternalName());
+				break;
+			}
+			case Type.VOID: {
+				argumentClass = void.class;
+				break;
+			}
+			case Type.OBJECT:
+			case Type.METHOD:
+			default: {
+				argumentClass = toClass(loader, argumentAsmType.getClassName());
+				break;
+			}
+			}
+
+			argsClasses[index] = argumentClass;
+		}
+
+        // to method or constructor
+        if (ArthasCheckUtils.isEquals(methodName, "<init>")) {
+            return ArthasMethod.newInit(toConstructor(clazz, argsClasses));
+        } else {
+            return ArthasMethod.newMethod(toMethod(clazz, methodName, argsClasses));
+        }
+    }
+
+    private static Method toMethod(Class<?> clazz, String methodName, Class<?>[] argClasses) throws NoSuchMethodException {
+        return clazz.getDeclaredMethod(methodName, argClasses);
+    }
+
+    private static Constructor<?> toConstructor(Class<?> clazz, Class<?>[] argClasses) throws NoSuchMethodException {
+        return clazz.getDeclaredConstructor(argClasses);
+    }
+
+    /**
+     * 类加载器的解析缓存
+     */
+    private static class LoaderCache extends WeakReference<ClassLoader> {
+        private final ConcurrentHashMap<MethodKey, WeakReference<ArthasMethod>> methods
+                = new ConcurrentHashMap<MethodKey, WeakReference<ArthasMethod>>();
+
+        LoaderCache(ClassLoader loader) {
+            super(loader);
+        }
+    }
+
+    private static class MethodKey {
+        private final String className;
+        private final String methodName;
+        private final String methodDesc;
+
+        MethodKey(String className, String methodName, String methodDesc) {
+            this.className = className;
+            this.methodName = methodName;
+            this.methodDesc = methodDesc;
+        }
+
+        @Override
+        public int hashCode() {
+            return (className.hashCode() * 31 + methodName.hashCode()) * 31 + methodDesc.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MethodKey)) {
+                return false;
+            }
+            final MethodKey that = (MethodKey) obj;
+            return className.equals(that.className)
+                    && methodName.equals(that.methodName)
+                    && methodDesc.equals(that.methodDesc);
+        }
+    }
+
+}
@@ -3,18 +3,15 @@ package com.taobao.arthas.core.advisor;
 import com.taobao.arthas.core.command.express.ExpressException;
 import com.taobao.arthas.core.command.express.ExpressFactory;
 import com.taobao.arthas.core.shell.command.CommandProcess;
-import com.taobao.arthas.core.util.ArthasCheckUtils;
 import com.taobao.arthas.core.util.Constants;
 import com.taobao.arthas.core.util.StringUtils;
-import org.objectweb.asm.Type;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
+import static com.taobao.arthas.core.advisor.MethodResolver.resolve;
 
 /**
  * 反射通知适配器<br/>
  * 通过反射拿到对应的Class/Method类，而不是原始的ClassName/MethodName
- * 当然性能开销要比普通监听器高许多
+ * 解析结果由{@link MethodResolver}缓存，每个方法只需要通过反射解析一次
  */
 public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
 
@@ -28,119 +25,52 @@ public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
         // default no-op
     }
 
-    private ClassLoader toClassLoader(ClassLoader loader) {
-        return null != loader
-                ? loader
-                : AdviceListener.class.getClassLoader();
-    }
-
-    private Class<?> toClass(ClassLoader loader, String className) throws ClassNotFoundException {
-        return Class.forName(StringUtils.normalizeClassName(className), true, toClassLoader(loader));
-    }
-
-    private ArthasMethod toMethod(ClassLoader loader, Class<?> clazz, String methodName, String methodDesc)
-            throws ClassNotFoundException, NoSuchMethodException {
-        final org.objectweb.asm.Type asmType = org.objectweb.asm.Type.getMethodType(methodDesc);
-
-        // to arg types
-        final Class<?>[] argsClasses = new Class<?>[asmType.getArgumentTypes().length];
-		for (int index = 0; index < argsClasses.length; index++) {
-			// asm class descriptor to jvm class
-			final Class<?> argumentClass;
-			final Type argumentAsmType = asmType.getArgumentTypes()[index];
-			switch (argumentAsmType.getSort()) {
-			case Type.BOOLEAN: {
-				argumentClass = boolean.class;
-				break;
-			}
-			case Type.CHAR: {
-				argumentClass = char.class;
-				break;
-			}
-			case Type.BYTE: {
-				argumentClass = byte.class;
-				break;
-			}
-			case Type.SHORT: {
-				argumentClass = short.class;
-				break;
-			}
-			case Type.INT: {
-				argumentClass = int.class;
-				break;
-			}
-			case Type.FLOAT: {
-				argumentClass = float.class;
-				break;
-			}
-			case Type.LONG: {
-				argumentClass = long.class;
-				break;
-			}
-			case Type.DOUBLE: {
-				argumentClass = double.class;
-				break;
-			}
-			case Type.ARRAY: {
-				argumentClass = toClass(loader, argumentAsmType.getInternalName());
-				break;
-			}
-			case Type.VOID: {
-				argumentClass = void.class;
-				break;
-			}
-			case Type.OBJECT:
-			case Type.METHOD:
-			default: {
-				argumentClass = toClass(loader, argumentAsmType.getClassName());
-				break;
-			}
-			}
-
-			argsClasses[index] = argumentClass;
-		}
-
-        // to method or constructor
-        if (ArthasCheckUtils.isEquals(methodName, "<init>")) {
-            return ArthasMethod.newInit(toConstructor(clazz, argsClasses));
-        } else {
-            return ArthasMethod.newMethod(toMethod(clazz, methodName, argsClasses));
-        }
-    }
-
-    private Method toMethod(Class<?> clazz, String methodName, Class<?>[] argClasses) throws NoSuchMethodException {
-        return clazz.getDeclaredMethod(methodName, argClasses);
-    }
-
-    private Constructor<?> toConstructor(Class<?> clazz, Class<?>[] argClasses) throws NoSuchMethodException {
-        return clazz.getDeclaredConstructor(argClasses);
+    @Override
+    public int capability() {
+        return AdviceCapability.ALL;
     }
 
-
     @Override
     final public void before(
             ClassLoader loader, String className, String methodName, String methodDesc,
             Object target, Object[] args) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        before(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args);
+        final ArthasMethod method = resolve(loader, className, methodName, methodDesc);
+        before(loader, method.getDeclaringClass(), method, target, args);
     }
 
     @Override
     final public void afterReturning(
             ClassLoader loader, String className, String methodName, String methodDesc,
             Object target, Object[] args, Object returnObject) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        afterReturning(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args, returnObject);
+        final ArthasMethod method = resolve(loader, className, methodName, methodDesc);
+        afterReturning(loader, method.getDeclaringClass(), method, target, args, returnObject);
     }
 
     @Override
     final public void afterThrowing(
             ClassLoader loader, String className, String methodName, String methodDesc,
             Object target, Object[] args, Throwable throwable) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        afterThrowing(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args, throwable);
+        final ArthasMethod method = resolve(loader, className, methodName, methodDesc);
+        afterThrowing(loader, method.getDeclaringClass(), method, target, args, throwable);
+    }
+
+    /*
+     * 被编织的方法在编织时已经确定了类及类加载器,方法也只需要解析一次
+     */
+
+    final void before(WovenMethod method, Object target, Object[] args) throws Throwable {
+        before(method.getLoader(), method.getClazz(), method.getMethod(), target, args);
+    }
+
+    final void afterReturning(WovenMethod method, Object target, Object[] args, Object returnObject)
+            throws Throwable {
+        afterReturning(method.getLoader(), method.getClazz(), method.getMethod(), target, args, returnObject);
     }
 
+    final void afterThrowing(WovenMethod method, Object target, Object[] args, Throwable throwable)
+            throws Throwable {
+        afterThrowing(method.getLoader(), method.getClazz(), method.getMethod(), target, args, throwable);
+    }
 
     /**
      * 前置通知
@@ -0,0 +1,159 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * retransform协调器<br/>
+ * 多个会话可以同时增强类:涉及的类互不重叠的任务并行执行;与正在执行的任务重叠的任务等待,
+ * 等待期间到达的同类任务被合并,由最先能够执行的线程对所有类的并集做一次retransform,其他线程只需等待结果。
+ * 这样同一个类同一时刻只会被一次retransform处理,类字节码缓存按类的更新也就不会交错
+ */
+final class RetransformCoordinator {
+
+    /**
+     * 合并后任务的执行方式,执行方式相同的任务才会被合并
+     *
+     * @param <T> 任务
+     */
+    interface GroupRetransformer<T> {
+
+        /**
+         * 执行合并后的任务
+         *
+         * @param inst    inst
+         * @param tasks   合并的任务,按到达顺序排列
+         * @param classes 所有任务涉及的类的并集
+         * @throws UnmodifiableClassException retransform失败
+         */
+        void retransform(Instrumentation inst, List<T> tasks, Set<Class<?>> classes)
+                throws UnmodifiableClassException;
+
+    }
+
+    // 正在被retransform的类
+    private final Set<Class<?>> inFlightClasses = new HashSet<Class<?>>();
+
+    // 等待执行的任务
+    private final List<Pending> pendings = new ArrayList<Pending>();
+
+    /**
+     * 提交任务并等待其完成
+     *
+     * @param inst          inst
+     * @param retransformer 执行方式
+     * @param task          任务
+     * @param classes       任务涉及的类
+     * @throws UnmodifiableClassException 任务所在的合并任务retransform失败
+     */
+    <T> void retransform(Instrumentation inst, GroupRetransformer<T> retransformer, T task,
+                         Set<Class<?>> classes) throws UnmodifiableClassException {
+        final Pending pending = new Pending(retransformer, task, classes);
+        final List<Pending> group = new ArrayList<Pending>();
+        final Set<Class<?>> groupClasses = new HashSet<Class<?>>();
+
+        synchronized (this) {
+            pendings.add(pending);
+            boolean isInterrupted = false;
+            while (!pending.isDone && isOverlapping(classes, inFlightClasses)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // 任务可能已经被其他线程合并执行,不能中途放弃
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (pending.isDone) {
+                rethrow(pending.failure);
+                return;
+            }
+
+            // 带上所有同类且与正在执行的任务不重叠的等待任务
+            final Iterator<Pending> it = pendings.iterator();
+            while (it.hasNext()) {
+                final Pending other = it.next();
+                if (other.retransformer == retransformer
+                        && !isOverlapping(other.classes, inFlightClasses)) {
+                    group.add(other);
+                    groupClasses.addAll(other.classes);
+                    it.remove();
+                }
+            }
+            inFlightClasses.addAll(groupClasses);
+        }
+
+        Throwable failure = null;
+        try {
+            @SuppressWarnings("unchecked")
+            final GroupRetransformer<Object> groupRetransformer = (GroupRetransformer<Object>) retransformer;
+            final List<Object> tasks = new ArrayList<Object>(group.size());
+            for (Pending member : group) {
+                tasks.add(member.task);
+            }
+            groupRetransformer.retransform(inst, tasks, groupClasses);
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            synchronized (this) {
+                inFlightClasses.removeAll(groupClasses);
+                for (Pending member : group) {
+                    member.failure = failure;
+                    member.isDone = true;
+                }
+                notifyAll();
+            }
+        }
+        rethrow(failure);
+    }
+
+    private static boolean isOverlapping(Collection<Class<?>> classes, Set<Class<?>> inFlightClasses) {
+        if (inFlightClasses.isEmpty()) {
+            return false;
+        }
+        for (Class<?> clazz : classes) {
+            if (inFlightClasses.contains(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void rethrow(Throwable failure) throws UnmodifiableClassException {
+        if (null == failure) {
+            return;
+        }
+        if (failure instanceof UnmodifiableClassException) {
+            throw (UnmodifiableClassException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private static class Pending {
+        private final GroupRetransformer<?> retransformer;
+        private final Object task;
+        private final Set<Class<?>> classes;
+        private boolean isDone;
+        private Throwable failure;
+
+        Pending(GroupRetransformer<?> retransformer, Object task, Set<Class<?>> classes) {
+            this.retransformer = retransformer;
+            this.task = task;
+            this.classes = classes;
+        }
+    }
+
+}
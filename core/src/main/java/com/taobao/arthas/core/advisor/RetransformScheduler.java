@@ -0,0 +1,165 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.affect.EnhancerAffect;
+import com.taobao.arthas.core.util.affect.EnhancerAffect.RetransformBatch;
+import com.taobao.middleware.logger.Logger;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分批retransform调度器<br/>
+ * 一次retransform全部的类会带来一次很长的停顿,逐个retransform又会带来大量的停顿。
+ * 这里把类分成若干批依次retransform,根据上一批每个类的平均耗时调整下一批的大小,
+ * 使每批的停顿尽量不超过{@link GlobalOptions#retransformPauseBudget},两批之间休眠
+ * {@link GlobalOptions#retransformInterval}让应用恢复。每批的耗时、期间的GC及安全点耗时记录在{@link EnhancerAffect}中
+ */
+final class RetransformScheduler {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    // 第一批的类个数
+    private static final int INITIAL_BATCH_SIZE = 8;
+
+    private static final List<GarbageCollectorMXBean> gcMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    // HotSpot的安全点统计,其他JVM或者无权访问时为null
+    private static final Object hotspotRuntimeMBean;
+    private static final Method getTotalSafepointTime;
+
+    static {
+        Object runtimeMBean = null;
+        Method method = null;
+        try {
+            runtimeMBean = Class.forName("sun.management.ManagementFactoryHelper")
+                    .getMethod("getHotspotRuntimeMBean")
+                    .invoke(null);
+            method = Class.forName("sun.management.HotspotRuntimeMBean")
+                    .getMethod("getTotalSafepointTime");
+            method.invoke(runtimeMBean);
+        } catch (Throwable t) {
+            logger.debug("safepoint statistics is unavailable.", t);
+            runtimeMBean = null;
+            method = null;
+        }
+        hotspotRuntimeMBean = runtimeMBean;
+        getTotalSafepointTime = method;
+    }
+
+    private RetransformScheduler() {
+    }
+
+    /**
+     * 分批retransform
+     *
+     * @param inst    inst
+     * @param classes 需要retransform的类
+     * @param affect  影响统计,记录每批的停顿
+     * @throws UnmodifiableClassException 某一批retransform失败,之前的批次已经生效
+     */
+    static void retransform(Instrumentation inst, Collection<Class<?>> classes, EnhancerAffect affect)
+            throws UnmodifiableClassException {
+        final Class<?>[] classArray = classes.toArray(new Class<?>[classes.size()]);
+        if (classArray.length == 0) {
+            return;
+        }
+
+        final long budgetNanos = TimeUnit.MILLISECONDS.toNanos(GlobalOptions.retransformPauseBudget);
+        int batchSize = budgetNanos > 0
+                ? INITIAL_BATCH_SIZE
+                : classArray.length;
+        boolean isSleepable = true;
+
+        int from = 0;
+        while (from < classArray.length) {
+            final int size = Math.min(batchSize, classArray.length - from);
+            final Class<?>[] batch = new Class<?>[size];
+            System.arraycopy(classArray, from, batch, 0, size);
+            from += size;
+
+            final long pauseNanos = retransform(inst, batch, affect);
+            if (from >= classArray.length) {
+                break;
+            }
+
+            // 按本批每个类的平均耗时估算下一批的大小,每次最多翻倍,避免个别轻量的批次导致下一批过大
+            final long nanosPerClass = Math.max(1, pauseNanos / size);
+            batchSize = (int) Math.max(1, Math.min(budgetNanos / nanosPerClass, batchSize * 2L));
+
+            // 被中断时不再休眠,但仍然完成剩余的批次,保证所有类的状态一致
+            if (isSleepable && GlobalOptions.retransformInterval > 0) {
+                try {
+                    Thread.sleep(GlobalOptions.retransformInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isSleepable = false;
+                }
+            }
+        }
+    }
+
+    private static long retransform(Instrumentation inst, Class<?>[] batch, EnhancerAffect affect)
+            throws UnmodifiableClassException {
+        final long gcMillisBefore = gcMillis();
+        final long safepointMillisBefore = safepointMillis();
+        final long startNanos = System.nanoTime();
+        long pauseNanos = 0;
+        try {
+            inst.retransformClasses(batch);
+        } finally {
+            pauseNanos = System.nanoTime() - startNanos;
+            final long gcMillisAfter = gcMillis();
+            final long safepointMillisAfter = safepointMillis();
+            final RetransformBatch retransformBatch = new RetransformBatch(batch.length, pauseNanos,
+                    gcMillisBefore < 0 || gcMillisAfter < 0 ? -1 : gcMillisAfter - gcMillisBefore,
+                    safepointMillisBefore < 0 || safepointMillisAfter < 0 ? -1 : safepointMillisAfter - safepointMillisBefore);
+            affect.retransformBatch(retransformBatch);
+            logger.info("retransform batch of {} classes paused {} ms, gc {} ms, safepoint {} ms.",
+                    batch.length, retransformBatch.getPauseMillis(),
+                    retransformBatch.getGcMillis(), retransformBatch.getSafepointMillis());
+        }
+        return pauseNanos;
+    }
+
+    /**
+     * GC的累计耗时
+     *
+     * @return 毫秒, -1表示无法获取
+     */
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gcMXBean : gcMXBeans) {
+            final long collectionTime = gcMXBean.getCollectionTime();
+            if (collectionTime < 0) {
+                return -1;
+            }
+            total += collectionTime;
+        }
+        return total;
+    }
+
+    /**
+     * 安全点的累计耗时,retransform本身就在安全点中执行
+     *
+     * @return 毫秒, -1表示无法获取
+     */
+    private static long safepointMillis() {
+        if (null == getTotalSafepointTime) {
+            return -1;
+        }
+        try {
+            return (Long) getTotalSafepointTime.invoke(hotspotRuntimeMBean);
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.taobao.arthas.core.advisor;
+
+import java.arthas.Spy.AbstractSpy;
+
+/**
+ * 间谍钩子实现<br/>
+ * 由AgentBootstrap实例化后设置到Spy中，被编织的代码通过Spy的静态方法直接调用到这里，
+ * 再转交给AdviceWeaver处理
+ */
+public class SpyImpl extends AbstractSpy {
+
+    @Override
+    public void onBefore(int adviceId, int methodId, Object target, Object[] args) {
+        AdviceWeaver.methodOnBegin(adviceId, methodId, target, args);
+    }
+
+    @Override
+    public void onReturn(Object returnObject) {
+        AdviceWeaver.methodOnReturnEnd(returnObject);
+    }
+
+    @Override
+    public void onThrows(Throwable throwable) {
+        AdviceWeaver.methodOnThrowingEnd(throwable);
+    }
+
+    @Override
+    public void beforeInvoking(int adviceId, int callSiteId) {
+        AdviceWeaver.methodOnInvokeBeforeTracing(adviceId, callSiteId);
+    }
+
+    @Override
+    public void afterInvoking(int adviceId, int callSiteId) {
+        AdviceWeaver.methodOnInvokeAfterTracing(adviceId, callSiteId);
+    }
+
+    @Override
+    public void throwInvoking(int adviceId, int callSiteId) {
+        AdviceWeaver.methodOnInvokeThrowTracing(adviceId, callSiteId);
+    }
+
+}
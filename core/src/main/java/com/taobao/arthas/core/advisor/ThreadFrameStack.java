@@ -0,0 +1,157 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.LogUtil;
+
+import java.util.Arrays;
+
+import static java.lang.System.arraycopy;
+
+/**
+ * 线程帧栈<br/>
+ * 每个线程独享一个，所有执行帧连续存放在同一个Object[]中，帧的开始时间戳存放在long[]中，
+ * 通过帧下标访问帧内的数据。方法开始/结束的压栈、弹栈都不会产生新的对象
+ */
+final class ThreadFrameStack {
+
+    // 执行帧内各项数据的偏移
+    private static final int METHOD = 0;
+    private static final int TARGET = 1;
+    private static final int ARGS = 2;
+    private static final int LISTENER = 3;
+    private static final int METER = 4;
+
+    // 执行帧大小
+    private static final int FRAME_SIZE = 5;
+
+    // 默认栈深
+    private static final int DEFAULT_STACK_DEEP = 12;
+
+    // 扩容后连续这么多次最外层调用都没有超出默认栈深,才缩回默认大小
+    private static final int SHRINK_AFTER_IDLE_CALLS = 1024;
+
+    private Object[] frames = new Object[DEFAULT_STACK_DEEP * FRAME_SIZE];
+    private long[] timestamps = new long[DEFAULT_STACK_DEEP];
+    private int depth = 0;
+
+    // 本次最外层调用的最大栈深
+    private int peakDepth = 0;
+
+    // 扩容后没有用到超出默认栈深部分的最外层调用次数
+    private int idleCalls = 0;
+
+    /**
+     * 防止自己递归调用
+     */
+    boolean isSelfCall = false;
+
+    /**
+     * 自动扩容(2倍扩容)
+     */
+    private void ensureCapacity() {
+        if (depth < timestamps.length) {
+            return;
+        }
+        final int newDeep = timestamps.length * 2;
+        LogUtil.getArthasLogger().debug("resize ThreadFrameStack to deep: " + newDeep + " for thread: "
+                + Thread.currentThread().getName());
+        final Object[] newFrames = new Object[newDeep * FRAME_SIZE];
+        arraycopy(frames, 0, newFrames, 0, frames.length);
+        final long[] newTimestamps = new long[newDeep];
+        arraycopy(timestamps, 0, newTimestamps, 0, timestamps.length);
+        frames = newFrames;
+        timestamps = newTimestamps;
+    }
+
+    /**
+     * 执行帧压栈
+     */
+    void push(WovenMethod method, Object target, Object[] args, AdviceListener listener, AdviceMeter meter) {
+        ensureCapacity();
+        final int base = depth * FRAME_SIZE;
+        frames[base + METHOD] = method;
+        frames[base + TARGET] = target;
+        frames[base + ARGS] = args;
+        frames[base + LISTENER] = listener;
+        frames[base + METER] = meter;
+        timestamps[depth] = System.nanoTime();
+        depth++;
+        if (depth > peakDepth) {
+            peakDepth = depth;
+        }
+    }
+
+    /**
+     * 执行帧弹栈<br/>
+     * 帧中的数据在调用{@link #clear(int)}之前依然有效
+     *
+     * @return 被弹出的帧下标, 栈为空时返回-1
+     * (类在方法执行过程中被增强,此时只会有结束通知)
+     */
+    int pop() {
+        if (depth == 0) {
+            return -1;
+        }
+        return --depth;
+    }
+
+    /**
+     * 清理执行帧,避免持有目标对象的引用<br/>
+     * 扩容后的空间会被后续调用复用,只有长时间用不到时才缩回默认大小
+     */
+    void clear(int frame) {
+        final int base = frame * FRAME_SIZE;
+        Arrays.fill(frames, base, base + FRAME_SIZE, null);
+        if (depth == 0) {
+            if (timestamps.length > DEFAULT_STACK_DEEP) {
+                idleCalls = peakDepth > DEFAULT_STACK_DEEP ? 0 : idleCalls + 1;
+                if (idleCalls >= SHRINK_AFTER_IDLE_CALLS) {
+                    shrink();
+                }
+            }
+            peakDepth = 0;
+        }
+    }
+
+    private void shrink() {
+        frames = new Object[DEFAULT_STACK_DEEP * FRAME_SIZE];
+        timestamps = new long[DEFAULT_STACK_DEEP];
+        idleCalls = 0;
+        LogUtil.getArthasLogger().debug(
+                "resize ThreadFrameStack to default deep for thread: " + Thread.currentThread().getName());
+    }
+
+    /**
+     * 当前可容纳的栈深
+     */
+    int capacity() {
+        return timestamps.length;
+    }
+
+    WovenMethod method(int frame) {
+        return (WovenMethod) frames[frame * FRAME_SIZE + METHOD];
+    }
+
+    Object target(int frame) {
+        return frames[frame * FRAME_SIZE + TARGET];
+    }
+
+    Object[] args(int frame) {
+        return (Object[]) frames[frame * FRAME_SIZE + ARGS];
+    }
+
+    AdviceListener listener(int frame) {
+        return (AdviceListener) frames[frame * FRAME_SIZE + LISTENER];
+    }
+
+    AdviceMeter meter(int frame) {
+        return (AdviceMeter) frames[frame * FRAME_SIZE + METER];
+    }
+
+    /**
+     * 执行帧的开始时间戳(纳秒)
+     */
+    long timestamp(int frame) {
+        return timestamps[frame];
+    }
+
+}
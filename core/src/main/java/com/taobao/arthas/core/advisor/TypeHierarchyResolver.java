@@ -0,0 +1,279 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类型层次解析<br/>
+ * 为{@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)}计算两个类型的公共父类。
+ * 类型的父类及接口优先从类文件资源的头部读取,找不到类文件时才通过不初始化的{@link Class#forName(String, boolean, ClassLoader)}获取,
+ * 避免在transform过程中触发类的加载和初始化。解析结果按类加载器分组缓存,类加载器以弱引用持有,在多次transform之间共享
+ */
+final class TypeHierarchyResolver {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    // 类加载器分组,数量很少,写时复制,读取时线性查找
+    private static volatile LoaderCache[] loaderCaches = new LoaderCache[0];
+
+    // BootstrapClassLoader的解析缓存
+    private static final LoaderCache bootstrapCache = new LoaderCache(null);
+
+    private TypeHierarchyResolver() {
+    }
+
+    /**
+     * 计算两个类型的公共父类
+     *
+     * @param loader 类加载器
+     * @param type1  类型1的内部名
+     * @param type2  类型2的内部名
+     * @return 公共父类的内部名
+     */
+    static String getCommonSuperClass(ClassLoader loader, String type1, String type2) {
+        // 数组类型交给反射处理
+        if (type1.startsWith("[") || type2.startsWith("[")) {
+            return getCommonSuperClassByReflection(loader, type1, type2);
+        }
+
+        final LoaderCache cache = loaderCache(loader);
+        final String key = type1 + ";" + type2;
+        String commonSuperClass = cache.commonSuperClasses.get(key);
+        if (null == commonSuperClass) {
+            commonSuperClass = resolveCommonSuperClass(cache, loader, type1, type2);
+            cache.commonSuperClasses.put(key, commonSuperClass);
+        }
+        return commonSuperClass;
+    }
+
+    /**
+     * 登记正在定义的类型<br/>
+     * 类定义时编织,类型本身尚不能通过Class获取,且可能没有类文件(如动态生成的类),直接使用正在定义的字节码
+     *
+     * @param loader     类加载器
+     * @param classBytes 正在定义的类的字节码
+     */
+    static void define(ClassLoader loader, byte[] classBytes) {
+        final ClassReader cr = new ClassReader(classBytes);
+        loaderCache(loader).types.putIfAbsent(cr.getClassName(),
+                new TypeInfo(cr.getAccess(), cr.getSuperName(), cr.getInterfaces()));
+    }
+
+    /**
+     * 获取类型的所有父类及接口
+     *
+     * @param loader 类加载器
+     * @param type   类型的内部名
+     * @return 所有父类及接口的内部名,不包括类型本身
+     */
+    static Set<String> getSuperTypes(ClassLoader loader, String type) {
+        final Set<String> superTypes = superTypes(loaderCache(loader), loader, type);
+        superTypes.remove(type);
+        return superTypes;
+    }
+
+    /**
+     * 通过反射计算两个类型的公共父类,会触发类的加载
+     */
+    static String getCommonSuperClassByReflection(ClassLoader loader, String type1, String type2) {
+        Class<?> c, d;
+        try {
+            c = Class.forName(type1.replace('/', '.'), false, loader);
+            d = Class.forName(type2.replace('/', '.'), false, loader);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (c.isAssignableFrom(d)) {
+            return type1;
+        }
+        if (d.isAssignableFrom(c)) {
+            return type2;
+        }
+        if (c.isInterface() || d.isInterface()) {
+            return OBJECT;
+        } else {
+            do {
+                c = c.getSuperclass();
+            } while (!c.isAssignableFrom(d));
+            return c.getName().replace('.', '/');
+        }
+    }
+
+    private static String resolveCommonSuperClass(LoaderCache cache, ClassLoader loader, String type1, String type2) {
+        if (isAssignableFrom(cache, loader, type1, type2)) {
+            return type1;
+        }
+        if (isAssignableFrom(cache, loader, type2, type1)) {
+            return type2;
+        }
+        if (typeInfo(cache, loader, type1).isInterface()
+                || typeInfo(cache, loader, type2).isInterface()) {
+            return OBJECT;
+        }
+        String type = type1;
+        do {
+            type = typeInfo(cache, loader, type).superName;
+        } while (null != type && !isAssignableFrom(cache, loader, type, type2));
+        return null == type ? OBJECT : type;
+    }
+
+    /**
+     * type是否为subType本身或其父类/接口
+     */
+    private static boolean isAssignableFrom(LoaderCache cache, ClassLoader loader, String type, String subType) {
+        return type.equals(subType)
+                || OBJECT.equals(type)
+                || superTypes(cache, loader, subType).contains(type);
+    }
+
+    /**
+     * 类型本身及其所有父类/接口
+     */
+    private static Set<String> superTypes(LoaderCache cache, ClassLoader loader, String type) {
+        final Set<String> visited = new HashSet<String>();
+        final List<String> pending = new ArrayList<String>();
+        pending.add(type);
+        while (!pending.isEmpty()) {
+            final String current = pending.remove(pending.size() - 1);
+            if (!visited.add(current)) {
+                continue;
+            }
+            final TypeInfo info = typeInfo(cache, loader, current);
+            if (null != info.superName) {
+                pending.add(info.superName);
+            }
+            for (String itf : info.interfaces) {
+                pending.add(itf);
+            }
+        }
+        return visited;
+    }
+
+    private static TypeInfo typeInfo(LoaderCache cache, ClassLoader loader, String type) {
+        TypeInfo info = cache.types.get(type);
+        if (null == info) {
+            info = readTypeInfo(loader, type);
+            cache.types.put(type, info);
+        }
+        return info;
+    }
+
+    private static TypeInfo readTypeInfo(ClassLoader loader, String type) {
+        // 优先读取类文件头部
+        try {
+            final byte[] classBytes = readClassFile(loader, type);
+            if (null != classBytes) {
+                final ClassReader cr = new ClassReader(classBytes);
+                return new TypeInfo(cr.getAccess(), cr.getSuperName(), cr.getInterfaces());
+            }
+        } catch (Throwable t) {
+            // 类文件不可读时回退到Class
+        }
+
+        // 动态生成的类没有类文件,但一定已经被加载过
+        final Class<?> clazz;
+        try {
+            clazz = Class.forName(type.replace('/', '.'), false, loader);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        final Class<?>[] interfaceClasses = clazz.getInterfaces();
+        final String[] interfaces = new String[interfaceClasses.length];
+        for (int index = 0; index < interfaces.length; index++) {
+            interfaces[index] = interfaceClasses[index].getName().replace('.', '/');
+        }
+        return new TypeInfo(
+                clazz.isInterface() ? Opcodes.ACC_INTERFACE : 0,
+                null == clazz.getSuperclass() ? null : clazz.getSuperclass().getName().replace('.', '/'),
+                interfaces);
+    }
+
+    private static byte[] readClassFile(ClassLoader loader, String type) throws IOException {
+        final String resource = type + ".class";
+        final InputStream is = null == loader
+                ? ClassLoader.getSystemResourceAsStream(resource)
+                : loader.getResourceAsStream(resource);
+        if (null == is) {
+            return null;
+        }
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static LoaderCache loaderCache(ClassLoader loader) {
+        if (null == loader) {
+            return bootstrapCache;
+        }
+        for (LoaderCache cache : loaderCaches) {
+            if (cache.get() == loader) {
+                return cache;
+            }
+        }
+        synchronized (TypeHierarchyResolver.class) {
+            // 同时清理已经被回收的类加载器
+            final List<LoaderCache> caches = new ArrayList<LoaderCache>();
+            for (LoaderCache cache : loaderCaches) {
+                final ClassLoader cachedLoader = cache.get();
+                if (cachedLoader == loader) {
+                    return cache;
+                }
+                if (null != cachedLoader) {
+                    caches.add(cache);
+                }
+            }
+            final LoaderCache cache = new LoaderCache(loader);
+            caches.add(cache);
+            loaderCaches = caches.toArray(new LoaderCache[caches.size()]);
+            return cache;
+        }
+    }
+
+    /**
+     * 类加载器的解析缓存
+     */
+    private static class LoaderCache extends WeakReference<ClassLoader> {
+
+        // 类型 -> 类型信息
+        private final ConcurrentHashMap<String, TypeInfo> types = new ConcurrentHashMap<String, TypeInfo>();
+
+        // 类型1;类型2 -> 公共父类
+        private final ConcurrentHashMap<String, String> commonSuperClasses = new ConcurrentHashMap<String, String>();
+
+        LoaderCache(ClassLoader loader) {
+            super(loader);
+        }
+    }
+
+    /**
+     * 类型信息,只保留类型名,不持有Class
+     */
+    private static class TypeInfo {
+        private final int access;
+        private final String superName;
+        private final String[] interfaces;
+
+        TypeInfo(int access, String superName, String[] interfaces) {
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = null == interfaces ? new String[0] : interfaces;
+        }
+
+        boolean isInterface() {
+            return (access & Opcodes.ACC_INTERFACE) != 0;
+        }
+    }
+
+}
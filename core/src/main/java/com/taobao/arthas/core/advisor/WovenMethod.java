@@ -0,0 +1,127 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * 被编织的方法<br/>
+ * 编织时为每个方法分配一个固定的编号,被编织的代码只需要传递这个编号,
+ * 类加载器、类及方法都在这里解析一次后复用。
+ * 类加载器、类及方法都以弱引用持有,不会阻止类被卸载
+ */
+public class WovenMethod {
+
+    private final int id;
+    // 启动类加载器为null
+    private final WeakReference<ClassLoader> loader;
+    private final String className;
+    private final String methodName;
+    private final String methodDesc;
+    // 在类定义时编织的方法,类对象在第一次使用时才解析
+    private volatile WeakReference<Class<?>> clazz;
+
+    private volatile WeakReference<ArthasMethod> method;
+
+    // 类(类定义时编织则为类加载器)被回收后进入注册表的回收队列
+    final Owner owner;
+
+    /**
+     * @param id         方法编号
+     * @param loader     类加载器
+     * @param clazz      类, 在类定义时编织则为null
+     * @param className  类名
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     */
+    WovenMethod(int id, ClassLoader loader, Class<?> clazz,
+                String className, String methodName, String methodDesc) {
+        this(id, loader, clazz, className, methodName, methodDesc, null);
+    }
+
+    WovenMethod(int id, ClassLoader loader, Class<?> clazz,
+                String className, String methodName, String methodDesc, ReferenceQueue<Object> queue) {
+        this.id = id;
+        this.loader = null == loader ? null : new WeakReference<ClassLoader>(loader);
+        this.clazz = null == clazz ? null : new WeakReference<Class<?>>(clazz);
+        this.className = className;
+        this.methodName = methodName;
+        this.methodDesc = methodDesc;
+        final Object referent = null != clazz ? clazz : loader;
+        this.owner = null == referent ? null : new Owner(referent, queue, id);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ClassLoader getLoader() {
+        return null == loader ? null : loader.get();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getMethodDesc() {
+        return methodDesc;
+    }
+
+    public Class<?> getClazz() {
+        final WeakReference<Class<?>> ref = clazz;
+        Class<?> c = null == ref ? null : ref.get();
+        if (null == c) {
+            try {
+                c = getMethod().getDeclaringClass();
+                clazz = new WeakReference<Class<?>>(c);
+            } catch (Throwable t) {
+                // 解析失败时下次再试
+            }
+        }
+        return c;
+    }
+
+    /**
+     * 获取方法,通过反射解析后缓存,被回收后重新解析
+     */
+    public ArthasMethod getMethod() throws ClassNotFoundException, NoSuchMethodException {
+        final WeakReference<ArthasMethod> ref = method;
+        ArthasMethod m = null == ref ? null : ref.get();
+        if (null == m) {
+            if (null != loader && null == loader.get()) {
+                throw new ClassNotFoundException(className + " was unloaded.");
+            }
+            m = MethodResolver.resolve(getLoader(), className, methodName, methodDesc);
+            method = new WeakReference<ArthasMethod>(m);
+        }
+        return m;
+    }
+
+    /**
+     * 类或类加载器是否已经被回收
+     */
+    boolean isCollected() {
+        return null != owner && null == owner.get();
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + methodName + methodDesc;
+    }
+
+    /**
+     * 方法所属的类(或类加载器),被回收后据此释放方法编号
+     */
+    static class Owner extends WeakReference<Object> {
+        final int id;
+
+        Owner(Object referent, ReferenceQueue<Object> queue, int id) {
+            super(referent, queue);
+            this.id = id;
+        }
+    }
+
+}
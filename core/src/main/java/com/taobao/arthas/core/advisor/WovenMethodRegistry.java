@@ -0,0 +1,170 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.lang.System.arraycopy;
+
+/**
+ * 被编织方法的注册表<br/>
+ * 编织时分配方法编号,同一个类的同一个方法重复编织时编号保持不变;
+ * 运行时通过编号直接下标访问,不需要任何查找<br/>
+ * 类只以弱引用持有,类被重置或被回收后清空对应的槽位,编号回收后重新分配
+ */
+public class WovenMethodRegistry {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // 编号 -> 方法,只在注册时加锁扩容,读取时直接下标访问
+    private static volatile WovenMethod[] methods = new WovenMethod[DEFAULT_CAPACITY];
+
+    // 类 -> (方法名+方法描述 -> 方法),用于保证编号稳定
+    private static final Map<Class<?>, Map<String, WovenMethod>> classMethods
+            = new WeakHashMap<Class<?>, Map<String, WovenMethod>>();
+
+    // 类定义时编织的方法,此时类对象尚未生成,注销时按类加载器和类名匹配
+    private static final List<WovenMethod> unboundMethods = new ArrayList<WovenMethod>();
+
+    // 类(或类加载器)被回收后,对应方法的编号从这里取出
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+    // 可重新分配的编号
+    private static int[] freeIds = new int[16];
+    private static int freeCount = 0;
+
+    private static int nextId = 0;
+
+    /**
+     * 注册被编织的方法
+     *
+     * @param loader     类加载器
+     * @param clazz      类, 在类定义时编织则为null
+     * @param className  类名
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     * @return 方法编号
+     */
+    public static synchronized int register(ClassLoader loader, Class<?> clazz,
+                                            String className, String methodName, String methodDesc) {
+        expunge();
+
+        if (null == clazz) {
+            final WovenMethod method = add(loader, null, className, methodName, methodDesc);
+            unboundMethods.add(method);
+            return method.getId();
+        }
+
+        Map<String, WovenMethod> methodMap = classMethods.get(clazz);
+        if (null == methodMap) {
+            classMethods.put(clazz, methodMap = new HashMap<String, WovenMethod>());
+        }
+
+        final String methodKey = methodName + methodDesc;
+        final WovenMethod exist = methodMap.get(methodKey);
+        if (null != exist) {
+            return exist.getId();
+        }
+
+        final WovenMethod method = add(loader, clazz, className, methodName, methodDesc);
+        methodMap.put(methodKey, method);
+        return method.getId();
+    }
+
+    private static WovenMethod add(ClassLoader loader, Class<?> clazz,
+                                   String className, String methodName, String methodDesc) {
+        final int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        final WovenMethod method = new WovenMethod(id, loader, clazz, className, methodName, methodDesc, collected);
+        WovenMethod[] current = methods;
+        if (id >= current.length) {
+            final WovenMethod[] newMethods = new WovenMethod[current.length * 2];
+            arraycopy(current, 0, newMethods, 0, current.length);
+            current = newMethods;
+        }
+        current[id] = method;
+        methods = current;
+        return method;
+    }
+
+    /**
+     * 获取被编织的方法
+     *
+     * @param id 方法编号
+     * @return 方法, 已注销时返回null
+     */
+    public static WovenMethod get(int id) {
+        final WovenMethod[] current = methods;
+        return id >= 0 && id < current.length
+                ? current[id]
+                : null;
+    }
+
+    /**
+     * 注销类的所有方法<br/>
+     * 类被重置后调用,释放对类及类加载器的引用。
+     * 已经在执行中的方法在压栈时已经取得了方法,编号随即重新分配也不受影响
+     *
+     * @param clazz 类
+     */
+    public static synchronized void unregister(Class<?> clazz) {
+        final Map<String, WovenMethod> methodMap = classMethods.remove(clazz);
+        if (null != methodMap) {
+            for (WovenMethod method : methodMap.values()) {
+                release(method);
+            }
+        }
+
+        final Iterator<WovenMethod> it = unboundMethods.iterator();
+        while (it.hasNext()) {
+            final WovenMethod method = it.next();
+            if (method.getLoader() == clazz.getClassLoader()
+                    && method.getClassName().replace('/', '.').equals(clazz.getName())) {
+                release(method);
+                it.remove();
+            }
+        }
+        expunge();
+    }
+
+    /**
+     * 清理类(或类加载器)已经被回收的方法
+     */
+    private static void expunge() {
+        boolean isCollected = false;
+        WovenMethod.Owner owner;
+        while (null != (owner = (WovenMethod.Owner) collected.poll())) {
+            final WovenMethod method = get(owner.id);
+            // 编号可能已经通过unregister释放并重新分配
+            if (null != method && method.owner == owner) {
+                release(method);
+                isCollected = true;
+            }
+        }
+        if (isCollected) {
+            final Iterator<WovenMethod> it = unboundMethods.iterator();
+            while (it.hasNext()) {
+                if (it.next().isCollected()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static void release(WovenMethod method) {
+        final int id = method.getId();
+        if (methods[id] != method) {
+            return;
+        }
+        methods[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+}
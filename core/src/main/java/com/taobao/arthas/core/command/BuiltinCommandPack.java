@@ -15,6 +15,7 @@ import com.taobao.arthas.core.command.basic1000.VersionCommand;
 import com.taobao.arthas.core.command.hidden.JulyCommand;
 import com.taobao.arthas.core.command.hidden.OptionsCommand;
 import com.taobao.arthas.core.command.hidden.ThanksCommand;
+import com.taobao.arthas.core.command.klass100.ByteCacheCommand;
 import com.taobao.arthas.core.command.klass100.ClassLoaderCommand;
 import com.taobao.arthas.core.command.klass100.DumpClassCommand;
 import com.taobao.arthas.core.command.klass100.GetStaticCommand;
@@ -82,6 +83,7 @@ public class BuiltinCommandPack implements CommandResolver {
         commands.add(Command.create(RedefineCommand.class));
         commands.add(Command.create(DashboardCommand.class));
         commands.add(Command.create(DumpClassCommand.class));
+        commands.add(Command.create(ByteCacheCommand.class));
         commands.add(Command.create(JulyCommand.class));
         commands.add(Command.create(ThanksCommand.class));
         commands.add(Command.create(OptionsCommand.class));
@@ -26,10 +26,12 @@ import java.lang.instrument.UnmodifiableClassException;
 @Description(Constants.EXAMPLE +
         "  reset\n" +
         "  reset *List\n" +
-        "  reset -E .*List\n")
+        "  reset -E .*List\n" +
+        "  reset -f *List\n")
 public class ResetCommand extends AnnotatedCommand {
     private String classPattern;
     private boolean isRegEx = false;
+    private boolean isForce = false;
 
     @Argument(index = 0, argName = "class-pattern", required = false)
     @Description("Path and classname of Pattern Matching")
@@ -43,13 +45,19 @@ public class ResetCommand extends AnnotatedCommand {
         isRegEx = regEx;
     }
 
+    @Option(shortName = "f", longName = "force", flag = true)
+    @Description("Also remove the advices of running commands (only the advices of finished commands are removed by default)")
+    public void setForce(boolean force) {
+        isForce = force;
+    }
+
     @Override
     public void process(CommandProcess process) {
         Instrumentation inst = process.session().getInstrumentation();
         Matcher matcher = SearchUtils.classNameMatcher(classPattern, isRegEx);
         EnhancerAffect enhancerAffect = null;
         try {
-            enhancerAffect = Enhancer.reset(inst, matcher);
+            enhancerAffect = Enhancer.reset(inst, matcher, isForce);
             process.write(enhancerAffect.toString()).write("\n");
         } catch (UnmodifiableClassException e) {
             // ignore
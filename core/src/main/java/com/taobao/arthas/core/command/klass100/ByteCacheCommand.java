@@ -0,0 +1,58 @@
+package com.taobao.arthas.core.command.klass100;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.advisor.ClassBytesCache;
+import com.taobao.arthas.core.advisor.Enhancer;
+import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.shell.command.AnnotatedCommand;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.affect.RowAffect;
+import com.taobao.middleware.cli.annotations.Description;
+import com.taobao.middleware.cli.annotations.Name;
+import com.taobao.middleware.cli.annotations.Summary;
+import com.taobao.text.Decoration;
+import com.taobao.text.ui.TableElement;
+import com.taobao.text.util.RenderUtil;
+
+import static com.taobao.text.ui.Element.label;
+
+/**
+ * 展示被增强类的字节码缓存统计
+ */
+@Name("bytecache")
+@Summary("Display the statistics of the enhanced class bytes cache")
+@Description(Constants.EXAMPLE +
+        "  bytecache\n" +
+        "  options class-bytes-cache-budget 32\n")
+public class ByteCacheCommand extends AnnotatedCommand {
+
+    @Override
+    public void process(CommandProcess process) {
+        final RowAffect affect = new RowAffect();
+        final ClassBytesCache cache = Enhancer.getClassBytesCache();
+
+        final int entries = cache.size();
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+        final long rawBytes = cache.getRawBytes();
+        final long compressedBytes = cache.getCompressedBytes();
+
+        final TableElement table = new TableElement(1, 2).leftCellPadding(1).rightCellPadding(1);
+        table.row(true, label("CLASS-BYTES-CACHE").style(Decoration.bold.bold()));
+        table.row("ENTRIES", "" + entries)
+                .row("RAW-BYTES", "" + rawBytes)
+                .row("COMPRESSED-BYTES", "" + compressedBytes)
+                .row("COMPRESSION-RATIO", rawBytes == 0 ? "-" : String.format("%.2f", compressedBytes * 1.0 / rawBytes))
+                .row("BUDGET-MB", GlobalOptions.classBytesCacheBudget <= 0 ? "unlimited" : "" + GlobalOptions.classBytesCacheBudget)
+                .row("HITS", "" + hits)
+                .row("MISSES", "" + misses)
+                .row("HIT-RATIO", hits + misses == 0 ? "-" : String.format("%.2f", hits * 1.0 / (hits + misses)))
+                .row("EVICTIONS", "" + cache.getEvictions());
+
+        process.write(RenderUtil.render(table, process.width()));
+        affect.rCnt(entries);
+        process.write(affect + "\n");
+        process.end();
+    }
+
+}
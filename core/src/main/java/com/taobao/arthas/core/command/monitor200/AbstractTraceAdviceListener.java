@@ -1,26 +1,48 @@
 package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.AdviceCapability;
 import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
 import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author ralf0131 2017-01-06 16:02.
  */
 public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
 
     protected final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
+
+    // 被跟踪的方法 -> 调用点编号
+    private final ConcurrentHashMap<ArthasMethod, Integer> methodKeys = new ConcurrentHashMap<ArthasMethod, Integer>();
     protected TraceCommand command;
     protected CommandProcess process;
 
+    // 所有线程的实体,跟踪结束时逐一释放,其他线程的ThreadLocalMap不再持有调用树
+    private final List<TraceEntity> entities = new ArrayList<TraceEntity>();
+    private volatile boolean isDestroyed;
+
     protected final ThreadLocal<TraceEntity> threadBoundEntity = new ThreadLocal<TraceEntity>() {
 
         @Override
         protected TraceEntity initialValue() {
-            return new TraceEntity();
+            final TraceEntity entity = new TraceEntity();
+            synchronized (entities) {
+                if (isDestroyed) {
+                    entity.release();
+                } else {
+                    entities.add(entity);
+                }
+            }
+            return entity;
         }
     };
 
@@ -34,14 +56,42 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
 
     @Override
     public void destroy() {
+        synchronized (entities) {
+            isDestroyed = true;
+            for (TraceEntity entity : entities) {
+                entity.release();
+            }
+            entities.clear();
+        }
         threadBoundEntity.remove();
     }
 
+    /**
+     * 没有条件表达式时，只需要异常对象来输出异常节点
+     */
+    @Override
+    public int capability() {
+        return StringUtils.isEmpty(command.getConditionExpress())
+                ? AdviceCapability.NEED_THROWABLE
+                : AdviceCapability.ALL;
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
-        threadBoundEntity.get().view.begin(clazz.getName() + ":" + method.getName() + "()");
-        threadBoundEntity.get().deep++;
+        if (isDestroyed) {
+            return;
+        }
+        Integer key = methodKeys.get(method);
+        if (null == key) {
+            key = CallSiteRegistry.register(clazz.getName(), method.getName(), "");
+            methodKeys.put(method, key);
+        }
+        final TraceEntity entity = threadBoundEntity.get();
+        if (entity.deep++ == 0) {
+            entity.timestamp = System.currentTimeMillis();
+        }
+        entity.recorder.begin(key);
         // 开始计算本次方法调用耗时
         threadLocalWatch.start();
     }
@@ -49,7 +99,10 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     @Override
     public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                                Object returnObject) throws Throwable {
-        threadBoundEntity.get().view.end();
+        if (isDestroyed) {
+            return;
+        }
+        threadBoundEntity.get().recorder.end();
         final Advice advice = Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
         finishing(advice);
     }
@@ -57,7 +110,12 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     @Override
     public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                               Throwable throwable) throws Throwable {
-        threadBoundEntity.get().view.begin("throw:" + throwable.getClass().getName() + "()").end().end();
+        if (isDestroyed) {
+            return;
+        }
+        final CallTreeRecorder recorder = threadBoundEntity.get().recorder;
+        recorder.thrown(throwable.getClass());
+        recorder.end();
         final Advice advice = Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable);
         finishing(advice);
     }
@@ -69,7 +127,8 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     private void finishing(Advice advice) {
         // 本次调用的耗时
         double cost = threadLocalWatch.costInMillis();
-        if (--threadBoundEntity.get().deep == 0) {
+        final TraceEntity entity = threadBoundEntity.get();
+        if (--entity.deep == 0) {
             try {
                 if (isConditionMet(command.getConditionExpress(), advice, cost)) {
                     // 满足输出条件
@@ -79,7 +138,7 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
                     } else {
                         process.times().incrementAndGet();
                         // TODO: concurrency issues for process.write
-                        process.write(threadBoundEntity.get().view.draw() + "\n");
+                        process.write(entity.getView().draw() + "\n");
                     }
                 }
             } catch (Throwable e) {
@@ -88,7 +147,7 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
                               + ", visit " + LogUtil.LOGGER_FILE + " for more details.\n");
                 process.end();
             } finally {
-                threadBoundEntity.remove();
+                entity.reset();
             }
         }
     }
@@ -0,0 +1,173 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.AdviceCapability;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import com.taobao.arthas.core.advisor.InvokeTraceable;
+import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.ArthasScheduler;
+import com.taobao.arthas.core.util.DateUtils;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聚合输出的trace<br/>
+ * 所有调用合并为一棵调用树,每个统计周期输出一次,
+ * 节点上是这个周期内的调用次数、平均/最小/最大/总耗时以及自身耗时;
+ * 也可以输出为折叠栈,重定向到文件后直接用于生成火焰图
+ *
+ * @see TraceAggregator
+ */
+public class AggregateTraceAdviceListener extends ReflectAdviceListenerAdapter {
+
+    private final TraceAggregator aggregator = new TraceAggregator();
+
+    // 被跟踪的方法 -> 调用点编号
+    private final ConcurrentHashMap<ArthasMethod, Integer> methodKeys = new ConcurrentHashMap<ArthasMethod, Integer>();
+
+    private final TraceCommand command;
+    private final CommandProcess process;
+
+    // 输出定时任务
+    private ArthasScheduler.ScheduledTask timer;
+
+    public AggregateTraceAdviceListener(TraceCommand command, CommandProcess process) {
+        this.command = command;
+        this.process = process;
+    }
+
+    @Override
+    public synchronized void create() {
+        if (null == timer) {
+            final long intervalMillis = command.getAggregateInterval() * 1000L;
+            timer = ArthasScheduler.scheduleAtFixedRate("trace-aggregate-" + process.session().getSessionId(),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            output();
+                        }
+                    }, intervalMillis, intervalMillis);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+        aggregator.destroy();
+    }
+
+    /**
+     * 没有条件表达式时，不需要任何现场数据
+     */
+    @Override
+    public int capability() {
+        return StringUtils.isEmpty(command.getConditionExpress())
+                ? AdviceCapability.TIMING_ONLY
+                : AdviceCapability.ALL;
+    }
+
+    @Override
+    public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
+            throws Throwable {
+        Integer key = methodKeys.get(method);
+        if (null == key) {
+            key = CallSiteRegistry.register(clazz.getName(), method.getName(), "");
+            methodKeys.put(method, key);
+        }
+        aggregator.recorder().enter(key);
+    }
+
+    @Override
+    public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
+                               Object returnObject) throws Throwable {
+        finishing(false, loader, clazz, method, target, args, returnObject, null);
+    }
+
+    @Override
+    public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
+                              Throwable throwable) throws Throwable {
+        finishing(true, loader, clazz, method, target, args, null, throwable);
+    }
+
+    public void invokeBeforeTracing(int callSiteId) throws Throwable {
+        aggregator.recorder().enter(callSiteId);
+    }
+
+    public void invokeAfterTracing(int callSiteId) throws Throwable {
+        aggregator.recorder().exit(false);
+    }
+
+    public void invokeThrowTracing(int callSiteId) throws Throwable {
+        aggregator.recorder().exit(true);
+    }
+
+    private void finishing(boolean isThrowing, ClassLoader loader, Class<?> clazz, ArthasMethod method,
+                           Object target, Object[] args, Object returnObject, Throwable throwable) {
+        final TraceAggregator.Recorder recorder = aggregator.recorder();
+        final long cost = recorder.exit(isThrowing);
+        if (!recorder.isIdle() || cost < 0) {
+            return;
+        }
+
+        // 最外层调用结束,满足条件时才计入
+        final String conditionExpress = command.getConditionExpress();
+        if (StringUtils.isEmpty(conditionExpress)) {
+            recorder.commit();
+            return;
+        }
+        try {
+            final Advice advice = isThrowing
+                    ? Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable)
+                    : Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
+            if (isConditionMet(conditionExpress, advice, cost / 1000000.0)) {
+                recorder.commit();
+            } else {
+                recorder.discard();
+            }
+        } catch (Throwable e) {
+            recorder.discard();
+            LogUtil.getArthasLogger().warn("trace failed.", e);
+            process.write("trace failed, condition is: " + conditionExpress + ", " + e.getMessage()
+                          + ", visit " + LogUtil.LOGGER_FILE + " for more details.\n");
+            process.end();
+        }
+    }
+
+    private void output() {
+        final TraceAggregator.Node merged = aggregator.drain();
+        if (merged.isEmpty()) {
+            return;
+        }
+        // 超过次数上限，则不在输出，命令终止
+        if (isLimitExceeded(command.getNumberOfLimit(), process.times().getAndIncrement())) {
+            destroy();
+            abortProcess(process, command.getNumberOfLimit());
+            return;
+        }
+        if (command.isFolded()) {
+            process.write(TraceAggregator.fold(merged));
+            return;
+        }
+        final String title = "ts=" + DateUtils.getCurrentDate() + ";interval=" + command.getAggregateInterval() + "s";
+        process.write(TraceAggregator.draw(title, merged) + "\n");
+    }
+
+    /**
+     * 同时跟踪方法内部的调用
+     */
+    static class Invoking extends AggregateTraceAdviceListener implements InvokeTraceable {
+
+        Invoking(TraceCommand command, CommandProcess process) {
+            super(command, process);
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.CallSite;
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import com.taobao.arthas.core.view.TreeView;
+
+import java.util.Arrays;
+
+/**
+ * 一次调用的调用树记录器<br/>
+ * 节点以并列的基本类型数组保存,父节点下相同调用点的调用合并为一个节点,
+ * 以(父节点, 调用点编号)在开放寻址表中查找,记录过程中不分配对象也不拼接字符串。
+ * 每个线程一个,一次调用输出后{@link #reset()}复用;只在输出时才生成{@link TreeView}。
+ * 跟踪结束时由{@link #release()}释放,不必等到各线程的ThreadLocalMap清理
+ *
+ * @see AbstractTraceAdviceListener
+ */
+public class CallTreeRecorder {
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // 复用时最多保留的节点容量,偶尔的大调用树不长期占用内存
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    // 节点
+    private int[] parents;
+    private int[] keys;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+    private int[] slots;
+    private long[] begins;
+    private long[] totals;
+    private long[] mins;
+    private long[] maxs;
+    private int[] counts;
+    private int[] marks;
+    private int size;
+    private int current;
+
+    // (父节点, 调用点编号) -> 节点+1, 0表示空槽
+    private int[] table;
+
+    // 抛出的异常类型,异常节点的编号为-(下标+1)
+    private Class<?>[] thrownTypes = new Class<?>[4];
+    private int thrownTypeCount;
+
+    // 已释放,之后的记录全部忽略
+    private volatile boolean isReleased;
+
+    public CallTreeRecorder() {
+        allocate(DEFAULT_CAPACITY);
+        reset();
+    }
+
+    private void allocate(int capacity) {
+        parents = new int[capacity];
+        keys = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        slots = new int[capacity];
+        begins = new long[capacity];
+        totals = new long[capacity];
+        mins = new long[capacity];
+        maxs = new long[capacity];
+        counts = new int[capacity];
+        marks = new int[capacity];
+        table = new int[capacity * 2];
+    }
+
+    /**
+     * 清空,准备记录下一次调用
+     */
+    public void reset() {
+        if (isReleased) {
+            return;
+        }
+        if (parents.length > MAX_RETAINED_CAPACITY) {
+            allocate(DEFAULT_CAPACITY);
+        } else {
+            for (int node = 1; node < size; node++) {
+                table[slots[node]] = 0;
+            }
+        }
+        Arrays.fill(thrownTypes, 0, thrownTypeCount, null);
+        thrownTypeCount = 0;
+        size = 0;
+        current = newNode(NONE, NONE);
+    }
+
+    /**
+     * 是否没有记录任何调用
+     */
+    public boolean isEmpty() {
+        return size == 1;
+    }
+
+    /**
+     * 进入一个调用
+     *
+     * @param callSiteId 调用点编号
+     */
+    public void begin(int callSiteId) {
+        if (isReleased) {
+            return;
+        }
+        current = child(current, callSiteId);
+        begins[current] = System.nanoTime();
+    }
+
+    /**
+     * 结束当前调用
+     */
+    public void end() {
+        end(false);
+    }
+
+    /**
+     * 结束当前调用
+     *
+     * @param isMark 是否标记为抛出异常
+     */
+    public void end(boolean isMark) {
+        if (isReleased) {
+            return;
+        }
+        if (current == ROOT) {
+            throw new IllegalStateException("current node is root.");
+        }
+        final long cost = System.nanoTime() - begins[current];
+        counts[current]++;
+        totals[current] += cost;
+        mins[current] = Math.min(mins[current], cost);
+        maxs[current] = Math.max(maxs[current], cost);
+        if (isMark) {
+            marks[current]++;
+        }
+        current = parents[current];
+    }
+
+    /**
+     * 在当前调用下记录抛出的异常
+     *
+     * @param thrownType 异常类型
+     */
+    public void thrown(Class<?> thrownType) {
+        if (isReleased) {
+            return;
+        }
+        int index = 0;
+        while (index < thrownTypeCount && thrownTypes[index] != thrownType) {
+            index++;
+        }
+        if (index == thrownTypeCount) {
+            if (thrownTypeCount == thrownTypes.length) {
+                thrownTypes = Arrays.copyOf(thrownTypes, thrownTypeCount * 2);
+            }
+            thrownTypes[thrownTypeCount++] = thrownType;
+        }
+        begin(-(index + 1));
+        end();
+    }
+
+    /**
+     * 释放节点占用的内存,之后的记录全部忽略<br/>
+     * 可以由其他线程调用,所属线程正在记录时最多丢失这一次记录
+     */
+    public void release() {
+        isReleased = true;
+        parents = null;
+        keys = null;
+        firstChildren = null;
+        lastChildren = null;
+        nextSiblings = null;
+        slots = null;
+        begins = null;
+        totals = null;
+        mins = null;
+        maxs = null;
+        counts = null;
+        marks = null;
+        table = null;
+        thrownTypes = null;
+    }
+
+    /**
+     * 是否已释放
+     */
+    public boolean isReleased() {
+        return isReleased;
+    }
+
+    private int child(int parent, int key) {
+        final int mask = table.length - 1;
+        int slot = hash(parent, key) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            final int node = entry - 1;
+            if (parents[node] == parent && keys[node] == key) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        final int node = newNode(parent, key);
+        if (size * 2 > table.length) {
+            rehash();
+        } else {
+            table[slot] = node + 1;
+            slots[node] = slot;
+        }
+
+        // 按调用顺序挂到父节点的子节点末尾
+        if (firstChildren[parent] == NONE) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[lastChildren[parent]] = node;
+        }
+        lastChildren[parent] = node;
+        return node;
+    }
+
+    private int newNode(int parent, int key) {
+        if (size == parents.length) {
+            grow();
+        }
+        final int node = size++;
+        parents[node] = parent;
+        keys[node] = key;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        totals[node] = 0;
+        mins[node] = Long.MAX_VALUE;
+        maxs[node] = 0;
+        counts[node] = 0;
+        marks[node] = 0;
+        return node;
+    }
+
+    private void grow() {
+        final int capacity = parents.length * 2;
+        parents = Arrays.copyOf(parents, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        begins = Arrays.copyOf(begins, capacity);
+        totals = Arrays.copyOf(totals, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+    }
+
+    private void rehash() {
+        table = new int[Math.max(table.length, parents.length) * 2];
+        final int mask = table.length - 1;
+        for (int node = 1; node < size; node++) {
+            int slot = hash(parents[node], keys[node]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node + 1;
+            slots[node] = slot;
+        }
+    }
+
+    private static int hash(int parent, int key) {
+        final int h = parent * 0x9E3779B9 + key;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 生成调用树视图
+     *
+     * @param title 根节点的标题
+     */
+    public TreeView toTreeView(String title) {
+        final TreeView view = new TreeView(true, title);
+        for (int node = firstChildren[ROOT]; node != NONE; node = nextSiblings[node]) {
+            appendTo(view, node);
+        }
+        return view;
+    }
+
+    private void appendTo(TreeView view, int node) {
+        final int key = keys[node];
+        final String data;
+        if (key < 0) {
+            data = "throw:" + thrownTypes[-key - 1].getName() + "()";
+        } else {
+            final CallSite callSite = CallSiteRegistry.get(key);
+            data = null == callSite ? "unknown" : callSite.getTitle();
+        }
+        view.begin(data, counts[node], totals[node], mins[node], maxs[node],
+                marks[node] > 0 ? "throws Exception" : null, marks[node]);
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            appendTo(view, child);
+        }
+        view.up();
+    }
+
+}
@@ -8,6 +8,7 @@ import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.handlers.Handler;
 import com.taobao.arthas.core.shell.handlers.shell.QExitHandler;
 import com.taobao.arthas.core.shell.session.Session;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.NetUtils;
 import com.taobao.arthas.core.util.NetUtils.Response;
@@ -34,8 +35,6 @@ import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * @author hengyunabc 2015年11月19日 上午11:57:21
@@ -63,7 +62,7 @@ public class DashboardCommand extends AnnotatedCommand {
     private long interval = 5000;
 
     private volatile long count = 0;
-    private volatile Timer timer;
+    private volatile ArthasScheduler.ScheduledTask timer;
 
     @Option(shortName = "n", longName = "number-of-execution")
     @Description("The number of times this command will be executed.")
@@ -87,11 +86,8 @@ public class DashboardCommand extends AnnotatedCommand {
     @Override
     public void process(final CommandProcess process) {
 
-        Session session = process.session();
-        timer = new Timer("Timer-for-arthas-dashboard-" + session.getSessionId(), true);
-
         // ctrl-C support
-        process.interruptHandler(new DashboardInterruptHandler(process, timer));
+        process.interruptHandler(new DashboardInterruptHandler(process, this));
 
         /*
          * 通过handle回调，在suspend和end时停止timer，resume时重启timer
@@ -117,13 +113,12 @@ public class DashboardCommand extends AnnotatedCommand {
         process.stdinHandler(new QExitHandler(process));
 
         // start the timer
-        timer.scheduleAtFixedRate(new DashboardTimerTask(process), 0, getInterval());
+        restart(process);
     }
 
     public synchronized void stop() {
         if (timer != null) {
             timer.cancel();
-            timer.purge();
             timer = null;
         }
     }
@@ -131,8 +126,8 @@ public class DashboardCommand extends AnnotatedCommand {
     public synchronized void restart(CommandProcess process) {
         if (timer == null) {
             Session session = process.session();
-            timer = new Timer("Timer-for-arthas-dashboard-" + session.getSessionId(), true);
-            timer.scheduleAtFixedRate(new DashboardTimerTask(process), 0, getInterval());
+            timer = ArthasScheduler.scheduleAtFixedRate("dashboard-" + session.getSessionId(),
+                    new DashboardTimerTask(process), 0, getInterval());
         }
     }
 
@@ -373,7 +368,7 @@ public class DashboardCommand extends AnnotatedCommand {
         }
     }
 
-    private class DashboardTimerTask extends TimerTask {
+    private class DashboardTimerTask implements Runnable {
         private CommandProcess process;
 
         public DashboardTimerTask(CommandProcess process) {
@@ -384,8 +379,7 @@ public class DashboardCommand extends AnnotatedCommand {
         public void run() {
             if (count >= getNumOfExecutions()) {
                 // stop the timer
-                timer.cancel();
-                timer.purge();
+                stop();
                 process.write("Process ends after " + getNumOfExecutions() + " time(s).\n");
                 process.end();
                 return;
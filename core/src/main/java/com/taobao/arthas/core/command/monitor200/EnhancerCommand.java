@@ -5,7 +5,11 @@ import java.lang.instrument.UnmodifiableClassException;
 import java.util.Collections;
 import java.util.List;
 
+import com.taobao.arthas.core.advisor.AdviceGovernor;
+import com.taobao.arthas.core.advisor.AdviceIdPool;
 import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceSampler;
+import com.taobao.arthas.core.advisor.AdviceWeaver;
 import com.taobao.arthas.core.advisor.Enhancer;
 import com.taobao.arthas.core.advisor.InvokeTraceable;
 import com.taobao.arthas.core.shell.cli.Completion;
@@ -19,6 +23,8 @@ import com.taobao.arthas.core.util.Constants;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.affect.EnhancerAffect;
 import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.middleware.cli.annotations.Description;
+import com.taobao.middleware.cli.annotations.Option;
 import com.taobao.middleware.logger.Logger;
 
 /**
@@ -33,6 +39,20 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
 
     protected Matcher classNameMatcher;
     protected Matcher methodNameMatcher;
+    private String sample;
+    private boolean isLazy = false;
+
+    @Option(longName = "sample")
+    @Description("Only observe sampled invocations, a ratio like 0.01 (1 in 100) or a rate like 100/s")
+    public void setSample(String sample) {
+        this.sample = sample;
+    }
+
+    @Option(longName = "lazy", flag = true)
+    @Description("Also enhance the matching classes loaded after the command starts, until it ends")
+    public void setLazy(boolean lazy) {
+        isLazy = lazy;
+    }
 
     /**
      * 类名匹配
@@ -88,7 +108,16 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
         super.complete(completion);
     }
 
-    protected void enhance(CommandProcess process) {
+    protected void enhance(final CommandProcess process) {
+        final AdviceSampler sampler;
+        try {
+            sampler = null == sample ? null : AdviceSampler.parse(sample);
+        } catch (IllegalArgumentException e) {
+            process.write(e.getMessage() + "\n");
+            process.end();
+            return;
+        }
+
         Session session = process.session();
         if (!session.tryLock()) {
             process.write("someone else is enhancing classes, pls. wait.\n");
@@ -96,22 +125,34 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
             return;
         }
         int lock = session.getLock();
+        int adviceId = -1;
+        boolean isRegistered = false;
+        Instrumentation inst = session.getInstrumentation();
         try {
-            Instrumentation inst = session.getInstrumentation();
             AdviceListener listener = getAdviceListener(process);
             if (listener == null) {
                 warn(process, "advice listener is null");
                 return;
             }
+            try {
+                adviceId = AdviceIdPool.acquire();
+            } catch (IllegalStateException e) {
+                process.write(e.getMessage() + " pls. stop some running commands and try again.\n");
+                process.end();
+                return;
+            }
             boolean skipJDKTrace = false;
             if(listener instanceof AbstractTraceAdviceListener) {
                 skipJDKTrace = ((AbstractTraceAdviceListener) listener).getCommand().isSkipJDKTrace();
             }
 
-            EnhancerAffect effect = Enhancer.enhance(inst, lock, listener instanceof InvokeTraceable,
-                    skipJDKTrace, getClassNameMatcher(), getMethodNameMatcher());
+            EnhancerAffect effect = Enhancer.enhance(inst, adviceId, listener instanceof InvokeTraceable,
+                    skipJDKTrace, listener.capability(), getClassNameMatcher(), getMethodNameMatcher(), isLazy);
 
-            if (effect.cCnt() == 0 || effect.mCnt() == 0) {
+            if (isLazy && effect.cCnt() == 0) {
+                // 还没有加载匹配的类,等待类定义时编织
+                process.write("No class is affected yet, waiting for the matching classes to be loaded.\n");
+            } else if (effect.cCnt() == 0 || effect.mCnt() == 0) {
                 // no class effected
                 // might be method code too large
                 process.write("No class or method is affected, try:\n"
@@ -125,8 +166,27 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
 
             // 这里做个补偿,如果在enhance期间,unLock被调用了,则补偿性放弃
             if (session.getLock() == lock) {
+                // 采样器需要先于监听器生效
+                if (null != sampler) {
+                    AdviceWeaver.sample(adviceId, sampler);
+                }
+
                 // 注册通知监听器
-                process.register(lock, listener);
+                process.register(adviceId, listener);
+                isRegistered = true;
+
+                // 监听器开销超出预算时自动降级
+                AdviceGovernor.govern(adviceId, new AdviceGovernor.Degrader() {
+                    @Override
+                    public void report(String message) {
+                        process.write(message);
+                    }
+
+                    @Override
+                    public void abort() {
+                        process.end();
+                    }
+                });
                 if (process.isForeground()) {
                     process.echoTips(Constants.Q_OR_CTRL_C_ABORT_MSG + "\n");
                 }
@@ -136,6 +196,10 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
         } catch (UnmodifiableClassException e) {
             logger.error(null, "error happens when enhancing class", e);
         } finally {
+            // 没有注册成功时立即释放通知ID,已经编织进类中的通知随后被自动移除;注册后由进程结束时释放
+            if (!isRegistered && adviceId >= 0) {
+                Enhancer.release(inst, adviceId);
+            }
             if (session.getLock() == lock) {
                 // enhance结束后解锁
                 process.session().unLock();
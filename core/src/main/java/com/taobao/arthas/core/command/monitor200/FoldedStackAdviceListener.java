@@ -0,0 +1,138 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.AdviceCapability;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.ArthasScheduler;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.ThreadLocalWatch;
+import com.taobao.middleware.logger.Logger;
+
+/**
+ * 以折叠栈输出的stack<br/>
+ * 调用栈在内存中聚合计数,每个统计周期输出一次,不再逐次输出完整的调用栈
+ *
+ * @see FoldedStacks
+ */
+public class FoldedStackAdviceListener extends ReflectAdviceListenerAdapter {
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    private final FoldedStacks foldedStacks = new FoldedStacks();
+    private final ThreadLocal<StackTraceElement[]> stackThreadLocal = new ThreadLocal<StackTraceElement[]>();
+    private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
+    private final StackCommand command;
+    private final CommandProcess process;
+
+    // 输出定时任务
+    private ArthasScheduler.ScheduledTask timer;
+
+    public FoldedStackAdviceListener(StackCommand command, CommandProcess process) {
+        this.command = command;
+        this.process = process;
+    }
+
+    @Override
+    public synchronized void create() {
+        if (null == timer) {
+            final long intervalMillis = command.getFoldedInterval() * 1000L;
+            timer = ArthasScheduler.scheduleAtFixedRate("stack-folded-" + process.session().getSessionId(),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            output();
+                        }
+                    }, intervalMillis, intervalMillis);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * 没有条件表达式时，只需要调用栈，不需要任何现场数据
+     */
+    @Override
+    public int capability() {
+        return StringUtils.isEmpty(command.getConditionExpress())
+                ? AdviceCapability.TIMING_ONLY
+                : AdviceCapability.ALL;
+    }
+
+    @Override
+    public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
+            throws Throwable {
+        final StackTraceElement[] frames = Thread.currentThread().getStackTrace();
+        if (StringUtils.isEmpty(command.getConditionExpress())) {
+            // 没有条件表达式时直接计入
+            add(frames, clazz, method);
+            return;
+        }
+        stackThreadLocal.set(frames);
+        // 开始计算本次方法调用耗时
+        threadLocalWatch.start();
+    }
+
+    @Override
+    public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
+                              Throwable throwable) throws Throwable {
+        if (StringUtils.isEmpty(command.getConditionExpress())) {
+            return;
+        }
+        finishing(clazz, method, Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable));
+    }
+
+    @Override
+    public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
+                               Object returnObject) throws Throwable {
+        if (StringUtils.isEmpty(command.getConditionExpress())) {
+            return;
+        }
+        finishing(clazz, method, Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject));
+    }
+
+    private void finishing(Class<?> clazz, ArthasMethod method, Advice advice) {
+        final StackTraceElement[] frames = stackThreadLocal.get();
+        stackThreadLocal.remove();
+        try {
+            double cost = threadLocalWatch.costInMillis();
+            if (null != frames && isConditionMet(command.getConditionExpress(), advice, cost)) {
+                add(frames, clazz, method);
+            }
+        } catch (Exception e) {
+            logger.warn("stack failed.", e);
+            process.write("stack failed, condition is: " + command.getConditionExpress() + ", " + e.getMessage()
+                          + ", visit " + LogUtil.LOGGER_FILE + " for more details.\n");
+            process.end();
+        }
+    }
+
+    private void add(StackTraceElement[] frames, Class<?> clazz, ArthasMethod method) {
+        // 栈顶是arthas自身的帧,从被观察的方法开始记录
+        final int from = FoldedStacks.locate(frames, clazz.getName(), method.getName());
+        if (from >= 0) {
+            foldedStacks.add(frames, from);
+        }
+    }
+
+    private void output() {
+        final String folded = foldedStacks.drain();
+        if (folded.length() == 0) {
+            return;
+        }
+        // 超过次数上限，则不在输出，命令终止
+        if (isLimitExceeded(command.getNumberOfLimit(), process.times().getAndIncrement())) {
+            destroy();
+            abortProcess(process, command.getNumberOfLimit());
+            return;
+        }
+        process.write(folded);
+    }
+}
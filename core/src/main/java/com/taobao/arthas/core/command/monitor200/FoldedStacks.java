@@ -0,0 +1,141 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 折叠栈(folded stacks)的内存聚合<br/>
+ * 相同的调用栈只计数,输出时才生成 根;...;栈顶 次数 格式的文本,可以直接用于生成火焰图。
+ * 调用栈只以类名和方法名区分,同一方法内不同行的调用合并
+ *
+ * @see StackCommand
+ */
+class FoldedStacks {
+
+    private final ConcurrentHashMap<Stack, AtomicLong> counts = new ConcurrentHashMap<Stack, AtomicLong>();
+
+    /**
+     * 查找被观察的方法在线程栈中的位置
+     *
+     * @param frames     线程栈
+     * @param className  类名
+     * @param methodName 方法名
+     * @return 下标, 找不到时返回-1
+     */
+    static int locate(StackTraceElement[] frames, String className, String methodName) {
+        for (int index = 0; index < frames.length; index++) {
+            if (frames[index].getMethodName().equals(methodName) && frames[index].getClassName().equals(className)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 记录一次调用栈
+     *
+     * @param frames 线程栈
+     * @param from   栈顶(被观察方法)的下标,之上的帧不记录
+     */
+    void add(StackTraceElement[] frames, int from) {
+        final Stack stack = new Stack(frames, from);
+        AtomicLong count = counts.get(stack);
+        if (null == count) {
+            final AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(stack, newCount);
+            if (null == count) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * 取出并清零
+     *
+     * @return 折叠栈文本, 每行一个调用栈, 没有任何记录时为空字符串
+     */
+    String drain() {
+        final Map<String, Long> lines = new TreeMap<String, Long>();
+        for (Map.Entry<Stack, AtomicLong> entry : counts.entrySet()) {
+            final long count = entry.getValue().getAndSet(0);
+            if (count == 0) {
+                // 一个周期内没有再出现的调用栈不再保留
+                counts.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            final String line = entry.getKey().fold();
+            final Long exist = lines.get(line);
+            lines.put(line, null == exist ? count : exist + count);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> line : lines.entrySet()) {
+            sb.append(line.getKey()).append(' ').append(line.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 调用栈,引用线程栈而不复制
+     */
+    private static class Stack {
+        private final StackTraceElement[] frames;
+        private final int from;
+        private final int hash;
+
+        Stack(StackTraceElement[] frames, int from) {
+            this.frames = frames;
+            this.from = from;
+            int h = 1;
+            for (int index = from; index < frames.length; index++) {
+                h = 31 * h + frames[index].getClassName().hashCode();
+                h = 31 * h + frames[index].getMethodName().hashCode();
+            }
+            this.hash = h;
+        }
+
+        /**
+         * @return 从栈底到栈顶,以;分隔
+         */
+        String fold() {
+            final StringBuilder sb = new StringBuilder();
+            for (int index = frames.length - 1; index >= from; index--) {
+                sb.append(frames[index].getClassName()).append('.').append(frames[index].getMethodName());
+                if (index > from) {
+                    sb.append(';');
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Stack)) {
+                return false;
+            }
+            final Stack other = (Stack) obj;
+            if (hash != other.hash || frames.length - from != other.frames.length - other.from) {
+                return false;
+            }
+            for (int index = from, otherIndex = other.from; index < frames.length; index++, otherIndex++) {
+                if (!frames[index].getClassName().equals(other.frames[otherIndex].getClassName())
+                        || !frames[index].getMethodName().equals(other.frames[otherIndex].getMethodName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
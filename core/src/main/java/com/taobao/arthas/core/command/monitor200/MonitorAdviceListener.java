@@ -1,9 +1,13 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.taobao.arthas.core.advisor.AdviceCapability;
 import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
+import com.taobao.arthas.core.util.metrics.LatencyRecorder;
+import com.taobao.arthas.core.util.metrics.LatencyStats;
 import com.taobao.text.Decoration;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
@@ -12,10 +16,7 @@ import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static com.taobao.arthas.core.util.ArthasCheckUtils.isEquals;
 import static com.taobao.text.ui.Element.label;
@@ -38,6 +39,7 @@ import static com.taobao.text.ui.Element.label;
  * <th>成功次数</th>
  * <th>失败次数</th>
  * <th>平均耗时(ms)</th>
+ * <th>耗时p50/p90/p99/最大值(ms)</th>
  * <th>失败率</th>
  * </tr>
  * <tr>
@@ -49,6 +51,7 @@ import static com.taobao.text.ui.Element.label;
  * <td>1000</td>
  * <td>500</td>
  * <td>15</td>
+ * <td>...</td>
  * <td>30%</td>
  * </tr>
  * <tr>
@@ -60,6 +63,7 @@ import static com.taobao.text.ui.Element.label;
  * <td>900</td>
  * <td>0</td>
  * <td>7</td>
+ * <td>...</td>
  * <td>0%</td>
  * </tr>
  * </table>
@@ -68,9 +72,11 @@ import static com.taobao.text.ui.Element.label;
  */
 class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     // 输出定时任务
-    private Timer timer;
-    // 监控数据
-    private ConcurrentHashMap<Key, AtomicReference<Data>> monitorData = new ConcurrentHashMap<Key, AtomicReference<Data>>();
+    private ArthasScheduler.ScheduledTask timer;
+    // 监控数据,同名方法(重载)合并统计
+    private ConcurrentHashMap<Key, LatencyRecorder> monitorData = new ConcurrentHashMap<Key, LatencyRecorder>();
+    // 方法 -> 监控数据,ArthasMethod按被编织的方法缓存,记录时不需要再构造Key
+    private final ConcurrentHashMap<ArthasMethod, LatencyRecorder> methodData = new ConcurrentHashMap<ArthasMethod, LatencyRecorder>();
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     private MonitorCommand command;
     private CommandProcess process;
@@ -83,9 +89,9 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     @Override
     public synchronized void create() {
         if (timer == null) {
-            timer = new Timer("Timer-for-arthas-monitor-" + process.session().getSessionId(), true);
-            timer.scheduleAtFixedRate(new MonitorTimer(monitorData, process, command.getNumberOfLimit()),
-                    0, command.getCycle() * 1000);
+            timer = ArthasScheduler.scheduleAtFixedRate("monitor-" + process.session().getSessionId(),
+                    new MonitorTimer(monitorData, process, command.getNumberOfLimit(), command.getCycle()),
+                    0, command.getCycle() * 1000L);
         }
     }
 
@@ -95,6 +101,15 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
             timer.cancel();
             timer = null;
         }
+        MonitorHistory.release(this);
+    }
+
+    /**
+     * monitor只统计耗时和成功失败次数，不需要任何现场数据
+     */
+    @Override
+    public int capability() {
+        return AdviceCapability.TIMING_ONLY;
     }
 
     @Override
@@ -116,55 +131,51 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     }
 
     private void finishing(Class<?> clazz, ArthasMethod method, boolean isThrowing) {
-        double cost = threadLocalWatch.costInMillis();
-        final Key key = new Key(clazz.getName(), method.getName());
-
-        while (true) {
-            AtomicReference<Data> value = monitorData.get(key);
-            if (null == value) {
-                monitorData.putIfAbsent(key, new AtomicReference<Data>(new Data()));
-                continue;
-            }
+        final long cost = threadLocalWatch.cost();
+        LatencyRecorder recorder = methodData.get(method);
+        if (null == recorder) {
+            recorder = getRecorder(new Key(clazz.getName(), method.getName()));
+            methodData.put(method, recorder);
+        }
+        recorder.record(cost, isThrowing);
+    }
 
-            while (true) {
-                Data oData = value.get();
-                Data nData = new Data();
-                nData.setCost(oData.getCost() + cost);
-                if (isThrowing) {
-                    nData.setFailed(oData.getFailed() + 1);
-                    nData.setSuccess(oData.getSuccess());
-                } else {
-                    nData.setFailed(oData.getFailed());
-                    nData.setSuccess(oData.getSuccess() + 1);
-                }
-                nData.setTotal(oData.getTotal() + 1);
-                if (value.compareAndSet(oData, nData)) {
-                    break;
-                }
-            }
-            break;
+    private LatencyRecorder getRecorder(Key key) {
+        final LatencyRecorder recorder = monitorData.get(key);
+        if (null != recorder) {
+            return recorder;
         }
+        final LatencyRecorder newRecorder = new LatencyRecorder();
+        final LatencyRecorder exist = monitorData.putIfAbsent(key, newRecorder);
+        return null == exist ? newRecorder : exist;
     }
 
-    private class MonitorTimer extends TimerTask {
-        private Map<Key, AtomicReference<Data>> monitorData;
+    private class MonitorTimer implements Runnable {
+        private Map<Key, LatencyRecorder> monitorData;
         private CommandProcess process;
         private int limit;
+        private int cycle;
+        // 本周期的开始时间
+        private long cycleStart = System.currentTimeMillis();
 
-        MonitorTimer(Map<Key, AtomicReference<Data>> monitorData, CommandProcess process, int limit) {
+        MonitorTimer(Map<Key, LatencyRecorder> monitorData, CommandProcess process, int limit, int cycle) {
             this.monitorData = monitorData;
             this.process = process;
             this.limit = limit;
+            this.cycle = cycle;
         }
 
         @Override
         public void run() {
+            final long now = System.currentTimeMillis();
+            final long start = cycleStart;
+            cycleStart = now;
             if (monitorData.isEmpty()) {
                 return;
             }
             // 超过次数上限，则不在输出，命令终止
             if (process.times().getAndIncrement() >= limit) {
-                this.cancel();
+                destroy();
                 abortProcess(process, limit);
                 return;
             }
@@ -177,35 +188,35 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
                     label("success").style(Decoration.bold.bold()),
                     label("fail").style(Decoration.bold.bold()),
                     label("avg-rt(ms)").style(Decoration.bold.bold()),
+                    label("p50(ms)").style(Decoration.bold.bold()),
+                    label("p90(ms)").style(Decoration.bold.bold()),
+                    label("p99(ms)").style(Decoration.bold.bold()),
+                    label("max(ms)").style(Decoration.bold.bold()),
                     label("fail-rate").style(Decoration.bold.bold()));
 
-            for (Map.Entry<Key, AtomicReference<Data>> entry : monitorData.entrySet()) {
-                final AtomicReference<Data> value = entry.getValue();
-
-                Data data;
-                while (true) {
-                    data = value.get();
-                    if (value.compareAndSet(data, new Data())) {
-                        break;
-                    }
-                }
-
-                if (null != data) {
-
-                    final DecimalFormat df = new DecimalFormat("0.00");
-
-                    table.row(
-                            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
-                            entry.getKey().getClassName(),
-                            entry.getKey().getMethodName(),
-                            "" + data.getTotal(),
-                            "" + data.getSuccess(),
-                            "" + data.getFailed(),
-                            df.format(div(data.getCost(), data.getTotal())),
-                            df.format(100.0d * div(data.getFailed(), data.getTotal())) + "%"
-                    );
+            final DecimalFormat df = new DecimalFormat("0.00");
+            for (Map.Entry<Key, LatencyRecorder> entry : monitorData.entrySet()) {
+                final LatencyStats data = entry.getValue().drain();
 
+                // 每个周期都存入历史,供monitor -w按时间窗口查询
+                final MonitorHistory history = MonitorHistory.acquire(entry.getKey(), cycle, MonitorAdviceListener.this);
+                if (null != history) {
+                    history.add(start, now, data);
                 }
+                table.row(
+                        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
+                        entry.getKey().getClassName(),
+                        entry.getKey().getMethodName(),
+                        "" + data.getTotal(),
+                        "" + data.getSuccess(),
+                        "" + data.getFailed(),
+                        df.format(data.getAvgNanos() / 1000000.0d),
+                        df.format(data.getPercentileNanos(0.50d) / 1000000.0d),
+                        df.format(data.getPercentileNanos(0.90d) / 1000000.0d),
+                        df.format(data.getPercentileNanos(0.99d) / 1000000.0d),
+                        df.format(data.getMaxNanos() / 1000000.0d),
+                        df.format(100.0d * div(data.getFailed(), data.getTotal())) + "%"
+                );
             }
 
             process.write(RenderUtil.render(table, process.width()) + "\n");
@@ -225,7 +236,7 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
      *
      * @author vlinux
      */
-    private static class Key {
+    static class Key {
         private final String className;
         private final String methodName;
 
@@ -258,48 +269,4 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
         }
 
     }
-
-    /**
-     * 数据监控用的value
-     *
-     * @author vlinux
-     */
-    private static class Data {
-        private int total;
-        private int success;
-        private int failed;
-        private double cost;
-
-        public int getTotal() {
-            return total;
-        }
-
-        public void setTotal(int total) {
-            this.total = total;
-        }
-
-        public int getSuccess() {
-            return success;
-        }
-
-        public void setSuccess(int success) {
-            this.success = success;
-        }
-
-        public int getFailed() {
-            return failed;
-        }
-
-        public void setFailed(int failed) {
-            this.failed = failed;
-        }
-
-        public double getCost() {
-            return cost;
-        }
-
-        public void setCost(double cost) {
-            this.cost = cost;
-        }
-    }
 }
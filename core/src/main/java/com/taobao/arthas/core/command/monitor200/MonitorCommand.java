@@ -6,12 +6,27 @@ import com.taobao.arthas.core.command.Constants;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.handlers.Handler;
 import com.taobao.arthas.core.util.SearchUtils;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.affect.RowAffect;
 import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.arthas.core.util.metrics.LatencyStats;
 import com.taobao.middleware.cli.annotations.Argument;
 import com.taobao.middleware.cli.annotations.Description;
 import com.taobao.middleware.cli.annotations.Name;
 import com.taobao.middleware.cli.annotations.Option;
 import com.taobao.middleware.cli.annotations.Summary;
+import com.taobao.text.Decoration;
+import com.taobao.text.ui.TableElement;
+import com.taobao.text.util.RenderUtil;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static com.taobao.text.ui.Element.label;
 
 /**
  * 监控请求命令<br/>
@@ -23,6 +38,8 @@ import com.taobao.middleware.cli.annotations.Summary;
         "  monitor org.apache.commons.lang.StringUtils isBlank\n" +
         "  monitor org.apache.commons.lang.StringUtils isBlank -c 5\n" +
         "  monitor -E org\\.apache\\.commons\\.lang\\.StringUtils isBlank\n" +
+        "  monitor -w 1m,5m,15m\n" +
+        "  monitor -w 1m,1h org.apache.commons.lang.StringUtils isBlank\n" +
         Constants.WIKI + Constants.WIKI_HOME + "monitor")
 public class MonitorCommand extends EnhancerCommand {
 
@@ -31,14 +48,15 @@ public class MonitorCommand extends EnhancerCommand {
     private int cycle = 60;
     private boolean isRegEx = false;
     private int numberOfLimit = 100;
+    private String windows;
 
-    @Argument(argName = "class-pattern", index = 0)
+    @Argument(argName = "class-pattern", index = 0, required = false)
     @Description("Path and classname of Pattern Matching")
     public void setClassPattern(String classPattern) {
         this.classPattern = classPattern;
     }
 
-    @Argument(argName = "method-pattern", index = 1)
+    @Argument(argName = "method-pattern", index = 1, required = false)
     @Description("Method of Pattern Matching")
     public void setMethodPattern(String methodPattern) {
         this.methodPattern = methodPattern;
@@ -62,6 +80,12 @@ public class MonitorCommand extends EnhancerCommand {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(shortName = "w", longName = "windows")
+    @Description("Show the statistics kept by monitor over the time windows instead of monitoring, e.g. 1m,5m,15m")
+    public void setWindows(String windows) {
+        this.windows = windows;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -82,6 +106,158 @@ public class MonitorCommand extends EnhancerCommand {
         return numberOfLimit;
     }
 
+    @Override
+    public void process(CommandProcess process) {
+        if (null != windows) {
+            processWindows(process, parseWindows(windows));
+            return;
+        }
+        if (StringUtils.isEmpty(classPattern)) {
+            throw new IllegalArgumentException("Class-pattern is expected, please type the wildcard expression to match");
+        }
+        if (StringUtils.isEmpty(methodPattern)) {
+            throw new IllegalArgumentException("Method-pattern is expected, please type the wildcard expression to match");
+        }
+        super.process(process);
+    }
+
+    /**
+     * 按时间窗口查询历史统计,每个方法的各个窗口与其中最长的窗口对比
+     */
+    private void processWindows(CommandProcess process, List<Long> windowMillis) {
+        final RowAffect affect = new RowAffect();
+        try {
+            final Matcher classNameMatcher = getClassNameMatcher();
+            final Matcher methodNameMatcher = getMethodNameMatcher();
+            final List<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>> histories
+                    = new ArrayList<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>>();
+            for (Map.Entry<MonitorAdviceListener.Key, MonitorHistory> entry : MonitorHistory.histories().entrySet()) {
+                if (classNameMatcher.matching(entry.getKey().getClassName())
+                        && methodNameMatcher.matching(entry.getKey().getMethodName())) {
+                    histories.add(entry);
+                }
+            }
+            Collections.sort(histories, new Comparator<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>>() {
+                @Override
+                public int compare(Map.Entry<MonitorAdviceListener.Key, MonitorHistory> o1,
+                                   Map.Entry<MonitorAdviceListener.Key, MonitorHistory> o2) {
+                    final int result = o1.getKey().getClassName().compareTo(o2.getKey().getClassName());
+                    return result != 0 ? result : o1.getKey().getMethodName().compareTo(o2.getKey().getMethodName());
+                }
+            });
+
+            final TableElement table = new TableElement().leftCellPadding(1).rightCellPadding(1);
+            table.row(true, label("class").style(Decoration.bold.bold()),
+                    label("method").style(Decoration.bold.bold()),
+                    label("window").style(Decoration.bold.bold()),
+                    label("total").style(Decoration.bold.bold()),
+                    label("qps").style(Decoration.bold.bold()),
+                    label("avg-rt(ms)").style(Decoration.bold.bold()),
+                    label("p50(ms)").style(Decoration.bold.bold()),
+                    label("p90(ms)").style(Decoration.bold.bold()),
+                    label("p99(ms)").style(Decoration.bold.bold()),
+                    label("max(ms)").style(Decoration.bold.bold()),
+                    label("fail-rate").style(Decoration.bold.bold()),
+                    label("avg-rt-change").style(Decoration.bold.bold()),
+                    label("p99-change").style(Decoration.bold.bold()));
+
+            final DecimalFormat df = new DecimalFormat("0.00");
+            final long now = System.currentTimeMillis();
+            for (Map.Entry<MonitorAdviceListener.Key, MonitorHistory> entry : histories) {
+                final MonitorHistory.Window baseline = entry.getValue().window(now, windowMillis.get(windowMillis.size() - 1));
+                if (null == baseline) {
+                    continue;
+                }
+                final LatencyStats base = baseline.getStats();
+                for (Long millis : windowMillis) {
+                    final MonitorHistory.Window window = entry.getValue().window(now, millis);
+                    if (null == window) {
+                        continue;
+                    }
+                    final LatencyStats stats = window.getStats();
+                    table.row(
+                            entry.getKey().getClassName(),
+                            entry.getKey().getMethodName(),
+                            formatWindow(millis),
+                            "" + stats.getTotal(),
+                            df.format(div(stats.getTotal(), window.getCoveredMillis() / 1000.0d)),
+                            df.format(stats.getAvgNanos() / 1000000.0d),
+                            df.format(stats.getPercentileNanos(0.50d) / 1000000.0d),
+                            df.format(stats.getPercentileNanos(0.90d) / 1000000.0d),
+                            df.format(stats.getPercentileNanos(0.99d) / 1000000.0d),
+                            df.format(stats.getMaxNanos() / 1000000.0d),
+                            df.format(100.0d * div(stats.getFailed(), stats.getTotal())) + "%",
+                            formatChange(stats.getAvgNanos(), base.getAvgNanos()),
+                            formatChange(stats.getPercentileNanos(0.99d), base.getPercentileNanos(0.99d)));
+                    affect.rCnt(1);
+                }
+            }
+            process.write(RenderUtil.render(table, process.width()));
+        } finally {
+            process.write(affect.toString()).write("\n");
+            process.end();
+        }
+    }
+
+    /**
+     * 解析时间窗口,如1m,5m,15m,支持s/m/h,按长度排序
+     */
+    static List<Long> parseWindows(String windows) {
+        final List<Long> windowMillis = new ArrayList<Long>();
+        for (String window : windows.split(",")) {
+            window = window.trim();
+            final long unit;
+            if (window.endsWith("s")) {
+                unit = 1000L;
+            } else if (window.endsWith("m")) {
+                unit = 60 * 1000L;
+            } else if (window.endsWith("h")) {
+                unit = 60 * 60 * 1000L;
+            } else {
+                throw new IllegalArgumentException("Illegal time window: " + window + ", expected e.g. 30s, 5m, 1h");
+            }
+            final long value;
+            try {
+                value = Long.parseLong(window.substring(0, window.length() - 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Illegal time window: " + window + ", expected e.g. 30s, 5m, 1h");
+            }
+            if (value <= 0) {
+                throw new IllegalArgumentException("Illegal time window: " + window + ", expected e.g. 30s, 5m, 1h");
+            }
+            if (!windowMillis.contains(value * unit)) {
+                windowMillis.add(value * unit);
+            }
+        }
+        Collections.sort(windowMillis);
+        return windowMillis;
+    }
+
+    private static String formatWindow(long millis) {
+        if (millis % (60 * 60 * 1000L) == 0) {
+            return millis / (60 * 60 * 1000L) + "h";
+        }
+        if (millis % (60 * 1000L) == 0) {
+            return millis / (60 * 1000L) + "m";
+        }
+        return millis / 1000L + "s";
+    }
+
+    /**
+     * 相对于基准的变化,如+12.50%
+     */
+    private static String formatChange(double value, double base) {
+        if (base == 0) {
+            return "-";
+        }
+        final double change = 100.0d * (value - base) / base;
+        return (change > 0 ? "+" : "") + new DecimalFormat("0.00").format(change) + "%";
+    }
+
+    private static double div(double a, double b) {
+        return b == 0 ? 0 : a / b;
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -0,0 +1,277 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.metrics.LatencyStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * monitor的历史统计<br/>
+ * 每个方法保留最近一小时每个统计周期的数据,更早的数据每12个周期合并为一条再保留6小时,
+ * 条数有上限,占用的内存固定。历史在命令结束后仍然保留,可以随时按时间窗口查询,
+ * 同一个方法同一时刻只由一个monitor记录,避免重复统计。
+ * 没有monitor记录的历史超过保留时长后丢弃,数量超过上限时先丢弃最早停止记录的
+ *
+ * @see MonitorCommand
+ */
+class MonitorHistory {
+
+    private static final long FINE_RETENTION_MILLIS = 60 * 60 * 1000L;
+    private static final long COARSE_RETENTION_MILLIS = 6 * 60 * 60 * 1000L;
+
+    // 每条合并数据包含的统计周期数
+    private static final int COARSE_FACTOR = 12;
+
+    // 每一级最多保留的条数
+    private static final int MAX_FINE_SLOTS = 720;
+    private static final int MAX_COARSE_SLOTS = 360;
+
+    /**
+     * 最多保留的没有monitor记录的历史个数
+     */
+    static final int MAX_IDLE_HISTORIES = 256;
+
+    // 方法 -> 历史统计
+    private static final Map<MonitorAdviceListener.Key, MonitorHistory> histories
+            = new HashMap<MonitorAdviceListener.Key, MonitorHistory>();
+
+    private final int cycle;
+    private final Ring fine;
+    private final Ring coarse;
+
+    // 正在合并、尚未进入coarse的数据
+    private LatencyStats merging;
+    private long mergingStart;
+    private long mergingEnd;
+    private int mergingCount;
+
+    // 正在记录的monitor
+    private Object owner;
+
+    // 停止记录的时间
+    private long releasedMillis;
+
+    private MonitorHistory(int cycle) {
+        this.cycle = cycle;
+        final long cycleMillis = cycle * 1000L;
+        this.fine = new Ring(slots(FINE_RETENTION_MILLIS, cycleMillis, MAX_FINE_SLOTS));
+        this.coarse = new Ring(slots(COARSE_RETENTION_MILLIS, cycleMillis * COARSE_FACTOR, MAX_COARSE_SLOTS));
+    }
+
+    private static int slots(long retentionMillis, long slotMillis, int maxSlots) {
+        return (int) Math.max(1, Math.min(maxSlots, (retentionMillis + slotMillis - 1) / slotMillis));
+    }
+
+    /**
+     * 获取用于记录的历史统计<br/>
+     * 方法正被其他monitor记录时返回null;统计周期不同时丢弃原有的历史
+     *
+     * @param key   方法
+     * @param cycle 统计周期(秒)
+     * @param owner 记录的monitor
+     */
+    static MonitorHistory acquire(MonitorAdviceListener.Key key, int cycle, Object owner) {
+        synchronized (histories) {
+            MonitorHistory history = histories.get(key);
+            if (null != history && null != history.owner && history.owner != owner) {
+                return null;
+            }
+            if (null == history || history.cycle != cycle) {
+                expunge(System.currentTimeMillis());
+                histories.put(key, history = new MonitorHistory(cycle));
+            }
+            history.owner = owner;
+            return history;
+        }
+    }
+
+    /**
+     * monitor停止记录,历史统计保留
+     *
+     * @param owner 记录的monitor
+     */
+    static void release(Object owner) {
+        final long now = System.currentTimeMillis();
+        synchronized (histories) {
+            for (MonitorHistory history : histories.values()) {
+                if (history.owner == owner) {
+                    history.owner = null;
+                    history.releasedMillis = now;
+                }
+            }
+            expunge(now);
+        }
+    }
+
+    /**
+     * @return 所有方法的历史统计
+     */
+    static Map<MonitorAdviceListener.Key, MonitorHistory> histories() {
+        synchronized (histories) {
+            expunge(System.currentTimeMillis());
+            return new HashMap<MonitorAdviceListener.Key, MonitorHistory>(histories);
+        }
+    }
+
+    /**
+     * 丢弃没有monitor记录的历史<br/>
+     * 停止记录超过保留时长的历史已经没有可查询的数据;其余的超过上限时丢弃最早停止记录的
+     *
+     * @param now 当前时间
+     */
+    static void expunge(long now) {
+        synchronized (histories) {
+            final List<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>> idles
+                    = new ArrayList<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>>();
+            final Iterator<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>> it = histories.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<MonitorAdviceListener.Key, MonitorHistory> entry = it.next();
+                final MonitorHistory history = entry.getValue();
+                if (null != history.owner) {
+                    continue;
+                }
+                if (now - history.releasedMillis > FINE_RETENTION_MILLIS + COARSE_RETENTION_MILLIS) {
+                    it.remove();
+                } else {
+                    idles.add(entry);
+                }
+            }
+            if (idles.size() <= MAX_IDLE_HISTORIES) {
+                return;
+            }
+
+            Collections.sort(idles, new Comparator<Map.Entry<MonitorAdviceListener.Key, MonitorHistory>>() {
+                @Override
+                public int compare(Map.Entry<MonitorAdviceListener.Key, MonitorHistory> o1,
+                                   Map.Entry<MonitorAdviceListener.Key, MonitorHistory> o2) {
+                    final long r1 = o1.getValue().releasedMillis;
+                    final long r2 = o2.getValue().releasedMillis;
+                    return r1 < r2 ? -1 : (r1 == r2 ? 0 : 1);
+                }
+            });
+            for (int index = 0; index < idles.size() - MAX_IDLE_HISTORIES; index++) {
+                histories.remove(idles.get(index).getKey());
+            }
+        }
+    }
+
+    /**
+     * 记录一个统计周期
+     *
+     * @param start 周期开始时间
+     * @param end   周期结束时间
+     * @param stats 周期内的统计
+     */
+    synchronized void add(long start, long end, LatencyStats stats) {
+        final Slot evicted = fine.add(new Slot(start, end, stats));
+        if (null == evicted) {
+            return;
+        }
+
+        // 移出fine的数据合并后进入coarse
+        if (null == merging) {
+            merging = new LatencyStats();
+            mergingStart = evicted.start;
+        }
+        merging.add(evicted.stats);
+        mergingEnd = evicted.end;
+        if (++mergingCount == COARSE_FACTOR) {
+            coarse.add(new Slot(mergingStart, mergingEnd, merging));
+            merging = null;
+            mergingCount = 0;
+        }
+    }
+
+    /**
+     * 查询最近一段时间的统计<br/>
+     * 与窗口有交集的记录整条计入,窗口边界的精度为该记录的时长
+     *
+     * @param now          当前时间
+     * @param windowMillis 窗口长度
+     * @return 窗口内的统计, 没有任何记录时返回null
+     */
+    synchronized Window window(long now, long windowMillis) {
+        final long from = now - windowMillis;
+        final Window window = new Window();
+        fine.collect(from, window);
+        if (null != merging && mergingEnd > from) {
+            window.add(new Slot(mergingStart, mergingEnd, merging));
+        }
+        coarse.collect(from, window);
+        return window.start == Long.MAX_VALUE ? null : window;
+    }
+
+    /**
+     * 时间窗口内的统计
+     */
+    static class Window {
+        private final LatencyStats stats = new LatencyStats();
+        private long start = Long.MAX_VALUE;
+        private long end = Long.MIN_VALUE;
+
+        private void add(Slot slot) {
+            stats.add(slot.stats);
+            start = Math.min(start, slot.start);
+            end = Math.max(end, slot.end);
+        }
+
+        LatencyStats getStats() {
+            return stats;
+        }
+
+        /**
+         * @return 实际覆盖的时长(毫秒), 历史不足窗口长度时比窗口短
+         */
+        long getCoveredMillis() {
+            return Math.max(0, end - start);
+        }
+    }
+
+    private static class Slot {
+        private final long start;
+        private final long end;
+        private final LatencyStats stats;
+
+        Slot(long start, long end, LatencyStats stats) {
+            this.start = start;
+            this.end = end;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * 固定容量的环,写满后覆盖最早的记录
+     */
+    private static class Ring {
+        private final Slot[] slots;
+        private int next;
+
+        Ring(int capacity) {
+            this.slots = new Slot[capacity];
+        }
+
+        /**
+         * @return 被覆盖的记录, 没有时返回null
+         */
+        Slot add(Slot slot) {
+            final Slot evicted = slots[next];
+            slots[next] = slot;
+            next = (next + 1) % slots.length;
+            return evicted;
+        }
+
+        void collect(long from, Window window) {
+            for (Slot slot : slots) {
+                if (null != slot && slot.end > from) {
+                    window.add(slot);
+                }
+            }
+        }
+    }
+
+}
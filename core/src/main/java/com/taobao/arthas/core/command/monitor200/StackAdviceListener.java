@@ -1,11 +1,13 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.taobao.arthas.core.advisor.AdviceCapability;
 import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.util.DateUtils;
 import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
 import com.taobao.arthas.core.util.ThreadUtil;
 import com.taobao.middleware.logger.Logger;
@@ -26,6 +28,16 @@ public class StackAdviceListener extends ReflectAdviceListenerAdapter {
         this.process = process;
     }
 
+    /**
+     * 没有条件表达式时，只需要输出调用栈，不需要任何现场数据
+     */
+    @Override
+    public int capability() {
+        return StringUtils.isEmpty(command.getConditionExpress())
+                ? AdviceCapability.TIMING_ONLY
+                : AdviceCapability.ALL;
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
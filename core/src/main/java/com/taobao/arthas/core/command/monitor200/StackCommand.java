@@ -26,6 +26,7 @@ import com.taobao.middleware.cli.annotations.Summary;
         "  stack *StringUtils isBlank params[0].length==1\n" +
         "  stack *StringUtils isBlank '#cost>100'\n" +
         "  stack -E org\\.apache\\.commons\\.lang\\.StringUtils isBlank\n" +
+        "  stack --folded 10 *StringUtils isBlank > /tmp/stack.folded\n" +
         Constants.WIKI + Constants.WIKI_HOME + "stack")
 public class StackCommand extends EnhancerCommand {
     private String classPattern;
@@ -33,6 +34,7 @@ public class StackCommand extends EnhancerCommand {
     private String conditionExpress;
     private boolean isRegEx = false;
     private int numberOfLimit = 100;
+    private int foldedInterval;
 
     @Argument(index = 0, argName = "class-pattern")
     @Description("Path and classname of Pattern Matching")
@@ -64,6 +66,12 @@ public class StackCommand extends EnhancerCommand {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(longName = "folded")
+    @Description("Aggregate the stacks and print them as folded stacks for flame graph tools every specified seconds")
+    public void setFoldedInterval(int foldedInterval) {
+        this.foldedInterval = foldedInterval;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -84,6 +92,10 @@ public class StackCommand extends EnhancerCommand {
         return numberOfLimit;
     }
 
+    public int getFoldedInterval() {
+        return foldedInterval;
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -102,6 +114,9 @@ public class StackCommand extends EnhancerCommand {
 
     @Override
     protected AdviceListener getAdviceListener(CommandProcess process) {
+        if (foldedInterval > 0) {
+            return new FoldedStackAdviceListener(this, process);
+        }
         return new StackAdviceListener(this, process);
     }
 
@@ -2,7 +2,6 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.InvokeTraceable;
 import com.taobao.arthas.core.shell.command.CommandProcess;
-import com.taobao.arthas.core.util.StringUtils;
 
 /**
  * @author beiwei30 on 29/11/2016.
@@ -20,22 +19,18 @@ public class TraceAdviceListener extends AbstractTraceAdviceListener implements
      * trace 会在被观测的方法体中，在每个方法调用前后插入字节码，所以方法调用开始，结束，抛异常的时候，都会回调下面的接口
      */
     @Override
-    public void invokeBeforeTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc)
-            throws Throwable {
-        threadBoundEntity.get().view.begin(
-                StringUtils.normalizeClassName(tracingClassName) + ":" + tracingMethodName + "()");
+    public void invokeBeforeTracing(int callSiteId) throws Throwable {
+        threadBoundEntity.get().recorder.begin(callSiteId);
     }
 
     @Override
-    public void invokeAfterTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc)
-            throws Throwable {
-        threadBoundEntity.get().view.end();
+    public void invokeAfterTracing(int callSiteId) throws Throwable {
+        threadBoundEntity.get().recorder.end();
     }
 
     @Override
-    public void invokeThrowTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc)
-            throws Throwable {
-        threadBoundEntity.get().view.end("throws Exception");
+    public void invokeThrowTracing(int callSiteId) throws Throwable {
+        threadBoundEntity.get().recorder.end(true);
     }
 
 }
@@ -0,0 +1,408 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.CallSite;
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.view.Ansi;
+import com.taobao.arthas.core.view.TreeView;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * trace的调用树聚合<br/>
+ * 每个线程把调用合并到自己的调用树上,节点以调用点编号区分,记录过程中不拼接任何字符串;
+ * 一次最外层调用结束时才在线程自己的锁内把本次各节点的耗时一起计入,
+ * 输出时取出并清零所有线程的统计,合并为一棵树
+ *
+ * @see TraceCommand
+ */
+class TraceAggregator {
+
+    private static final Node[] EMPTY_NODES = new Node[0];
+
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+    private boolean isDestroyed;
+
+    private final ThreadLocal<Recorder> threadRecorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            final Recorder recorder = new Recorder();
+            synchronized (recorders) {
+                if (isDestroyed) {
+                    recorder.release();
+                } else {
+                    recorders.add(recorder);
+                }
+            }
+            return recorder;
+        }
+    };
+
+    /**
+     * @return 当前线程的记录器
+     */
+    Recorder recorder() {
+        return threadRecorder.get();
+    }
+
+    /**
+     * 取出并清零所有线程的统计
+     *
+     * @return 合并后的调用树, 根节点的子节点为被跟踪的方法
+     */
+    Node drain() {
+        final Node merged = new Node(-1);
+        for (Recorder recorder : recorders) {
+            recorder.drainTo(merged);
+        }
+        return merged;
+    }
+
+    /**
+     * 释放所有线程的记录器<br/>
+     * 各线程的ThreadLocalMap仍然引用着记录器,只有释放其中的调用树才能立即回收
+     */
+    void destroy() {
+        synchronized (recorders) {
+            isDestroyed = true;
+            for (Recorder recorder : recorders) {
+                recorder.release();
+            }
+            recorders.clear();
+        }
+        threadRecorder.remove();
+    }
+
+    /**
+     * 单个线程的记录器,除{@link #drainTo(Node)}和{@link #release()}外只由所属线程访问
+     */
+    static class Recorder {
+
+        // 本线程的调用树,计数由this保护
+        private Node root = new Node(-1);
+
+        // 正在执行的调用
+        private Node[] stack = new Node[16];
+        private long[] starts = new long[16];
+        private int depth;
+
+        // 本次最外层调用中已结束的调用,最外层调用结束时一起计入
+        private Node[] finished = new Node[64];
+        private long[] costs = new long[64];
+        private boolean[] throwns = new boolean[64];
+        private int finishedCount;
+
+        // 已释放,之后的记录全部忽略
+        private volatile boolean isReleased;
+
+        /**
+         * 进入一个调用
+         *
+         * @param key 调用点编号
+         */
+        void enter(int key) {
+            if (isReleased) {
+                return;
+            }
+            final Node parent = depth == 0 ? root : stack[depth - 1];
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            stack[depth] = parent.child(key);
+            starts[depth] = System.nanoTime();
+            depth++;
+        }
+
+        /**
+         * 结束当前调用
+         *
+         * @param isThrown 是否抛出异常
+         * @return 本次调用的耗时(纳秒), 没有与之对应的进入时返回-1
+         */
+        long exit(boolean isThrown) {
+            if (isReleased || depth == 0) {
+                return -1;
+            }
+            depth--;
+            final long cost = System.nanoTime() - starts[depth];
+            if (finishedCount == finished.length) {
+                finished = Arrays.copyOf(finished, finishedCount * 2);
+                costs = Arrays.copyOf(costs, finishedCount * 2);
+                throwns = Arrays.copyOf(throwns, finishedCount * 2);
+            }
+            finished[finishedCount] = stack[depth];
+            costs[finishedCount] = cost;
+            throwns[finishedCount] = isThrown;
+            finishedCount++;
+            stack[depth] = null;
+            return cost;
+        }
+
+        /**
+         * @return 是否处于最外层调用之外
+         */
+        boolean isIdle() {
+            return depth == 0;
+        }
+
+        /**
+         * 最外层调用结束,计入本次的统计
+         */
+        synchronized void commit() {
+            if (isReleased) {
+                return;
+            }
+            for (int index = 0; index < finishedCount; index++) {
+                finished[index].add(costs[index], throwns[index]);
+            }
+            discard();
+        }
+
+        /**
+         * 最外层调用结束,丢弃本次的统计(不满足条件表达式)
+         */
+        void discard() {
+            if (isReleased) {
+                return;
+            }
+            for (int index = 0; index < finishedCount; index++) {
+                finished[index] = null;
+            }
+            finishedCount = 0;
+        }
+
+        synchronized void drainTo(Node merged) {
+            if (isReleased) {
+                return;
+            }
+            root.drainTo(merged);
+        }
+
+        /**
+         * 释放调用树及缓冲区,之后的记录全部忽略<br/>
+         * 可以由其他线程调用,所属线程正在记录时最多丢失这一次记录
+         */
+        synchronized void release() {
+            isReleased = true;
+            root = null;
+            stack = null;
+            starts = null;
+            finished = null;
+            costs = null;
+            throwns = null;
+            depth = 0;
+            finishedCount = 0;
+        }
+
+        boolean isReleased() {
+            return isReleased;
+        }
+
+    }
+
+    /**
+     * 调用树节点<br/>
+     * 子节点只由所属线程追加,以复制数组的方式发布,其他线程读取时不需要加锁
+     */
+    static class Node {
+
+        private final int key;
+        private volatile Node[] children = EMPTY_NODES;
+
+        private long count;
+        private long thrownCount;
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+
+        Node(int key) {
+            this.key = key;
+        }
+
+        Node child(int key) {
+            final Node[] current = children;
+            for (Node child : current) {
+                if (child.key == key) {
+                    return child;
+                }
+            }
+            final Node child = new Node(key);
+            final Node[] newChildren = Arrays.copyOf(current, current.length + 1);
+            newChildren[current.length] = child;
+            children = newChildren;
+            return child;
+        }
+
+        void add(long costNanos, boolean isThrown) {
+            count++;
+            if (isThrown) {
+                thrownCount++;
+            }
+            totalNanos += costNanos;
+            minNanos = Math.min(minNanos, costNanos);
+            maxNanos = Math.max(maxNanos, costNanos);
+        }
+
+        /**
+         * 合并到另一棵树并清零,没有计数的子树不合并
+         */
+        void drainTo(Node target) {
+            for (Node child : children) {
+                if (child.count == 0) {
+                    continue;
+                }
+                final Node targetChild = target.child(child.key);
+                targetChild.count += child.count;
+                targetChild.thrownCount += child.thrownCount;
+                targetChild.totalNanos += child.totalNanos;
+                targetChild.minNanos = Math.min(targetChild.minNanos, child.minNanos);
+                targetChild.maxNanos = Math.max(targetChild.maxNanos, child.maxNanos);
+                child.drainTo(targetChild);
+
+                child.count = 0;
+                child.thrownCount = 0;
+                child.totalNanos = 0;
+                child.minNanos = Long.MAX_VALUE;
+                child.maxNanos = 0;
+            }
+        }
+
+        boolean isEmpty() {
+            return children.length == 0;
+        }
+
+        int getKey() {
+            return key;
+        }
+
+        Node[] getChildren() {
+            return children;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getThrownCount() {
+            return thrownCount;
+        }
+
+        long getTotalNanos() {
+            return totalNanos;
+        }
+
+        long getMinNanos() {
+            return count == 0 ? 0 : minNanos;
+        }
+
+        long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @return 自身耗时(纳秒), 即总耗时减去子节点的总耗时
+         */
+        long getSelfNanos() {
+            long childrenNanos = 0;
+            for (Node child : children) {
+                childrenNanos += child.totalNanos;
+            }
+            return Math.max(0, totalNanos - childrenNanos);
+        }
+
+    }
+
+    /**
+     * 绘制合并后的调用树,自身耗时最大的节点高亮展示
+     *
+     * @param title  标题
+     * @param merged {@link #drain()}的结果
+     */
+    static String draw(String title, Node merged) {
+        final TreeView view = new TreeView(false, title);
+        final Node hottest = findHottest(merged, null);
+        for (Node child : merged.getChildren()) {
+            draw(view, child, hottest, new DecimalFormat("0.000"));
+        }
+        return view.draw();
+    }
+
+    private static void draw(TreeView view, Node node, Node hottest, DecimalFormat df) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[count=").append(node.getCount())
+                .append(",avg=").append(df.format(millis(node.getTotalNanos()) / node.getCount())).append("ms")
+                .append(",min=").append(df.format(millis(node.getMinNanos()))).append("ms")
+                .append(",max=").append(df.format(millis(node.getMaxNanos()))).append("ms")
+                .append(",total=").append(df.format(millis(node.getTotalNanos()))).append("ms")
+                .append(",self=").append(df.format(millis(node.getSelfNanos()))).append("ms");
+        if (node.getThrownCount() > 0) {
+            sb.append(",throws=").append(node.getThrownCount());
+        }
+        sb.append("] ");
+        final String stats = node == hottest
+                ? Ansi.ansi().fg(Ansi.Color.RED).a(sb.toString()).reset().toString()
+                : sb.toString();
+
+        final CallSite callSite = CallSiteRegistry.get(node.getKey());
+        view.begin(stats + (null == callSite ? "unknown" : callSite.getTitle()));
+        for (Node child : node.getChildren()) {
+            draw(view, child, hottest, df);
+        }
+        view.end();
+    }
+
+    /**
+     * 生成合并后调用树的折叠栈(folded stacks),可以直接用于生成火焰图<br/>
+     * 每行为 根;...;节点 自身耗时(微秒),自身耗时不足1微秒的节点不输出
+     *
+     * @param merged {@link #drain()}的结果
+     */
+    static String fold(Node merged) {
+        final StringBuilder sb = new StringBuilder();
+        for (Node child : merged.getChildren()) {
+            fold(sb, new StringBuilder(), child);
+        }
+        return sb.toString();
+    }
+
+    private static void fold(StringBuilder sb, StringBuilder path, Node node) {
+        final int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        final CallSite callSite = CallSiteRegistry.get(node.getKey());
+        if (null == callSite) {
+            path.append("unknown");
+        } else {
+            path.append(StringUtils.normalizeClassName(callSite.getOwner())).append('.').append(callSite.getName());
+        }
+
+        final long selfMicros = node.getSelfNanos() / 1000;
+        if (selfMicros > 0) {
+            sb.append(path).append(' ').append(selfMicros).append('\n');
+        }
+        for (Node child : node.getChildren()) {
+            fold(sb, path, child);
+        }
+        path.setLength(length);
+    }
+
+    private static Node findHottest(Node node, Node hottest) {
+        for (Node child : node.getChildren()) {
+            if (null == hottest || child.getSelfNanos() > hottest.getSelfNanos()) {
+                hottest = child;
+            }
+            hottest = findHottest(child, hottest);
+        }
+        return hottest;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+}
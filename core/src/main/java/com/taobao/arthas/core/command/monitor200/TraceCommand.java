@@ -33,6 +33,8 @@ import java.util.List;
         "  trace *StringUtils isBlank '#cost>100'\n" +
         "  trace -E org\\\\.apache\\\\.commons\\\\.lang\\\\.StringUtils isBlank\n" +
         "  trace -E com.test.ClassA|org.test.ClassB method1|method2|method3\n" +
+        "  trace --aggregate 10 *StringUtils isBlank\n" +
+        "  trace --folded 10 *StringUtils isBlank > /tmp/trace.folded\n" +
         Constants.WIKI + Constants.WIKI_HOME + "trace")
 public class TraceCommand extends EnhancerCommand {
 
@@ -43,6 +45,8 @@ public class TraceCommand extends EnhancerCommand {
     private int numberOfLimit = 100;
     private List<String> pathPatterns;
     private boolean skipJDKTrace;
+    private int aggregateInterval;
+    private int foldedInterval;
 
     @Argument(argName = "class-pattern", index = 0)
     @Description("Class name pattern, use either '.' or '/' as separator")
@@ -86,6 +90,18 @@ public class TraceCommand extends EnhancerCommand {
         this.skipJDKTrace = skipJDKTrace;
     }
 
+    @Option(longName = "aggregate")
+    @Description("Merge all invocations into one call tree and print it every specified seconds")
+    public void setAggregateInterval(int aggregateInterval) {
+        this.aggregateInterval = aggregateInterval;
+    }
+
+    @Option(longName = "folded")
+    @Description("Merge all invocations and print them as folded stacks for flame graph tools every specified seconds")
+    public void setFoldedInterval(int foldedInterval) {
+        this.foldedInterval = foldedInterval;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -114,6 +130,20 @@ public class TraceCommand extends EnhancerCommand {
         return pathPatterns;
     }
 
+    /**
+     * @return 聚合输出的统计周期(秒), 输出折叠栈时为折叠栈的周期
+     */
+    public int getAggregateInterval() {
+        return isFolded() ? foldedInterval : aggregateInterval;
+    }
+
+    /**
+     * @return 是否输出折叠栈
+     */
+    public boolean isFolded() {
+        return foldedInterval > 0;
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -140,6 +170,11 @@ public class TraceCommand extends EnhancerCommand {
 
     @Override
     protected AdviceListener getAdviceListener(CommandProcess process) {
+        if (getAggregateInterval() > 0) {
+            return pathPatterns == null || pathPatterns.isEmpty()
+                    ? new AggregateTraceAdviceListener.Invoking(this, process)
+                    : new AggregateTraceAdviceListener(this, process);
+        }
         if (pathPatterns == null || pathPatterns.isEmpty()) {
             return new TraceAdviceListener(this, process);
         } else {
@@ -5,25 +5,24 @@ import com.taobao.arthas.core.util.ThreadUtil;
 import com.taobao.arthas.core.view.TreeView;
 
 /**
- * 用于在ThreadLocal中传递的实体
+ * 用于在ThreadLocal中传递的实体<br/>
+ * 每个线程一个,一次调用输出后{@link #reset()}复用,跟踪结束时{@link #release()}
  * @author ralf0131 2017-01-05 14:05.
  */
 public class TraceEntity {
 
-    protected TreeView view;
+    protected final CallTreeRecorder recorder;
     protected int deep;
+    // 最外层调用的开始时间
+    protected long timestamp;
 
     public TraceEntity() {
-        this.view = createTreeView();
+        this.recorder = new CallTreeRecorder();
         this.deep = 0;
     }
 
-    public TreeView getView() {
-        return view;
-    }
-
-    public void setView(TreeView view) {
-        this.view = view;
+    public CallTreeRecorder getRecorder() {
+        return recorder;
     }
 
     public int getDeep() {
@@ -34,8 +33,24 @@ public class TraceEntity {
         this.deep = deep;
     }
 
-    private TreeView createTreeView() {
-        String threadTitle = "ts=" + DateUtils.getCurrentDate()+ ";" + ThreadUtil.getThreadTitle(Thread.currentThread());
-        return new TreeView(true, threadTitle);
+    /**
+     * 生成调用树视图,只在输出时调用
+     */
+    public TreeView getView() {
+        String threadTitle = "ts=" + DateUtils.formatDate(timestamp) + ";" + ThreadUtil.getThreadTitle(Thread.currentThread());
+        return recorder.toTreeView(threadTitle);
+    }
+
+    public void reset() {
+        recorder.reset();
+        deep = 0;
+    }
+
+    /**
+     * 跟踪结束,释放调用树占用的内存
+     */
+    public void release() {
+        recorder.release();
+        deep = 0;
     }
 }
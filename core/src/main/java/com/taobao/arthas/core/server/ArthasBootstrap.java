@@ -1,5 +1,6 @@
 package com.taobao.arthas.core.server;
 
+import com.taobao.arthas.core.advisor.Enhancer;
 import com.taobao.arthas.core.config.Configure;
 import com.taobao.arthas.core.command.BuiltinCommandPack;
 import com.taobao.arthas.core.shell.ShellServer;
@@ -9,6 +10,7 @@ import com.taobao.arthas.core.shell.handlers.BindHandler;
 import com.taobao.arthas.core.shell.impl.ShellServerImpl;
 import com.taobao.arthas.core.shell.term.impl.HttpTermServer;
 import com.taobao.arthas.core.shell.term.impl.TelnetTermServer;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.Constants;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.UserStatUtil;
@@ -151,6 +153,8 @@ public class ArthasBootstrap {
 
     public void destroy() {
         executorService.shutdownNow();
+        ArthasScheduler.shutdown();
+        Enhancer.shutdown();
         UserStatUtil.destroy();
         // clear the reference in Spy class.
         cleanUpSpyReference();
@@ -17,6 +17,7 @@ import com.taobao.arthas.core.shell.system.impl.InternalCommandManager;
 import com.taobao.arthas.core.shell.system.impl.JobControllerImpl;
 import com.taobao.arthas.core.shell.term.Term;
 import com.taobao.arthas.core.shell.term.TermServer;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.middleware.logger.Logger;
 
@@ -29,9 +30,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -53,7 +51,7 @@ public class ShellServerImpl extends ShellServer {
     private boolean closed = true;
     private final Map<String, ShellImpl> sessions;
     private final Future<Void> sessionsClosed = Future.future();
-    private ScheduledExecutorService scheduledExecutorService;
+    private ArthasScheduler.ScheduledTask sessionReaper;
     private JobControllerImpl jobController = new GlobalJobControllerImpl();
 
     public ShellServerImpl(ShellServerOptions options) {
@@ -170,15 +168,13 @@ public class ShellServerImpl extends ShellServer {
 
     public synchronized void setTimer() {
         if (!closed && reaperInterval > 0) {
-            scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-            // TODO rename the thread, currently it is `pool-3-thread-1`, which is ambiguous
-            scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            sessionReaper = ArthasScheduler.scheduleAtFixedRate("session-reaper", new Runnable() {
 
                 @Override
                 public void run() {
                     evictSessions();
                 }
-            }, 0, reaperInterval, TimeUnit.MILLISECONDS);
+            }, 0, reaperInterval);
         }
     }
 
@@ -229,8 +225,8 @@ public class ShellServerImpl extends ShellServer {
                 toClose = Collections.emptyList();
             } else {
                 setClosed(true);
-                if (scheduledExecutorService != null) {
-                    scheduledExecutorService.shutdownNow();
+                if (sessionReaper != null) {
+                    sessionReaper.cancel();
                 }
                 toStop = termServers;
                 toClose = new ArrayList<ShellImpl>(sessions.values());
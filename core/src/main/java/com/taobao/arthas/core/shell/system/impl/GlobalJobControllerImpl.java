@@ -4,8 +4,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
 import com.taobao.arthas.core.GlobalOptions;
@@ -13,6 +11,7 @@ import com.taobao.arthas.core.shell.cli.CliToken;
 import com.taobao.arthas.core.shell.handlers.Handler;
 import com.taobao.arthas.core.shell.impl.ShellImpl;
 import com.taobao.arthas.core.shell.system.Job;
+import com.taobao.arthas.core.util.ArthasScheduler;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.middleware.logger.Logger;
 
@@ -23,8 +22,7 @@ import com.taobao.middleware.logger.Logger;
  */
 public class GlobalJobControllerImpl extends JobControllerImpl {
 
-    private Timer timer = new Timer("job-timeout", true);
-    private Map<Integer, TimerTask> jobTimeoutTaskMap = new HashMap<Integer, TimerTask>();
+    private Map<Integer, ArthasScheduler.ScheduledTask> jobTimeoutTaskMap = new HashMap<Integer, ArthasScheduler.ScheduledTask>();
     private static final Logger logger = LogUtil.getArthasLogger();
 
     @Override
@@ -36,7 +34,9 @@ public class GlobalJobControllerImpl extends JobControllerImpl {
 
     @Override
     public void close() {
-        timer.cancel();
+        for (ArthasScheduler.ScheduledTask jobTimeoutTask : jobTimeoutTaskMap.values()) {
+            jobTimeoutTask.cancel();
+        }
         jobTimeoutTaskMap.clear();
         for (Job job : jobs()) {
             job.terminate();
@@ -45,7 +45,7 @@ public class GlobalJobControllerImpl extends JobControllerImpl {
 
     @Override
     public boolean removeJob(int id) {
-        TimerTask jobTimeoutTask = jobTimeoutTaskMap.remove(id);
+        ArthasScheduler.ScheduledTask jobTimeoutTask = jobTimeoutTaskMap.remove(id);
         if (jobTimeoutTask != null) {
             jobTimeoutTask.cancel();
         }
@@ -59,14 +59,14 @@ public class GlobalJobControllerImpl extends JobControllerImpl {
         /*
          * 达到超时时间将会停止job
          */
-        TimerTask jobTimeoutTask = new TimerTask() {
+        long timeoutMillis = getJobTimeoutInSecond() * 1000;
+        Date timeoutDate = new Date(System.currentTimeMillis() + timeoutMillis);
+        ArthasScheduler.ScheduledTask jobTimeoutTask = ArthasScheduler.schedule("job-timeout-" + job.id(), new Runnable() {
             @Override
             public void run() {
                 job.terminate();
             }
-        };
-        Date timeoutDate = new Date(System.currentTimeMillis() + (getJobTimeoutInSecond() * 1000));
-        timer.schedule(jobTimeoutTask, timeoutDate);
+        }, timeoutMillis);
         jobTimeoutTaskMap.put(job.id(), jobTimeoutTask);
         job.setTimeoutDate(timeoutDate);
 
@@ -2,6 +2,7 @@ package com.taobao.arthas.core.shell.system.impl;
 
 import com.taobao.arthas.core.advisor.AdviceListener;
 import com.taobao.arthas.core.advisor.AdviceWeaver;
+import com.taobao.arthas.core.advisor.Enhancer;
 import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.cli.CliToken;
 import com.taobao.arthas.core.shell.command.Command;
@@ -542,6 +543,7 @@ public class ProcessImpl implements Process {
         @Override
         public void unregister() {
             AdviceWeaver.unReg(enhanceLock);
+            Enhancer.release(session.getInstrumentation(), enhanceLock);
         }
 
         @Override
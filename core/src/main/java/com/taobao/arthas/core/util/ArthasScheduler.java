@@ -0,0 +1,183 @@
+package com.taobao.arthas.core.util;
+
+import com.taobao.middleware.logger.Logger;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arthas全局共享的定时调度器<br/>
+ * 所有命令、会话的定时任务都在同一个小线程池中执行,不再每个任务创建一个Timer线程。
+ * 一个任务执行缓慢只会占用一个线程,不会拖住其他任务;任务抛出异常只记录日志,后续周期照常执行。
+ * 周期任务单次执行超过周期时记为超时(overrun),首次超时及之后每分钟最多一次记录警告日志
+ */
+public final class ArthasScheduler {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    // 线程数,定时任务都很轻,少量线程即可
+    private static final int THREADS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    // 超时警告的最小间隔(毫秒)
+    private static final long OVERRUN_WARN_INTERVAL_MILLIS = 60 * 1000L;
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    private ArthasScheduler() {
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor executor() {
+        if (null == executor) {
+            final AtomicInteger sequence = new AtomicInteger();
+            executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "as-scheduler-" + sequence.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * 延时执行一次
+     *
+     * @param name        任务名,用于日志
+     * @param task        任务
+     * @param delayMillis 延时(毫秒)
+     * @return 任务句柄
+     */
+    public static ScheduledTask schedule(String name, Runnable task, long delayMillis) {
+        final ScheduledTask scheduledTask = new ScheduledTask(name, task, 0);
+        scheduledTask.bind(executor().schedule(scheduledTask.runner, Math.max(0, delayMillis),
+                TimeUnit.MILLISECONDS));
+        return scheduledTask;
+    }
+
+    /**
+     * 按固定频率周期执行
+     *
+     * @param name               任务名,用于日志
+     * @param task               任务
+     * @param initialDelayMillis 首次执行的延时(毫秒)
+     * @param periodMillis       周期(毫秒)
+     * @return 任务句柄
+     */
+    public static ScheduledTask scheduleAtFixedRate(String name, Runnable task, long initialDelayMillis,
+                                                    long periodMillis) {
+        final ScheduledTask scheduledTask = new ScheduledTask(name, task, periodMillis);
+        scheduledTask.bind(executor().scheduleAtFixedRate(scheduledTask.runner, Math.max(0, initialDelayMillis),
+                periodMillis, TimeUnit.MILLISECONDS));
+        return scheduledTask;
+    }
+
+    /**
+     * 停止调度器,取消所有任务<br/>
+     * Arthas服务端销毁时调用,之后再提交任务会重新创建线程池
+     */
+    public static synchronized void shutdown() {
+        if (null != executor) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * 清理已取消的任务,长延时的任务取消后不必等到期才从队列中移除
+     */
+    private static synchronized void purge() {
+        if (null != executor) {
+            executor.purge();
+        }
+    }
+
+    /**
+     * 定时任务句柄
+     */
+    public static final class ScheduledTask {
+
+        private final String name;
+        private final Runnable task;
+        private final long periodMillis;
+        private final AtomicLong overruns = new AtomicLong();
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean isCancelled;
+        private long lastWarnMillis;
+
+        private final Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                execute();
+            }
+        };
+
+        private ScheduledTask(String name, Runnable task, long periodMillis) {
+            this.name = name;
+            this.task = task;
+            this.periodMillis = periodMillis;
+        }
+
+        private void bind(ScheduledFuture<?> future) {
+            this.future = future;
+            // 首次执行可能早于句柄绑定,期间已被取消
+            if (isCancelled) {
+                future.cancel(false);
+            }
+        }
+
+        private void execute() {
+            if (isCancelled) {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("scheduled task {} failed.", name, t);
+            }
+
+            final long cost = System.currentTimeMillis() - start;
+            if (periodMillis > 0 && cost > periodMillis) {
+                final long count = overruns.incrementAndGet();
+                if (count == 1 || start - lastWarnMillis >= OVERRUN_WARN_INTERVAL_MILLIS) {
+                    lastWarnMillis = start;
+                    logger.warn("scheduled task {} took {} ms, longer than its period {} ms, {} overrun(s) so far.",
+                            name, cost, periodMillis, count);
+                }
+            }
+        }
+
+        /**
+         * 取消任务,正在执行的本次不会被中断,可以在任务内部调用
+         */
+        public void cancel() {
+            isCancelled = true;
+            final ScheduledFuture<?> f = future;
+            if (null != f && f.cancel(false)) {
+                purge();
+            }
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        /**
+         * @return 单次执行超过周期的次数
+         */
+        public long getOverruns() {
+            return overruns.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+}
@@ -5,6 +5,8 @@ import com.taobao.arthas.core.GlobalOptions;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
@@ -24,6 +26,12 @@ public final class EnhancerAffect extends Affect {
      */
     private final Collection<File> classDumpFiles = new ArrayList<File>();
 
+    /**
+     * 每批retransform的停顿
+     */
+    private final List<RetransformBatch> retransformBatches
+            = Collections.synchronizedList(new ArrayList<RetransformBatch>());
+
     public EnhancerAffect() {
 
     }
@@ -80,6 +88,24 @@ public final class EnhancerAffect extends Affect {
         return classDumpFiles;
     }
 
+    /**
+     * 记录一批retransform
+     *
+     * @param batch 批次停顿
+     */
+    public void retransformBatch(RetransformBatch batch) {
+        retransformBatches.add(batch);
+    }
+
+    /**
+     * 获取每批retransform的停顿
+     *
+     * @return 批次停顿列表
+     */
+    public List<RetransformBatch> getRetransformBatches() {
+        return retransformBatches;
+    }
+
     @Override
     public String toString() {
         final StringBuilder infoSB = new StringBuilder();
@@ -90,6 +116,23 @@ public final class EnhancerAffect extends Affect {
                 infoSB.append("[dump: ").append(classDumpFile.getAbsoluteFile()).append("]\n");
             }
         }
+        synchronized (retransformBatches) {
+            if (retransformBatches.size() > 1) {
+                double maxPause = 0;
+                long gcMillis = 0;
+                long safepointMillis = 0;
+                final StringBuilder pausesSB = new StringBuilder();
+                for (RetransformBatch batch : retransformBatches) {
+                    maxPause = Math.max(maxPause, batch.getPauseMillis());
+                    gcMillis += Math.max(0, batch.getGcMillis());
+                    safepointMillis += Math.max(0, batch.getSafepointMillis());
+                    pausesSB.append(pausesSB.length() == 0 ? "" : ",")
+                            .append(format("%.1f", batch.getPauseMillis()));
+                }
+                infoSB.append(format("[retransform: %d batches, max pause %.1f ms, gc %d ms, safepoint %d ms, pauses(ms): %s]\n",
+                        retransformBatches.size(), maxPause, gcMillis, safepointMillis, pausesSB));
+            }
+        }
         infoSB.append(format("Affect(class-cnt:%d , method-cnt:%d) cost in %s ms.",
                 cCnt(),
                 mCnt(),
@@ -97,4 +140,45 @@ public final class EnhancerAffect extends Affect {
         return infoSB.toString();
     }
 
+    /**
+     * 一批retransform的停顿
+     */
+    public static final class RetransformBatch {
+
+        private final int classCount;
+        private final long pauseNanos;
+        private final long gcMillis;
+        private final long safepointMillis;
+
+        /**
+         * @param classCount      本批的类个数
+         * @param pauseNanos      本批retransform的耗时
+         * @param gcMillis        期间GC的耗时, -1表示无法获取
+         * @param safepointMillis 期间安全点的耗时, -1表示无法获取
+         */
+        public RetransformBatch(int classCount, long pauseNanos, long gcMillis, long safepointMillis) {
+            this.classCount = classCount;
+            this.pauseNanos = pauseNanos;
+            this.gcMillis = gcMillis;
+            this.safepointMillis = safepointMillis;
+        }
+
+        public int getClassCount() {
+            return classCount;
+        }
+
+        public double getPauseMillis() {
+            return pauseNanos / 1000000.0;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        public long getSafepointMillis() {
+            return safepointMillis;
+        }
+
+    }
+
 }
@@ -0,0 +1,98 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * 多线程记录调用耗时,定期取出统计结果。
+ * 计数分散在多个单元中,线程按线程ID选择单元,不同线程很少更新同一个计数,
+ * 记录只做几次原子加法,不需要加锁、不分配对象,线程数增加时开销保持平稳。
+ * 单元在第一次被使用时才创建,单线程调用的方法只占用一个单元。
+ * </pre>
+ */
+public class LatencyRecorder {
+
+    // 单元数量,不小于CPU数的最小的2的幂,最多64个
+    private static final int CELL_COUNT = cellCount(Runtime.getRuntime().availableProcessors());
+
+    // 单元内的布局:前后各留一个缓存行,避免与相邻对象伪共享
+    private static final int PADDING = 8;
+    private static final int SUCCESS = PADDING;
+    private static final int FAILED = PADDING + 1;
+    private static final int TOTAL_NANOS = PADDING + 2;
+    private static final int MAX_NANOS = PADDING + 3;
+    private static final int BUCKETS = PADDING + 4;
+    private static final int CELL_LENGTH = BUCKETS + LatencyStats.BUCKET_COUNT + PADDING;
+
+    private final AtomicReferenceArray<AtomicLongArray> cells = new AtomicReferenceArray<AtomicLongArray>(CELL_COUNT);
+
+    static int cellCount(int processors) {
+        int count = 1;
+        while (count < processors && count < 64) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    /**
+     * 记录一次调用
+     *
+     * @param costNanos 耗时(纳秒)
+     * @param isFailed  是否失败
+     */
+    public void record(long costNanos, boolean isFailed) {
+        final AtomicLongArray cell = cell();
+        cell.incrementAndGet(isFailed ? FAILED : SUCCESS);
+        cell.addAndGet(TOTAL_NANOS, costNanos);
+        cell.incrementAndGet(BUCKETS + LatencyStats.bucketIndex(costNanos));
+
+        // 最大值很少被刷新,绝大多数调用只需要一次读
+        long max;
+        while (costNanos > (max = cell.get(MAX_NANOS))) {
+            if (cell.compareAndSet(MAX_NANOS, max, costNanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 取出自上次取出以来的统计,并清零<br/>
+     * 取出期间并发的记录不会丢失,会计入本次或者下次的统计
+     *
+     * @return 统计结果
+     */
+    public LatencyStats drain() {
+        final LatencyStats stats = new LatencyStats();
+        final long[] counts = new long[LatencyStats.BUCKET_COUNT];
+        for (int index = 0; index < CELL_COUNT; index++) {
+            final AtomicLongArray cell = cells.get(index);
+            if (null == cell) {
+                continue;
+            }
+            stats.add(cell.getAndSet(SUCCESS, 0),
+                    cell.getAndSet(FAILED, 0),
+                    cell.getAndSet(TOTAL_NANOS, 0),
+                    cell.getAndSet(MAX_NANOS, 0));
+            for (int bucket = 0; bucket < LatencyStats.BUCKET_COUNT; bucket++) {
+                if (cell.get(BUCKETS + bucket) != 0) {
+                    counts[bucket] += cell.getAndSet(BUCKETS + bucket, 0);
+                }
+            }
+        }
+        stats.addBuckets(counts);
+        return stats;
+    }
+
+    private AtomicLongArray cell() {
+        // 线程ID顺序分配,取模后均匀分布
+        final int index = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+        AtomicLongArray cell = cells.get(index);
+        if (null == cell) {
+            cells.compareAndSet(index, null, new AtomicLongArray(CELL_LENGTH));
+            cell = cells.get(index);
+        }
+        return cell;
+    }
+
+}
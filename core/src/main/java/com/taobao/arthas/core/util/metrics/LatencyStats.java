@@ -0,0 +1,178 @@
+package com.taobao.arthas.core.util.metrics;
+
+/**
+ * <pre>
+ * 一段时间内的调用统计:成功/失败次数、总耗时、最大耗时以及耗时直方图。
+ * 直方图按2的幂分段,每段再等分为8个桶,桶内的相对误差不超过12.5%,
+ * 覆盖0~2^40纳秒(约18分钟),更大的耗时计入最后一个桶。
+ * 只保存有计数的桶的范围,调用耗时集中时占用的内存很少,适合长期保留。
+ * </pre>
+ *
+ * 非线程安全,由{@link LatencyRecorder#drain()}生成
+ */
+public class LatencyStats {
+
+    // 每段的桶数 = 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // 可以区分的最大耗时 = 2^MAX_EXPONENT - 1 纳秒
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_TRACKABLE_NANOS = (1L << MAX_EXPONENT) - 1;
+
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private long success;
+    private long failed;
+    private long totalNanos;
+    private long maxNanos;
+
+    // buckets[i]为第firstBucket+i个桶的计数
+    private int firstBucket = 0;
+    private long[] buckets = new long[0];
+
+    /**
+     * 耗时所在的桶
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        if (nanos > MAX_TRACKABLE_NANOS) {
+            nanos = MAX_TRACKABLE_NANOS;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((nanos >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * 桶内的最大耗时
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    void add(long success, long failed, long totalNanos, long maxNanos) {
+        this.success += success;
+        this.failed += failed;
+        this.totalNanos += totalNanos;
+        this.maxNanos = Math.max(this.maxNanos, maxNanos);
+    }
+
+    /**
+     * 合并完整的直方图
+     *
+     * @param counts 各桶的计数,长度为{@link #BUCKET_COUNT}
+     */
+    void addBuckets(long[] counts) {
+        int first = 0;
+        while (first < counts.length && counts[first] == 0) {
+            first++;
+        }
+        if (first == counts.length) {
+            return;
+        }
+        int last = counts.length - 1;
+        while (counts[last] == 0) {
+            last--;
+        }
+        ensureRange(first, last);
+        for (int index = first; index <= last; index++) {
+            buckets[index - firstBucket] += counts[index];
+        }
+    }
+
+    private void ensureRange(int first, int last) {
+        if (buckets.length == 0) {
+            firstBucket = first;
+            buckets = new long[last - first + 1];
+            return;
+        }
+        final int newFirst = Math.min(firstBucket, first);
+        final int newLast = Math.max(firstBucket + buckets.length - 1, last);
+        if (newFirst == firstBucket && newLast - newFirst + 1 == buckets.length) {
+            return;
+        }
+        final long[] newBuckets = new long[newLast - newFirst + 1];
+        System.arraycopy(buckets, 0, newBuckets, firstBucket - newFirst, buckets.length);
+        firstBucket = newFirst;
+        buckets = newBuckets;
+    }
+
+    /**
+     * 合并另一段时间的统计
+     *
+     * @param other 另一段时间的统计
+     */
+    public void add(LatencyStats other) {
+        add(other.success, other.failed, other.totalNanos, other.maxNanos);
+        if (other.buckets.length == 0) {
+            return;
+        }
+        ensureRange(other.firstBucket, other.firstBucket + other.buckets.length - 1);
+        for (int index = 0; index < other.buckets.length; index++) {
+            buckets[other.firstBucket - firstBucket + index] += other.buckets[index];
+        }
+    }
+
+    public long getTotal() {
+        return success + failed;
+    }
+
+    public long getSuccess() {
+        return success;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return 平均耗时(纳秒), 没有调用时返回0
+     */
+    public double getAvgNanos() {
+        final long total = getTotal();
+        return total == 0 ? 0 : (double) totalNanos / total;
+    }
+
+    /**
+     * 耗时分位数,取所在桶的上界,不超过最大耗时
+     *
+     * @param percentile 分位,如0.99
+     * @return 耗时(纳秒), 没有调用时返回0
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(percentile * count));
+        long cumulative = 0;
+        for (int index = 0; index < buckets.length; index++) {
+            cumulative += buckets[index];
+            if (cumulative >= rank) {
+                return Math.min(bucketUpperBound(firstBucket + index), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+}
@@ -158,6 +158,48 @@ public class TreeView implements View {
         return this;
     }
 
+    /**
+     * 创建一个已经统计好耗时的分支节点<br/>
+     * 用于把记录下来的调用树转为视图,节点的耗时取自记录而不是视图自己计时,
+     * 与{@link #up()}配对使用
+     *
+     * @param data      节点数据
+     * @param times     调用次数
+     * @param totalCost 总耗时(纳秒)
+     * @param minCost   最小耗时(纳秒)
+     * @param maxCost   最大耗时(纳秒)
+     * @param mark      备注, 没有时为null
+     * @param marks     备注次数
+     * @return this
+     */
+    public TreeView begin(String data, long times, long totalCost, long minCost, long maxCost,
+                          String mark, long marks) {
+        Node n = current.find(data);
+        if (n == null) {
+            n = new Node(current, data);
+        }
+        n.record(times, totalCost, minCost, maxCost);
+        if (null != mark) {
+            n.mark = mark;
+            n.marks += marks;
+        }
+        current = n;
+        return this;
+    }
+
+    /**
+     * 回到上一级节点,不计时
+     *
+     * @return this
+     */
+    public TreeView up() {
+        if (current.isRoot()) {
+            throw new IllegalStateException("current node is root.");
+        }
+        current = current.parent;
+        return this;
+    }
+
 
     /**
      * 树节点
@@ -263,6 +305,17 @@ public class TreeView implements View {
             return this;
         }
 
+        Node record(long times, long totalCost, long minCost, long maxCost) {
+            this.times += times;
+            this.totalCost += totalCost;
+            this.minCost = Math.min(this.minCost, minCost);
+            this.maxCost = Math.max(this.maxCost, maxCost);
+            // 只有一次调用时展示的是本次耗时
+            this.beginTimestamp = 0;
+            this.endTimestamp = this.totalCost;
+            return this;
+        }
+
         Node mark(String mark) {
             this.mark = mark;
             marks++;
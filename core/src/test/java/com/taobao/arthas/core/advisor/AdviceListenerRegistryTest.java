@@ -0,0 +1,120 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.arthas.Spy;
+
+public class AdviceListenerRegistryTest {
+
+    @After
+    public void tearDown() {
+        for (int adviceId : new int[]{1, 2, 17, 1024}) {
+            AdviceListenerRegistry.remove(adviceId);
+        }
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        AdviceListener listener = new AdviceListenerAdapter() {
+        };
+        AdviceListenerRegistry.put(1, listener);
+        Assert.assertSame(listener, AdviceListenerRegistry.get(1));
+        Assert.assertNull(AdviceListenerRegistry.get(2));
+
+        Assert.assertSame(listener, AdviceListenerRegistry.remove(1));
+        Assert.assertNull(AdviceListenerRegistry.get(1));
+        Assert.assertNull(AdviceListenerRegistry.remove(1));
+    }
+
+    @Test
+    public void testSlotCollision() {
+        AdviceListener first = new AdviceListenerAdapter() {
+        };
+        AdviceListener second = new AdviceListenerAdapter() {
+        };
+        AdviceListener third = new AdviceListenerAdapter() {
+        };
+        AdviceListenerRegistry.put(1, first);
+        AdviceListenerRegistry.put(17, second);
+        AdviceListenerRegistry.put(1024, third);
+        Assert.assertSame(first, AdviceListenerRegistry.get(1));
+        Assert.assertSame(second, AdviceListenerRegistry.get(17));
+        Assert.assertSame(third, AdviceListenerRegistry.get(1024));
+
+        // 已注销的ID不能命中复用其槽位的监听器
+        AdviceListenerRegistry.remove(1);
+        Assert.assertNull(AdviceListenerRegistry.get(1));
+        Assert.assertSame(second, AdviceListenerRegistry.get(17));
+    }
+
+    @Test
+    public void testPublishActiveAdviceIds() {
+        AdviceListenerRegistry.put(17, new AdviceListenerAdapter() {
+        });
+        Assert.assertTrue(Spy.isActive(17));
+        Assert.assertFalse(Spy.isActive(1));
+
+        AdviceListenerRegistry.remove(17);
+        Assert.assertFalse(Spy.isActive(17));
+    }
+
+    @Test
+    public void testPublishSampler() {
+        AdviceListenerRegistry.sample(2, new Spy.AbstractSampler() {
+            @Override
+            public boolean sample() {
+                return false;
+            }
+        });
+        AdviceListenerRegistry.put(2, new AdviceListenerAdapter() {
+        });
+        Assert.assertFalse(Spy.isActive(2));
+
+        AdviceListenerRegistry.sample(2, null);
+        Assert.assertTrue(Spy.isActive(2));
+    }
+
+    @Test
+    public void testReuseSlot() {
+        final int adviceId = AdviceIdPool.acquire();
+        AdviceListenerRegistry.put(adviceId, new AdviceListenerAdapter() {
+        });
+        Assert.assertTrue(Spy.isActive(adviceId));
+        AdviceListenerRegistry.remove(adviceId);
+        AdviceIdPool.release(adviceId);
+
+        // 槽位复用,但残留的旧通知ID不会命中新的通知
+        final int reused = AdviceIdPool.acquire();
+        Assert.assertEquals(AdviceIdPool.slot(adviceId), AdviceIdPool.slot(reused));
+        Assert.assertTrue(reused != adviceId);
+        AdviceListenerRegistry.put(reused, new AdviceListenerAdapter() {
+        });
+        Assert.assertTrue(Spy.isActive(reused));
+        Assert.assertFalse(Spy.isActive(adviceId));
+        AdviceListenerRegistry.remove(reused);
+        AdviceIdPool.release(reused);
+    }
+
+    @Test
+    public void testBoundedTable() {
+        AdviceListenerRegistry.put(1, new AdviceListenerAdapter() {
+        });
+        try {
+            AdviceListenerRegistry.put(1 + (1 << 20), new AdviceListenerAdapter() {
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // 槽位冲突
+        }
+        Assert.assertTrue(Spy.isActive(1));
+        Assert.assertTrue(Spy.ACTIVE_ADVICE_IDS.length <= AdviceIdPool.MAX_SLOTS);
+
+        AdviceListenerRegistry.put(Integer.MIN_VALUE + 2, new AdviceListenerAdapter() {
+        });
+        Assert.assertTrue(Spy.ACTIVE_ADVICE_IDS.length <= AdviceIdPool.MAX_SLOTS);
+        AdviceListenerRegistry.remove(Integer.MIN_VALUE + 2);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdviceMeterTest {
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final AdviceMeter meter = new AdviceMeter();
+        final int threads = 8;
+        final int times = 10000;
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    for (int time = 0; time < times; time++) {
+                        meter.addSelf(1);
+                        meter.addMethod(3);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertEquals(threads * times, meter.selfNanos());
+        Assert.assertEquals(3L * threads * times, meter.methodNanos());
+    }
+
+}
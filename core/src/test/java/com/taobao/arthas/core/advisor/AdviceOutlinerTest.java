@@ -0,0 +1,179 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.IOUtils;
+import com.taobao.arthas.core.util.affect.EnhancerAffect;
+import com.taobao.arthas.core.util.matcher.WildcardMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.InputStream;
+
+public class AdviceOutlinerTest {
+
+    // HotSpot的-XX:MaxInlineSize缺省值,不超过它的方法即使不热也会被内联
+    private static final int MAX_INLINE_SIZE = 35;
+
+    public static class Bean {
+        private String value = "value";
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    @Test
+    public void testOutlinedGetterRemainsInlineable() throws Exception {
+        final byte[] originalBytes = readBean();
+        final TestClassLoader loader = new TestClassLoader();
+        final String className = new ClassReader(originalBytes).getClassName();
+
+        final AdviceOutliner outliner = new AdviceOutliner(loader, className);
+        final byte[] outlinedBytes = weave(originalBytes, loader, outliner);
+        final byte[] inlinedBytes = weave(originalBytes, loader, null);
+
+        final int originalSize = codeLength(originalBytes, "getValue");
+        final int outlinedSize = codeLength(outlinedBytes, "getValue");
+        final int inlinedSize = codeLength(inlinedBytes, "getValue");
+        Assert.assertTrue("outlined getter is " + outlinedSize + " bytes", outlinedSize <= MAX_INLINE_SIZE);
+        Assert.assertTrue("inlined getter is " + inlinedSize + " bytes", inlinedSize > MAX_INLINE_SIZE);
+        Assert.assertTrue(originalSize < outlinedSize);
+
+        // 伴生类定义后,编织后的类可以正常执行
+        outliner.define();
+        final Class<?> beanClass = loader.define(Bean.class.getName(), outlinedBytes);
+        Assert.assertEquals("value", beanClass.getMethod("getValue").invoke(beanClass.newInstance()));
+    }
+
+    @Test
+    public void testReuseCompanion() throws Exception {
+        final byte[] originalBytes = readBean();
+        final TestClassLoader loader = new TestClassLoader();
+        final String className = new ClassReader(originalBytes).getClassName();
+
+        // 方法编号按类分配,重新编织时保持不变
+        final AdviceOutliner outliner = new AdviceOutliner(loader, className);
+        weave(originalBytes, loader, Bean.class, 1, "getValue", outliner);
+        outliner.define();
+
+        // 其他通知重新编织同一个类时复用已定义的伴生类,不会重复定义
+        final AdviceOutliner again = new AdviceOutliner(loader, className);
+        final byte[] againBytes = weave(originalBytes, loader, Bean.class, 2, "getValue", again);
+        Assert.assertEquals(outliner.getCompanionType(), again.getCompanionType());
+        Assert.assertTrue(again.isComplete());
+        again.define();
+        final Class<?> beanClass = loader.define(Bean.class.getName(), againBytes);
+        Assert.assertEquals("value", beanClass.getMethod("getValue").invoke(beanClass.newInstance()));
+
+        // 需要新的辅助方法时定义新的伴生类,其中包含之前的辅助方法,之后两种编织都复用它
+        final AdviceOutliner other = new AdviceOutliner(loader, className);
+        weave(originalBytes, loader, Bean.class, 3, "<init>", other);
+        Assert.assertFalse(other.isComplete());
+        final AdviceOutliner merged = new AdviceOutliner(loader, className, false);
+        weave(originalBytes, loader, Bean.class, 3, "<init>", merged);
+        merged.define();
+        Assert.assertFalse(outliner.getCompanionType().equals(merged.getCompanionType()));
+
+        final AdviceOutliner reuse = new AdviceOutliner(loader, className);
+        weave(originalBytes, loader, Bean.class, 4, "getValue", reuse);
+        Assert.assertEquals(merged.getCompanionType(), reuse.getCompanionType());
+        Assert.assertTrue(reuse.isComplete());
+    }
+
+    @Test
+    public void testCompanion() {
+        final AdviceOutliner outliner = new AdviceOutliner(getClass().getClassLoader(), "demo/Foo");
+        Assert.assertTrue(AdviceOutliner.isCompanion(outliner.getCompanionType().getInternalName()));
+        Assert.assertTrue(AdviceOutliner.isCompanion(outliner.getCompanionType().getClassName()));
+        Assert.assertFalse(AdviceOutliner.isOutlinable(getClass().getClassLoader(),
+                outliner.getCompanionType().getInternalName()));
+        Assert.assertFalse(AdviceOutliner.isOutlinable(null, "demo/Foo"));
+        Assert.assertTrue(AdviceOutliner.isOutlinable(getClass().getClassLoader(), "demo/Foo"));
+    }
+
+    private static byte[] weave(byte[] classBytes, final ClassLoader loader, AdviceOutliner outliner) {
+        // 实际的通知ID带有代数,不能用一个字节的指令压栈
+        return weave(classBytes, loader, null, 1 << 10 | 1, "getValue", outliner);
+    }
+
+    private static byte[] weave(byte[] classBytes, final ClassLoader loader, Class<?> clazz, int adviceId,
+                                String methodName, AdviceOutliner outliner) {
+        final ClassReader cr = new ClassReader(classBytes);
+        final ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return TypeHierarchyResolver.getCommonSuperClass(loader, type1, type2);
+            }
+        };
+        cr.accept(new AdviceWeaver(adviceId, false, false, AdviceCapability.ALL, loader, clazz, cr.getClassName(),
+                new WildcardMatcher(methodName), new EnhancerAffect(), outliner, cw), ClassReader.EXPAND_FRAMES);
+        return cw.toByteArray();
+    }
+
+    private static byte[] readBean() throws Exception {
+        final InputStream is = Bean.class.getResourceAsStream("/" + Bean.class.getName().replace('.', '/') + ".class");
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * 从类文件中读取方法的字节码长度
+     */
+    private static int codeLength(byte[] classBytes, String methodName) {
+        final ClassReader cr = new ClassReader(classBytes);
+        final char[] buf = new char[cr.getMaxStringLength()];
+        int offset = cr.header + 6;
+        offset += 2 + 2 * cr.readUnsignedShort(offset);
+
+        // 跳过字段
+        int count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int index = 0; index < count; index++) {
+            offset = skipMember(cr, offset);
+        }
+
+        count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int index = 0; index < count; index++) {
+            final String name = cr.readUTF8(offset + 2, buf);
+            if (methodName.equals(name)) {
+                int attributeOffset = offset + 8;
+                final int attributeCount = cr.readUnsignedShort(offset + 6);
+                for (int attribute = 0; attribute < attributeCount; attribute++) {
+                    if ("Code".equals(cr.readUTF8(attributeOffset, buf))) {
+                        // max_stack(2) max_locals(2) code_length(4)
+                        return cr.readInt(attributeOffset + 6 + 4);
+                    }
+                    attributeOffset += 6 + cr.readInt(attributeOffset + 2);
+                }
+            }
+            offset = skipMember(cr, offset);
+        }
+        throw new IllegalArgumentException(methodName);
+    }
+
+    private static int skipMember(ClassReader cr, int offset) {
+        final int attributeCount = cr.readUnsignedShort(offset + 6);
+        offset += 8;
+        for (int attribute = 0; attribute < attributeCount; attribute++) {
+            offset += 6 + cr.readInt(offset + 2);
+        }
+        return offset;
+    }
+
+    private static class TestClassLoader extends ClassLoader {
+
+        TestClassLoader() {
+            super(AdviceOutlinerTest.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
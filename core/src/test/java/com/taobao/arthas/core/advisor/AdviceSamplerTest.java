@@ -0,0 +1,106 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.arthas.Spy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdviceSamplerTest {
+
+    @Test
+    public void testRatio() {
+        AdviceSampler sampler = AdviceSampler.parse("0.25");
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(25, sampled);
+        Assert.assertEquals("1/4", sampler.toString());
+    }
+
+    @Test
+    public void testExactRatio() {
+        AdviceSampler sampler = AdviceSampler.parse("0.75");
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(750, sampled);
+        Assert.assertEquals("0.75", sampler.toString());
+    }
+
+    @Test
+    public void testBoth() {
+        Spy.AbstractSampler sampler = AdviceSampler.both(AdviceSampler.parse("0.1"),
+                new AdviceSampler.RatioSampler(0.1));
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(100, sampled);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnrepresentableRatio() {
+        AdviceSampler.parse("0.0000001");
+    }
+
+    @Test
+    public void testRate() {
+        AdviceSampler sampler = AdviceSampler.parse("10/s");
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        // 循环可能跨越一秒的边界
+        Assert.assertTrue(sampled >= 10 && sampled <= 20);
+    }
+
+    @Test
+    public void testRateWithConcurrentThreads() throws Exception {
+        final AdviceSampler sampler = AdviceSampler.parse("100/s");
+        final AtomicInteger sampled = new AtomicInteger();
+        final Thread[] threads = new Thread[8];
+        final long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        if (sampler.sample()) {
+                            sampled.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 每个经过的窗口最多通知100次,切换窗口时不能丢失计数
+        final long windows = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + 2;
+        Assert.assertTrue(sampled.get() >= 100 && sampled.get() <= 100 * windows);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRatio() {
+        AdviceSampler.parse("2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRate() {
+        AdviceSampler.parse("abc/s");
+    }
+
+}
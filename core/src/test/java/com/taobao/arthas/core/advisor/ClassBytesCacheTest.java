@@ -0,0 +1,111 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.GlobalOptions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class ClassBytesCacheTest {
+
+    private long budget;
+
+    @Before
+    public void setUp() {
+        budget = GlobalOptions.classBytesCacheBudget;
+    }
+
+    @After
+    public void tearDown() {
+        GlobalOptions.classBytesCacheBudget = budget;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        final ClassBytesCache cache = new ClassBytesCache();
+        final byte[] woven = bytes(12000, 2);
+
+        Assert.assertNull(cache.getWoven(String.class));
+        cache.put(String.class, woven, ids(1));
+        Assert.assertArrayEquals(woven, cache.getWoven(String.class));
+
+        final byte[] rewoven = bytes(13000, 3);
+        cache.put(String.class, rewoven, ids(1, 2));
+        Assert.assertArrayEquals(rewoven, cache.getWoven(String.class));
+        Assert.assertEquals(ids(1, 2), cache.getAdviceIds(String.class));
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(rewoven.length, cache.getRawBytes());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        cache.remove(String.class);
+        Assert.assertNull(cache.getWoven(String.class));
+        Assert.assertNull(cache.getAdviceIds(String.class));
+        Assert.assertEquals(0, cache.getRawBytes());
+        Assert.assertEquals(0, cache.getCompressedBytes());
+    }
+
+    @Test
+    public void testUnloadedClassNotCounted() throws Exception {
+        GlobalOptions.classBytesCacheBudget = 1;
+        final ClassBytesCache cache = new ClassBytesCache();
+
+        // 只被缓存引用的类,模拟被卸载的类
+        ClassLoader loader = new URLClassLoader(
+                new URL[]{ClassBytesCacheTest.class.getProtectionDomain().getCodeSource().getLocation()}, null);
+        cache.put(loader.loadClass(ClassBytesCacheTest.class.getName()), bytes(600 * 1024, 1),
+                Collections.<Integer>emptySet());
+        loader = null;
+        for (int i = 0; i < 10 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getCompressedBytes());
+
+        // 被卸载的类不再占用预算,不会淘汰其他类
+        cache.put(String.class, bytes(600 * 1024, 2), Collections.<Integer>emptySet());
+        cache.put(Integer.class, bytes(300 * 1024, 3), Collections.<Integer>emptySet());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyEnhanced() {
+        GlobalOptions.classBytesCacheBudget = 1;
+        final ClassBytesCache cache = new ClassBytesCache();
+
+        // 随机字节几乎无法压缩,每个类约400K
+        cache.put(String.class, bytes(400 * 1024, 1), Collections.<Integer>emptySet());
+        cache.put(Integer.class, bytes(400 * 1024, 2), Collections.<Integer>emptySet());
+        cache.put(String.class, bytes(400 * 1024, 3), Collections.<Integer>emptySet());
+        cache.put(Long.class, bytes(400 * 1024, 4), Collections.<Integer>emptySet());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.getWoven(Integer.class));
+        Assert.assertNotNull(cache.getWoven(String.class));
+        Assert.assertNotNull(cache.getWoven(Long.class));
+        Assert.assertTrue(cache.getCompressedBytes() <= 1024 * 1024);
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        return new HashSet<Integer>(Arrays.asList(ids));
+    }
+
+    private static byte[] bytes(int length, long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class ClassFingerprintTest {
+
+    @Test
+    public void testRewrittenClassHasSameFingerprint() throws Exception {
+        final byte[] classBytes = classBytes(ClassFingerprintTest.class);
+
+        // 去掉调试信息、重新生成常量池,模拟JVM重新生成的字节码
+        final ClassWriter cw = new ClassWriter(0);
+        new ClassReader(classBytes).accept(cw, ClassReader.SKIP_DEBUG);
+        final byte[] rewritten = cw.toByteArray();
+
+        Assert.assertFalse(Arrays.equals(classBytes, rewritten));
+        Assert.assertTrue(ClassFingerprint.isEquals(ClassFingerprint.of(classBytes), rewritten));
+    }
+
+    @Test
+    public void testModifiedClassHasDifferentFingerprint() throws Exception {
+        final byte[] classBytes = classBytes(ClassFingerprintTest.class);
+
+        // 在每个方法入口插入一条NOP
+        final ClassWriter cw = new ClassWriter(0);
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM7, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM7, super.visitMethod(access, name, desc, signature, exceptions)) {
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        super.visitInsn(Opcodes.NOP);
+                    }
+                };
+            }
+        }, 0);
+
+        Assert.assertFalse(ClassFingerprint.isEquals(ClassFingerprint.of(classBytes), cw.toByteArray()));
+    }
+
+    @Test
+    public void testSameClassByChecksum() throws Exception {
+        final byte[] classBytes = classBytes(ClassFingerprintTest.class);
+        final ClassWriter cw = new ClassWriter(0);
+        new ClassReader(classBytes).accept(cw, ClassReader.SKIP_DEBUG);
+        final byte[] rewritten = cw.toByteArray();
+        final long checksum = ClassFingerprint.checksum(classBytes);
+
+        Assert.assertTrue(ClassFingerprint.isSameClass(ClassFingerprintTest.class, checksum,
+                ClassFingerprint.of(classBytes), rewritten));
+        // 确认过之后只比较校验和,不再使用指纹
+        Assert.assertTrue(ClassFingerprint.isSameClass(ClassFingerprintTest.class, checksum, null, rewritten));
+        // 校验和不同时依然比较指纹
+        Assert.assertFalse(ClassFingerprint.isSameClass(ClassFingerprintTest.class, checksum,
+                ClassFingerprint.of(classBytes(AdviceMeter.class)), classBytes));
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws Exception {
+        final InputStream is = clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+public class MethodResolverTest {
+
+    private static final String CLASS_NAME = "com/taobao/arthas/core/advisor/MethodResolverTest";
+
+    public MethodResolverTest() {
+    }
+
+    public static class Fixture {
+        public void run() {
+        }
+    }
+
+    public int sum(int[] values, long offset) {
+        return values.length + (int) offset;
+    }
+
+    @Test
+    public void testResolveMethod() throws Exception {
+        ClassLoader loader = MethodResolverTest.class.getClassLoader();
+        ArthasMethod method = MethodResolver.resolve(loader, CLASS_NAME, "sum", "([IJ)I");
+        Assert.assertEquals("sum", method.getName());
+        Assert.assertSame(MethodResolverTest.class, method.getDeclaringClass());
+        Assert.assertSame(method, MethodResolver.resolve(loader, CLASS_NAME, "sum", "([IJ)I"));
+    }
+
+    @Test
+    public void testResolveConstructor() throws Exception {
+        ClassLoader loader = MethodResolverTest.class.getClassLoader();
+        ArthasMethod method = MethodResolver.resolve(loader, CLASS_NAME, "<init>", "()V");
+        Assert.assertSame(MethodResolverTest.class, method.getDeclaringClass());
+        Assert.assertSame(method, MethodResolver.resolve(loader, CLASS_NAME, "<init>", "()V"));
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testResolveNotExist() throws Exception {
+        MethodResolver.resolve(MethodResolverTest.class.getClassLoader(), CLASS_NAME, "notExist", "()V");
+    }
+
+    @Test
+    public void testNotPinClassLoader() throws Exception {
+        final URL classes = MethodResolverTest.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[]{classes}, null);
+        ArthasMethod method = MethodResolver.resolve(loader, CLASS_NAME + "$Fixture", "run", "()V");
+        Assert.assertSame(loader, method.getDeclaringClass().getClassLoader());
+
+        final WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        method = null;
+        for (int i = 0; i < 50 && null != ref.get(); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RetransformCoordinatorTest {
+
+    private final RetransformCoordinator coordinator = new RetransformCoordinator();
+
+    // 记录每次执行合并后的任务
+    private final List<List<String>> groups = Collections.synchronizedList(new ArrayList<List<String>>());
+
+    // 任务"A"执行时阻塞,直到被放行
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private final RetransformCoordinator.GroupRetransformer<String> retransformer
+            = new RetransformCoordinator.GroupRetransformer<String>() {
+        @Override
+        public void retransform(Instrumentation inst, List<String> tasks, Set<Class<?>> classes) {
+            groups.add(new ArrayList<String>(tasks));
+            if (tasks.contains("A")) {
+                entered.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    };
+
+    @Test
+    public void testDisjointInParallel() throws Exception {
+        final Thread a = submit("A", String.class);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // A还在执行,不重叠的B可以直接完成
+        coordinator.retransform(null, retransformer, "B", classes(Integer.class));
+
+        released.countDown();
+        a.join(5000);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("A"), Arrays.asList("B")), groups);
+    }
+
+    @Test
+    public void testOverlappingMerged() throws Exception {
+        final Thread a = submit("A", String.class);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // B和C都与A重叠,等待A完成后被合并为一次执行
+        final Thread b = submit("B", String.class, Integer.class);
+        final Thread c = submit("C", String.class, Long.class);
+        awaitWaiting(b);
+        awaitWaiting(c);
+
+        released.countDown();
+        a.join(5000);
+        b.join(5000);
+        c.join(5000);
+
+        Assert.assertEquals(2, groups.size());
+        Assert.assertEquals(Arrays.asList("A"), groups.get(0));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("B", "C")), new HashSet<String>(groups.get(1)));
+    }
+
+    private Thread submit(final String task, final Class<?>... classes) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    coordinator.retransform(null, retransformer, task, classes(classes));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static Set<Class<?>> classes(Class<?>... classes) {
+        return new HashSet<Class<?>>(Arrays.asList(classes));
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.affect.EnhancerAffect;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RetransformSchedulerTest {
+
+    private long pauseBudget;
+    private long interval;
+
+    @Before
+    public void setUp() {
+        pauseBudget = GlobalOptions.retransformPauseBudget;
+        interval = GlobalOptions.retransformInterval;
+        GlobalOptions.retransformInterval = 0;
+    }
+
+    @After
+    public void tearDown() {
+        GlobalOptions.retransformPauseBudget = pauseBudget;
+        GlobalOptions.retransformInterval = interval;
+    }
+
+    @Test
+    public void testBatchesFitPauseBudget() throws Exception {
+        GlobalOptions.retransformPauseBudget = 10;
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final EnhancerAffect affect = new EnhancerAffect();
+
+        // 每个类耗时至少1ms
+        RetransformScheduler.retransform(instrumentation(batchSizes, 1), classes(50), affect);
+
+        int total = 0;
+        for (int batchSize : batchSizes) {
+            total += batchSize;
+        }
+        Assert.assertEquals(50, total);
+        Assert.assertEquals(8, (int) batchSizes.get(0));
+        for (int index = 1; index < batchSizes.size(); index++) {
+            Assert.assertTrue(batchSizes.get(index) <= 10);
+        }
+        Assert.assertEquals(batchSizes.size(), affect.getRetransformBatches().size());
+    }
+
+    @Test
+    public void testSingleBatchWithoutBudget() throws Exception {
+        GlobalOptions.retransformPauseBudget = 0;
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final EnhancerAffect affect = new EnhancerAffect();
+
+        RetransformScheduler.retransform(instrumentation(batchSizes, 0), classes(50), affect);
+
+        Assert.assertEquals(1, batchSizes.size());
+        Assert.assertEquals(50, (int) batchSizes.get(0));
+        Assert.assertEquals(1, affect.getRetransformBatches().size());
+    }
+
+    private static List<Class<?>> classes(int count) {
+        final List<Class<?>> classes = new ArrayList<Class<?>>(count);
+        for (int index = 0; index < count; index++) {
+            classes.add(RetransformSchedulerTest.class);
+        }
+        return classes;
+    }
+
+    private static Instrumentation instrumentation(final List<Integer> batchSizes, final long millisPerClass) {
+        return (Instrumentation) Proxy.newProxyInstance(RetransformSchedulerTest.class.getClassLoader(),
+                new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("retransformClasses".equals(method.getName())) {
+                            final Class<?>[] batch = (Class<?>[]) args[0];
+                            batchSizes.add(batch.length);
+                            Thread.sleep(millisPerClass * batch.length);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+}
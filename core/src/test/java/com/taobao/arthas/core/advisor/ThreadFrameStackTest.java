@@ -0,0 +1,70 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadFrameStackTest {
+
+    @Test
+    public void testPopEmpty() {
+        ThreadFrameStack stack = new ThreadFrameStack();
+        Assert.assertEquals(-1, stack.pop());
+    }
+
+    @Test
+    public void testPushAndPop() {
+        ThreadFrameStack stack = new ThreadFrameStack();
+        Object target = new Object();
+        Object[] args = new Object[]{1};
+        WovenMethod method = new WovenMethod(0, null, ThreadFrameStackTest.class, "a/B", "m", "()V");
+        long before = System.nanoTime();
+        stack.push(method, target, args, null, null);
+
+        int frame = stack.pop();
+        Assert.assertEquals(0, frame);
+        Assert.assertSame(method, stack.method(frame));
+        Assert.assertSame(target, stack.target(frame));
+        Assert.assertSame(args, stack.args(frame));
+        // System.nanoTime()可能为负数,只能比较先后
+        Assert.assertTrue(stack.timestamp(frame) - before >= 0);
+
+        stack.clear(frame);
+        Assert.assertNull(stack.target(frame));
+        Assert.assertEquals(-1, stack.pop());
+    }
+
+    @Test
+    public void testDeepStack() {
+        ThreadFrameStack stack = new ThreadFrameStack();
+        for (int i = 0; i < 100; i++) {
+            stack.push(new WovenMethod(i, null, ThreadFrameStackTest.class, "C", "m" + i, "()V"), null, null, null, null);
+        }
+        for (int i = 99; i >= 0; i--) {
+            int frame = stack.pop();
+            Assert.assertEquals(i, frame);
+            Assert.assertEquals("m" + i, stack.method(frame).getMethodName());
+            stack.clear(frame);
+        }
+        Assert.assertEquals(-1, stack.pop());
+
+        // 扩容后的空间被保留复用
+        final int capacity = stack.capacity();
+        Assert.assertTrue(capacity >= 100);
+        WovenMethod again = new WovenMethod(100, null, ThreadFrameStackTest.class, "C", "again", "()V");
+        stack.push(again, null, null, null, null);
+        stack.clear(stack.pop());
+        Assert.assertEquals(capacity, stack.capacity());
+
+        // 长时间用不到时才缩容
+        for (int i = 0; i < 2000; i++) {
+            stack.push(again, null, null, null, null);
+            stack.clear(stack.pop());
+        }
+        Assert.assertTrue(stack.capacity() < capacity);
+
+        // 缩容之后依然可以正常使用
+        stack.push(again, null, null, null, null);
+        Assert.assertEquals("again", stack.method(stack.pop()).getMethodName());
+    }
+
+}
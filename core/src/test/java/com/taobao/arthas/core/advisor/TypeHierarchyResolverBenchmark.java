@@ -0,0 +1,103 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.IOUtils;
+import com.taobao.arthas.core.util.affect.EnhancerAffect;
+import com.taobao.arthas.core.util.matcher.TrueMatcher;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.InputStream;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+
+/**
+ * 对比通过反射和{@link TypeHierarchyResolver}计算公共父类时,编织每个类的耗时<br/>
+ * 不作为单元测试运行,直接执行main方法
+ */
+public class TypeHierarchyResolverBenchmark {
+
+    private static final Class<?>[] CLASSES = {
+            java.util.HashMap.class, java.util.TreeMap.class, java.util.concurrent.ConcurrentHashMap.class,
+            java.util.Formatter.class, java.util.regex.Pattern.class,
+            com.taobao.arthas.core.view.ObjectView.class, Enhancer.class, AdviceWeaver.class
+    };
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    // 花在getCommonSuperClass上的耗时
+    private static long commonSuperClassNanos;
+
+    public static void main(String... args) throws Exception {
+        final byte[][] classBytes = new byte[CLASSES.length][];
+        for (int index = 0; index < CLASSES.length; index++) {
+            classBytes[index] = readClassFile(CLASSES[index]);
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            weaveAll(classBytes, true);
+            weaveAll(classBytes, false);
+        }
+
+        long reflectionNanos = 0;
+        long reflectionCommonSuperClassNanos = 0;
+        long resolverNanos = 0;
+        long resolverCommonSuperClassNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            commonSuperClassNanos = 0;
+            reflectionNanos += weaveAll(classBytes, true);
+            reflectionCommonSuperClassNanos += commonSuperClassNanos;
+
+            commonSuperClassNanos = 0;
+            resolverNanos += weaveAll(classBytes, false);
+            resolverCommonSuperClassNanos += commonSuperClassNanos;
+        }
+
+        final int weaves = ROUNDS * CLASSES.length;
+        System.out.println(String.format("reflection: %.1f us/class, getCommonSuperClass %.1f us/class",
+                reflectionNanos / 1000.0 / weaves, reflectionCommonSuperClassNanos / 1000.0 / weaves));
+        System.out.println(String.format("resolver  : %.1f us/class, getCommonSuperClass %.1f us/class",
+                resolverNanos / 1000.0 / weaves, resolverCommonSuperClassNanos / 1000.0 / weaves));
+    }
+
+    private static long weaveAll(byte[][] classBytes, boolean isReflection) {
+        final long start = System.nanoTime();
+        for (int index = 0; index < classBytes.length; index++) {
+            weave(CLASSES[index], classBytes[index], isReflection);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] weave(Class<?> clazz, byte[] classBytes, final boolean isReflection) {
+        final ClassLoader loader = TypeHierarchyResolverBenchmark.class.getClassLoader();
+        final ClassReader cr = new ClassReader(classBytes);
+        final ClassWriter cw = new ClassWriter(cr, COMPUTE_FRAMES | COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                final long start = System.nanoTime();
+                try {
+                    return isReflection
+                            ? TypeHierarchyResolver.getCommonSuperClassByReflection(loader, type1, type2)
+                            : TypeHierarchyResolver.getCommonSuperClass(loader, type1, type2);
+                } finally {
+                    commonSuperClassNanos += System.nanoTime() - start;
+                }
+            }
+        };
+        cr.accept(new AdviceWeaver(1, true, false, AdviceCapability.ALL, loader, clazz, cr.getClassName(),
+                new TrueMatcher<String>(), new EnhancerAffect(), cw), EXPAND_FRAMES);
+        return cw.toByteArray();
+    }
+
+    private static byte[] readClassFile(Class<?> clazz) throws Exception {
+        final InputStream is = ClassLoader.getSystemResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+}
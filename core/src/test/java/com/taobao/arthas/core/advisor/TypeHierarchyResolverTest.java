@@ -0,0 +1,70 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TypeHierarchyResolverTest {
+
+    private static final Class<?>[] TYPES = {
+            Object.class, String.class, Integer.class, Long.class, Number.class, Serializable.class,
+            ArrayList.class, LinkedList.class, AbstractList.class, List.class, Collection.class,
+            HashMap.class, TreeMap.class, ConcurrentHashMap.class,
+            RuntimeException.class, IllegalArgumentException.class, IllegalStateException.class,
+            TypeHierarchyResolverTest.class
+    };
+
+    @Test
+    public void testSameAsReflection() {
+        final ClassLoader loader = TypeHierarchyResolverTest.class.getClassLoader();
+        for (Class<?> c : TYPES) {
+            for (Class<?> d : TYPES) {
+                final String type1 = c.getName().replace('.', '/');
+                final String type2 = d.getName().replace('.', '/');
+                Assert.assertEquals(type1 + " & " + type2,
+                        TypeHierarchyResolver.getCommonSuperClassByReflection(loader, type1, type2),
+                        TypeHierarchyResolver.getCommonSuperClass(loader, type1, type2));
+            }
+        }
+    }
+
+    @Test
+    public void testBootstrapLoader() {
+        Assert.assertEquals("java/lang/Number",
+                TypeHierarchyResolver.getCommonSuperClass(null, "java/lang/Integer", "java/lang/Long"));
+        Assert.assertEquals("java/lang/RuntimeException",
+                TypeHierarchyResolver.getCommonSuperClass(null,
+                        "java/lang/IllegalArgumentException", "java/lang/IllegalStateException"));
+    }
+
+    @Test
+    public void testDefiningClass() {
+        // 正在定义的类没有类文件,也不能通过Class获取
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "demo/Defining", null, "java/util/ArrayList",
+                new String[]{"java/lang/Runnable"});
+        cw.visitEnd();
+
+        final ClassLoader loader = TypeHierarchyResolverTest.class.getClassLoader();
+        TypeHierarchyResolver.define(loader, cw.toByteArray());
+        final Set<String> superTypes = TypeHierarchyResolver.getSuperTypes(loader, "demo/Defining");
+        Assert.assertTrue(superTypes.contains("java/util/AbstractList"));
+        Assert.assertTrue(superTypes.contains("java/util/List"));
+        Assert.assertTrue(superTypes.contains("java/lang/Runnable"));
+        Assert.assertTrue(superTypes.contains("java/lang/Object"));
+        Assert.assertFalse(superTypes.contains("demo/Defining"));
+    }
+
+}
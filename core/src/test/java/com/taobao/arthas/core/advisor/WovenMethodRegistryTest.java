@@ -0,0 +1,37 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WovenMethodRegistryTest {
+
+    static class Woven {
+    }
+
+    static class Other {
+    }
+
+    @Test
+    public void testStableId() {
+        final ClassLoader loader = Woven.class.getClassLoader();
+        final int id = WovenMethodRegistry.register(loader, Woven.class, "Woven", "m", "()V");
+        Assert.assertEquals(id, WovenMethodRegistry.register(loader, Woven.class, "Woven", "m", "()V"));
+        Assert.assertSame(Woven.class, WovenMethodRegistry.get(id).getClazz());
+        Assert.assertSame(loader, WovenMethodRegistry.get(id).getLoader());
+        WovenMethodRegistry.unregister(Woven.class);
+    }
+
+    @Test
+    public void testReuseId() {
+        final ClassLoader loader = Woven.class.getClassLoader();
+        final int id = WovenMethodRegistry.register(loader, Woven.class, "Woven", "reuse", "()V");
+        WovenMethodRegistry.unregister(Woven.class);
+        Assert.assertNull(WovenMethodRegistry.get(id));
+
+        // 重置后释放的编号重新分配
+        Assert.assertEquals(id, WovenMethodRegistry.register(loader, Other.class, "Other", "reuse", "()V"));
+        Assert.assertEquals("reuse", WovenMethodRegistry.get(id).getMethodName());
+        WovenMethodRegistry.unregister(Other.class);
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.CallSite;
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.view.TreeView;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 对比{@link TreeView}与{@link CallTreeRecorder}记录调用树时,每个调用点begin/end的耗时及分配的内存<br/>
+ * 模拟一个在循环中调用200个调用点的方法。不作为单元测试运行,直接执行main方法
+ */
+public class CallTreeRecorderBenchmark {
+
+    private static final int CALL_SITES = 200;
+    private static final int LOOPS = 10;
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 5000;
+
+    private static final int[] callSiteIds = new int[CALL_SITES];
+
+    // 防止被优化掉
+    private static long sink;
+
+    public static void main(String... args) {
+        for (int index = 0; index < CALL_SITES; index++) {
+            callSiteIds[index] = CallSiteRegistry.register("demo/Service" + index % 10, "call" + index, "()V");
+        }
+
+        final CallTreeRecorder recorder = new CallTreeRecorder();
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            treeView();
+            recorder(recorder);
+        }
+
+        report("TreeView", new Runnable() {
+            @Override
+            public void run() {
+                treeView();
+            }
+        });
+        report("CallTreeRecorder", new Runnable() {
+            @Override
+            public void run() {
+                recorder(recorder);
+            }
+        });
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static void report(String name, Runnable invocation) {
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            invocation.run();
+        }
+        final long cost = System.nanoTime() - start;
+        final long allocated = allocatedBytes() - allocatedBefore;
+
+        final long calls = (long) ROUNDS * LOOPS * CALL_SITES;
+        System.out.println(String.format("%s: %.1f ns/call-site, %.1f bytes/call-site",
+                name, (double) cost / calls, (double) allocated / calls));
+    }
+
+    /**
+     * 原来的记录方式,每次调用都拼接调用点名称
+     */
+    private static void treeView() {
+        final TreeView view = new TreeView(true, "title");
+        view.begin("demo.Service:handle()");
+        for (int loop = 0; loop < LOOPS; loop++) {
+            for (int index = 0; index < CALL_SITES; index++) {
+                final CallSite callSite = CallSiteRegistry.get(callSiteIds[index]);
+                view.begin(StringUtils.normalizeClassName(callSite.getOwner()) + ":" + callSite.getName() + "()");
+                view.end();
+            }
+        }
+        view.end();
+        sink += view.hashCode();
+    }
+
+    private static void recorder(CallTreeRecorder recorder) {
+        recorder.begin(callSiteIds[0]);
+        for (int loop = 0; loop < LOOPS; loop++) {
+            for (int index = 0; index < CALL_SITES; index++) {
+                recorder.begin(callSiteIds[index]);
+                recorder.end();
+            }
+        }
+        recorder.end();
+        sink += recorder.isEmpty() ? 0 : 1;
+        recorder.reset();
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CallTreeRecorderTest {
+
+    private final int handle = CallSiteRegistry.register("demo.Service", "handle", "");
+    private final int query = CallSiteRegistry.register("demo/Dao", "query", "()V");
+    private final int get = CallSiteRegistry.register("demo/Cache", "get", "()V");
+
+    @Test
+    public void testMergeSameCallSite() {
+        final CallTreeRecorder recorder = new CallTreeRecorder();
+        Assert.assertTrue(recorder.isEmpty());
+        recorder.begin(handle);
+        for (int i = 0; i < 3; i++) {
+            recorder.begin(get);
+            recorder.end();
+        }
+        recorder.begin(query);
+        recorder.end(true);
+        recorder.thrown(IllegalStateException.class);
+        recorder.end();
+        Assert.assertFalse(recorder.isEmpty());
+
+        final String tree = recorder.toTreeView("title").draw();
+        final String[] lines = tree.split("\n");
+        Assert.assertEquals(tree, 5, lines.length);
+        Assert.assertTrue(tree, lines[1].endsWith("demo.Service:handle()"));
+        Assert.assertTrue(tree, lines[2].contains("count=3] demo.Cache:get()"));
+        Assert.assertTrue(tree, lines[3].endsWith("demo.Dao:query() [throws Exception]"));
+        Assert.assertTrue(tree, lines[4].endsWith("throw:java.lang.IllegalStateException()"));
+    }
+
+    @Test
+    public void testReuse() {
+        final CallTreeRecorder recorder = new CallTreeRecorder();
+        // 超过默认容量,触发扩容及重新散列
+        recorder.begin(handle);
+        for (int i = 0; i < 1000; i++) {
+            recorder.begin(CallSiteRegistry.register("demo/Many", "call" + i, "()V"));
+            recorder.end();
+        }
+        recorder.end();
+        Assert.assertEquals(1002, recorder.toTreeView("title").draw().split("\n").length);
+
+        recorder.reset();
+        Assert.assertTrue(recorder.isEmpty());
+        recorder.begin(handle);
+        recorder.begin(get);
+        recorder.end();
+        recorder.end();
+        Assert.assertEquals(3, recorder.toTreeView("title").draw().split("\n").length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndRoot() {
+        new CallTreeRecorder().end();
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FoldedStacksTest {
+
+    @Test
+    public void testFold() {
+        final FoldedStacks foldedStacks = new FoldedStacks();
+        final StackTraceElement[] first = stack(10, 11);
+        // 同一方法内不同行的调用合并
+        final StackTraceElement[] second = stack(20, 21);
+        final StackTraceElement[] other = new StackTraceElement[]{
+                new StackTraceElement("java.arthas.Spy", "onBefore", "Spy.java", 1),
+                new StackTraceElement("demo.Dao", "query", "Dao.java", 30),
+                new StackTraceElement("demo.Main", "main", "Main.java", 31)
+        };
+
+        final int from = FoldedStacks.locate(first, "demo.Service", "handle");
+        Assert.assertEquals(1, from);
+        foldedStacks.add(first, from);
+        foldedStacks.add(second, from);
+        foldedStacks.add(other, FoldedStacks.locate(other, "demo.Dao", "query"));
+
+        Assert.assertEquals("demo.Main.main;demo.Dao.query 1\n"
+                        + "demo.Main.main;demo.Service.handle 2\n",
+                foldedStacks.drain());
+
+        // 取出后清零
+        Assert.assertEquals("", foldedStacks.drain());
+        Assert.assertEquals(-1, FoldedStacks.locate(first, "demo.Service", "other"));
+    }
+
+    private static StackTraceElement[] stack(int line, int callerLine) {
+        return new StackTraceElement[]{
+                new StackTraceElement("java.arthas.Spy", "onBefore", "Spy.java", 1),
+                new StackTraceElement("demo.Service", "handle", "Service.java", line),
+                new StackTraceElement("demo.Main", "main", "Main.java", callerLine)
+        };
+    }
+
+}
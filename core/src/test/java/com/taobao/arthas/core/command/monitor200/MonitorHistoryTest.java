@@ -0,0 +1,116 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.metrics.LatencyRecorder;
+import com.taobao.arthas.core.util.metrics.LatencyStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class MonitorHistoryTest {
+
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    @Test
+    public void testWindows() {
+        final MonitorAdviceListener.Key key = new MonitorAdviceListener.Key("demo.Foo", "testWindows");
+        final Object owner = new Object();
+        final MonitorHistory history = MonitorHistory.acquire(key, 5, owner);
+        try {
+            // 两小时的5秒周期,最近一分钟耗时翻倍
+            final long begin = 0;
+            final long end = 2 * 60 * MINUTE;
+            for (long start = begin; start < end; start += 5 * SECOND) {
+                history.add(start, start + 5 * SECOND, stats(10, start >= end - MINUTE ? 2000000L : 1000000L));
+            }
+
+            final MonitorHistory.Window minute = history.window(end, MINUTE);
+            Assert.assertEquals(120, minute.getStats().getTotal());
+            Assert.assertEquals(MINUTE, minute.getCoveredMillis());
+            Assert.assertEquals(2000000.0d, minute.getStats().getAvgNanos(), 0.001d);
+
+            final MonitorHistory.Window hour = history.window(end, 60 * MINUTE);
+            Assert.assertEquals(60 * 12 * 10, hour.getStats().getTotal());
+
+            // 一小时之前的数据按分钟合并后仍然保留
+            final MonitorHistory.Window twoHours = history.window(end, 2 * 60 * MINUTE);
+            Assert.assertEquals(2 * 60 * 12 * 10, twoHours.getStats().getTotal());
+            Assert.assertEquals(2 * 60 * MINUTE, twoHours.getCoveredMillis());
+        } finally {
+            MonitorHistory.release(owner);
+        }
+    }
+
+    @Test
+    public void testSingleOwner() {
+        final MonitorAdviceListener.Key key = new MonitorAdviceListener.Key("demo.Foo", "testSingleOwner");
+        final Object owner = new Object();
+        final Object other = new Object();
+        final MonitorHistory history = MonitorHistory.acquire(key, 5, owner);
+        Assert.assertNotNull(history);
+        Assert.assertNull(MonitorHistory.acquire(key, 5, other));
+
+        // 释放后历史保留,由下一个monitor接着记录
+        MonitorHistory.release(owner);
+        Assert.assertSame(history, MonitorHistory.acquire(key, 5, other));
+        MonitorHistory.release(other);
+    }
+
+    @Test
+    public void testExpireIdleHistories() {
+        final MonitorAdviceListener.Key key = new MonitorAdviceListener.Key("demo.Foo", "testExpireIdleHistories");
+        final Object owner = new Object();
+        MonitorHistory.acquire(key, 5, owner);
+
+        // 正在记录的历史不会过期
+        MonitorHistory.expunge(System.currentTimeMillis() + 24 * 60 * MINUTE);
+        Assert.assertTrue(MonitorHistory.histories().containsKey(key));
+
+        // 停止记录后保留到数据全部过期为止
+        MonitorHistory.release(owner);
+        MonitorHistory.expunge(System.currentTimeMillis() + 60 * MINUTE);
+        Assert.assertTrue(MonitorHistory.histories().containsKey(key));
+        MonitorHistory.expunge(System.currentTimeMillis() + 8 * 60 * MINUTE);
+        Assert.assertFalse(MonitorHistory.histories().containsKey(key));
+    }
+
+    @Test
+    public void testIdleHistoriesBounded() throws Exception {
+        final Object first = new Object();
+        final MonitorAdviceListener.Key firstKey = new MonitorAdviceListener.Key("demo.Foo", "testIdleHistoriesBounded");
+        MonitorHistory.acquire(firstKey, 5, first);
+        MonitorHistory.release(first);
+        Thread.sleep(5);
+
+        final Object owner = new Object();
+        for (int index = 0; index < MonitorHistory.MAX_IDLE_HISTORIES; index++) {
+            MonitorHistory.acquire(new MonitorAdviceListener.Key("demo.Bar", "method" + index), 5, owner);
+        }
+        MonitorHistory.release(owner);
+
+        // 超过上限时丢弃最早停止记录的
+        Assert.assertTrue(MonitorHistory.histories().size() <= MonitorHistory.MAX_IDLE_HISTORIES);
+        Assert.assertFalse(MonitorHistory.histories().containsKey(firstKey));
+    }
+
+    @Test
+    public void testParseWindows() {
+        Assert.assertEquals(Arrays.asList(30 * SECOND, MINUTE, 15 * MINUTE, 60 * MINUTE),
+                MonitorCommand.parseWindows("15m, 1m,30s,1h,60m"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseIllegalWindows() {
+        MonitorCommand.parseWindows("5x");
+    }
+
+    private static LatencyStats stats(int count, long costNanos) {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        for (int index = 0; index < count; index++) {
+            recorder.record(costNanos, false);
+        }
+        return recorder.drain();
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TraceAdviceListenerTest {
+
+    @Test
+    public void testReleaseEntitiesOfAllThreads() throws Throwable {
+        final TraceAdviceListener listener = new TraceAdviceListener(new TraceCommand(), null);
+        final ArthasMethod method = ArthasMethod.newMethod(Object.class.getMethod("hashCode"));
+        final AtomicReference<TraceEntity> entity = new AtomicReference<TraceEntity>();
+
+        // 其他线程留下的实体,线程结束前不会清理自己的ThreadLocalMap
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    listener.before(getClass().getClassLoader(), Object.class, method, null, null);
+                    listener.invokeBeforeTracing(0);
+                    entity.set(listener.threadBoundEntity.get());
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            }
+        };
+        worker.start();
+        worker.join();
+        Assert.assertFalse(entity.get().getRecorder().isReleased());
+
+        listener.destroy();
+        Assert.assertTrue(entity.get().getRecorder().isReleased());
+
+        // 销毁之后的通知被忽略
+        listener.before(getClass().getClassLoader(), Object.class, method, null, null);
+        listener.invokeBeforeTracing(0);
+        Assert.assertTrue(listener.threadBoundEntity.get().getRecorder().isReleased());
+    }
+
+}
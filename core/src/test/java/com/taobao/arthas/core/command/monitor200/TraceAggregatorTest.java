@@ -0,0 +1,150 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.CallSiteRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TraceAggregatorTest {
+
+    private final int service = CallSiteRegistry.register("demo.Service", "handle", "");
+    private final int dao = CallSiteRegistry.register("demo/Dao", "query", "()V");
+    private final int cache = CallSiteRegistry.register("demo/Cache", "get", "()V");
+
+    @Test
+    public void testAggregate() throws Exception {
+        final TraceAggregator aggregator = new TraceAggregator();
+        final int threads = 4;
+        final int times = 1000;
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    final TraceAggregator.Recorder recorder = aggregator.recorder();
+                    for (int time = 0; time < times; time++) {
+                        recorder.enter(service);
+                        recorder.enter(cache);
+                        recorder.exit(false);
+                        if (time % 10 == 0) {
+                            recorder.enter(dao);
+                            recorder.exit(true);
+                        }
+                        recorder.exit(false);
+                        recorder.commit();
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        final TraceAggregator.Node merged = aggregator.drain();
+        Assert.assertEquals(1, merged.getChildren().length);
+        final TraceAggregator.Node root = merged.getChildren()[0];
+        Assert.assertEquals(service, root.getKey());
+        Assert.assertEquals(threads * times, root.getCount());
+        Assert.assertEquals(2, root.getChildren().length);
+        Assert.assertEquals(threads * times, child(root, cache).getCount());
+        Assert.assertEquals(threads * times / 10, child(root, dao).getCount());
+        Assert.assertEquals(threads * times / 10, child(root, dao).getThrownCount());
+        Assert.assertTrue(root.getMinNanos() <= root.getMaxNanos());
+        Assert.assertTrue(root.getSelfNanos() <= root.getTotalNanos());
+
+        final String tree = TraceAggregator.draw("title", merged);
+        Assert.assertTrue(tree, tree.contains("demo.Service:handle()"));
+        Assert.assertTrue(tree, tree.contains("demo.Dao:query()"));
+        Assert.assertTrue(tree, tree.contains("count=" + threads * times));
+
+        // 取出后清零
+        Assert.assertTrue(aggregator.drain().isEmpty());
+    }
+
+    @Test
+    public void testFold() throws Exception {
+        final TraceAggregator aggregator = new TraceAggregator();
+        final TraceAggregator.Recorder recorder = aggregator.recorder();
+        recorder.enter(service);
+        recorder.enter(dao);
+        Thread.sleep(2);
+        recorder.exit(false);
+        recorder.exit(false);
+        recorder.commit();
+
+        final String[] lines = TraceAggregator.fold(aggregator.drain()).split("\n");
+        Assert.assertTrue(lines[lines.length - 1].startsWith("demo.Service.handle;demo.Dao.query "));
+        final long micros = Long.parseLong(lines[lines.length - 1].substring("demo.Service.handle;demo.Dao.query ".length()));
+        Assert.assertTrue(String.valueOf(micros), micros >= 2000);
+    }
+
+    @Test
+    public void testDiscard() {
+        final TraceAggregator aggregator = new TraceAggregator();
+        final TraceAggregator.Recorder recorder = aggregator.recorder();
+        recorder.enter(service);
+        recorder.enter(dao);
+        Assert.assertFalse(recorder.isIdle());
+        recorder.exit(false);
+        recorder.exit(false);
+        Assert.assertTrue(recorder.isIdle());
+        recorder.discard();
+        Assert.assertTrue(aggregator.drain().isEmpty());
+
+        // 没有与之对应的进入
+        Assert.assertEquals(-1, recorder.exit(false));
+    }
+
+    @Test
+    public void testDestroyReleasesAllThreads() throws Exception {
+        final TraceAggregator aggregator = new TraceAggregator();
+        final TraceAggregator.Recorder[] recorders = new TraceAggregator.Recorder[1];
+
+        // 其他线程的记录器,线程结束前仍然在它的ThreadLocalMap中
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                final TraceAggregator.Recorder recorder = aggregator.recorder();
+                recorder.enter(service);
+                recorder.exit(false);
+                recorder.commit();
+                recorder.enter(service);
+                recorders[0] = recorder;
+            }
+        };
+        worker.start();
+        worker.join();
+        Assert.assertFalse(recorders[0].isReleased());
+
+        aggregator.destroy();
+        Assert.assertTrue(recorders[0].isReleased());
+        Assert.assertTrue(aggregator.drain().isEmpty());
+
+        // 释放后的记录被忽略
+        recorders[0].enter(dao);
+        Assert.assertEquals(-1, recorders[0].exit(false));
+        recorders[0].commit();
+        Assert.assertTrue(aggregator.recorder().isReleased());
+    }
+
+    @Test
+    public void testCallSiteRegistry() {
+        Assert.assertEquals(dao, CallSiteRegistry.register("demo/Dao", "query", "()V"));
+        Assert.assertEquals("demo.Dao:query()", CallSiteRegistry.get(dao).getTitle());
+        Assert.assertNull(CallSiteRegistry.get(-1));
+    }
+
+    private static TraceAggregator.Node child(TraceAggregator.Node node, int key) {
+        for (TraceAggregator.Node child : node.getChildren()) {
+            if (child.getKey() == key) {
+                return child;
+            }
+        }
+        throw new AssertionError("no child " + key);
+    }
+
+}
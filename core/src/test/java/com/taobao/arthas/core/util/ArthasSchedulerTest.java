@@ -0,0 +1,76 @@
+package com.taobao.arthas.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ArthasSchedulerTest {
+
+    @Test
+    public void testExceptionNotStopPeriodicTask() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final ArthasScheduler.ScheduledTask task = ArthasScheduler.scheduleAtFixedRate("test-boom", new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+                throw new RuntimeException("boom");
+            }
+        }, 0, 10);
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.cancel();
+        }
+    }
+
+    @Test
+    public void testCancelInsideTask() throws Exception {
+        final AtomicInteger times = new AtomicInteger();
+        final ArthasScheduler.ScheduledTask[] holder = new ArthasScheduler.ScheduledTask[1];
+        final CountDownLatch scheduled = new CountDownLatch(1);
+        holder[0] = ArthasScheduler.scheduleAtFixedRate("test-cancel", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduled.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (times.incrementAndGet() == 2) {
+                    holder[0].cancel();
+                }
+            }
+        }, 0, 10);
+        scheduled.countDown();
+
+        Thread.sleep(200);
+        Assert.assertTrue(holder[0].isCancelled());
+        Assert.assertEquals(2, times.get());
+    }
+
+    @Test
+    public void testOverrun() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ArthasScheduler.ScheduledTask task = ArthasScheduler.scheduleAtFixedRate("test-overrun", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                latch.countDown();
+            }
+        }, 0, 10);
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.cancel();
+        }
+        Assert.assertTrue(task.getOverruns() >= 1);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.taobao.arthas.core.util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testBucketBounds() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123456789L, (1L << 40) - 1};
+        for (long value : values) {
+            final int index = LatencyStats.bucketIndex(value);
+            Assert.assertTrue(index < LatencyStats.BUCKET_COUNT);
+            Assert.assertTrue(value <= LatencyStats.bucketUpperBound(index));
+            Assert.assertTrue(index == 0 || value > LatencyStats.bucketUpperBound(index - 1));
+        }
+        Assert.assertEquals(LatencyStats.BUCKET_COUNT - 1, LatencyStats.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        for (int micros = 1; micros <= 1000; micros++) {
+            recorder.record(micros * 1000L, micros % 10 == 0);
+        }
+
+        final LatencyStats stats = recorder.drain();
+        Assert.assertEquals(1000, stats.getTotal());
+        Assert.assertEquals(100, stats.getFailed());
+        Assert.assertEquals(1000000L, stats.getMaxNanos());
+        Assert.assertEquals(500500.0d, stats.getAvgNanos(), 0.001d);
+        assertNear(500000L, stats.getPercentileNanos(0.50d));
+        assertNear(900000L, stats.getPercentileNanos(0.90d));
+        assertNear(990000L, stats.getPercentileNanos(0.99d));
+
+        // 取出后清零
+        Assert.assertEquals(0, recorder.drain().getTotal());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final int threads = 16;
+        final int times = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int time = 0; time < times; time++) {
+                        recorder.record(100, false);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+
+        // 记录的同时取出,合并后不丢失任何一次记录
+        final LatencyStats merged = new LatencyStats();
+        for (Thread worker : workers) {
+            merged.add(recorder.drain());
+            worker.join();
+        }
+        merged.add(recorder.drain());
+
+        Assert.assertEquals(threads * times, merged.getTotal());
+        Assert.assertEquals(threads * times * 100L, merged.getTotalNanos());
+        Assert.assertEquals(100L, merged.getMaxNanos());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(expected + " ~ " + actual, Math.abs(expected - actual) <= expected / 8);
+    }
+
+}
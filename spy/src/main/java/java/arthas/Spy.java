@@ -10,13 +10,24 @@ import java.lang.reflect.Method;
 public class Spy {
 
 
-    // -- 各种Advice的钩子引用 --
-    public static volatile Method ON_BEFORE_METHOD;
-    public static volatile Method ON_RETURN_METHOD;
-    public static volatile Method ON_THROWS_METHOD;
-    public static volatile Method BEFORE_INVOKING_METHOD;
-    public static volatile Method AFTER_INVOKING_METHOD;
-    public static volatile Method THROW_INVOKING_METHOD;
+    /**
+     * 通知的钩子实现<br/>
+     * 由arthas的classloader提供实现，被编织的代码通过Spy的静态方法直接调用，不再经过反射
+     */
+    public static volatile AbstractSpy SPY_INSTANCE;
+
+    /**
+     * 处于活动状态的通知ID表<br/>
+     * 以通知ID对表长(2的幂)取模定位槽位,槽位中的值与通知ID相等时表示该通知处于活动状态。
+     * 被编织的代码在方法入口先检查这张表,通知暂停或注销后只剩下一次数组访问的开销
+     */
+    public static volatile int[] ACTIVE_ADVICE_IDS = new int[]{-1};
+
+    /**
+     * 通知的采样器表<br/>
+     * 与{@link #ACTIVE_ADVICE_IDS}下标一一对应,没有采样的通知为null
+     */
+    public static volatile AbstractSampler[] ADVICE_SAMPLERS = new AbstractSampler[1];
 
     /**
      * arthas's classloader 引用
@@ -31,21 +42,9 @@ public class Spy {
     /*
      * 用于普通的间谍初始化
      */
-    public static void init(
-            ClassLoader classLoader,
-            Method onBeforeMethod,
-            Method onReturnMethod,
-            Method onThrowsMethod,
-            Method beforeInvokingMethod,
-            Method afterInvokingMethod,
-            Method throwInvokingMethod) {
+    public static void init(ClassLoader classLoader, AbstractSpy spyInstance) {
         CLASSLOADER = classLoader;
-        ON_BEFORE_METHOD = onBeforeMethod;
-        ON_RETURN_METHOD = onReturnMethod;
-        ON_THROWS_METHOD = onThrowsMethod;
-        BEFORE_INVOKING_METHOD = beforeInvokingMethod;
-        AFTER_INVOKING_METHOD = afterInvokingMethod;
-        THROW_INVOKING_METHOD = throwInvokingMethod;
+        SPY_INSTANCE = spyInstance;
     }
 
     /*
@@ -53,35 +52,81 @@ public class Spy {
      */
     public static void initForAgentLauncher(
             ClassLoader classLoader,
-            Method onBeforeMethod,
-            Method onReturnMethod,
-            Method onThrowsMethod,
-            Method beforeInvokingMethod,
-            Method afterInvokingMethod,
-            Method throwInvokingMethod,
+            AbstractSpy spyInstance,
             Method agentResetMethod) {
         CLASSLOADER = classLoader;
-        ON_BEFORE_METHOD = onBeforeMethod;
-        ON_RETURN_METHOD = onReturnMethod;
-        ON_THROWS_METHOD = onThrowsMethod;
-        BEFORE_INVOKING_METHOD = beforeInvokingMethod;
-        AFTER_INVOKING_METHOD = afterInvokingMethod;
-        THROW_INVOKING_METHOD = throwInvokingMethod;
+        SPY_INSTANCE = spyInstance;
         AGENT_RESET_METHOD = agentResetMethod;
     }
 
+    // -- 被编织到目标方法中的静态入口 --
+
+    /**
+     * 本次调用是否需要通知<br/>
+     * 通知处于活动状态,并且被采样器选中(未设置采样器时全部选中)
+     */
+    public static boolean isActive(int adviceId) {
+        final int[] activeAdviceIds = ACTIVE_ADVICE_IDS;
+        final int slot = adviceId & (activeAdviceIds.length - 1);
+        if (activeAdviceIds[slot] != adviceId) {
+            return false;
+        }
+        final AbstractSampler[] samplers = ADVICE_SAMPLERS;
+        final AbstractSampler sampler = slot < samplers.length ? samplers[slot] : null;
+        return null == sampler || sampler.sample();
+    }
+
+    public static void onBefore(int adviceId, int methodId, Object target, Object[] args) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.onBefore(adviceId, methodId, target, args);
+        }
+    }
+
+    public static void onReturn(Object returnObject) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.onReturn(returnObject);
+        }
+    }
+
+    public static void onThrows(Throwable throwable) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.onThrows(throwable);
+        }
+    }
+
+    public static void beforeInvoking(int adviceId, int callSiteId) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.beforeInvoking(adviceId, callSiteId);
+        }
+    }
+
+    public static void afterInvoking(int adviceId, int callSiteId) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.afterInvoking(adviceId, callSiteId);
+        }
+    }
+
+    public static void throwInvoking(int adviceId, int callSiteId) {
+        final AbstractSpy spy = SPY_INSTANCE;
+        if (null != spy) {
+            spy.throwInvoking(adviceId, callSiteId);
+        }
+    }
+
     /**
      * Clean up the reference to com.taobao.arthas.agent.AgentLauncher$1
      * to avoid classloader leak.
      */
     public static void destroy() {
         CLASSLOADER = null;
-        ON_BEFORE_METHOD = null;
-        ON_RETURN_METHOD = null;
-        ON_THROWS_METHOD = null;
-        BEFORE_INVOKING_METHOD = null;
-        AFTER_INVOKING_METHOD = null;
-        THROW_INVOKING_METHOD = null;
+        SPY_INSTANCE = null;
+        ACTIVE_ADVICE_IDS = new int[]{-1};
+        ADVICE_SAMPLERS = new AbstractSampler[1];
         // clear the reference to ArthasClassLoader in AgentLauncher
         if (AGENT_RESET_METHOD != null) {
             try {
@@ -93,4 +138,35 @@ public class Spy {
         AGENT_RESET_METHOD = null;
     }
 
+    /**
+     * 通知钩子<br/>
+     * 与Spy一同被BootstrapClassLoader加载，arthas的classloader中的实现类继承它，
+     * 从而让目标类与arthas类之间可以直接进行方法调用
+     */
+    public static abstract class AbstractSpy {
+
+        public abstract void onBefore(int adviceId, int methodId, Object target, Object[] args);
+
+        public abstract void onReturn(Object returnObject);
+
+        public abstract void onThrows(Throwable throwable);
+
+        public abstract void beforeInvoking(int adviceId, int callSiteId);
+
+        public abstract void afterInvoking(int adviceId, int callSiteId);
+
+        public abstract void throwInvoking(int adviceId, int callSiteId);
+
+    }
+
+    /**
+     * 采样器<br/>
+     * 在方法入口、采集任何现场数据之前决定本次调用是否需要通知
+     */
+    public static abstract class AbstractSampler {
+
+        public abstract boolean sample();
+
+    }
+
 }